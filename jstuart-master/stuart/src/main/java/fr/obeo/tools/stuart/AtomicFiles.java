@@ -0,0 +1,77 @@
+package fr.obeo.tools.stuart;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+
+import com.google.common.base.Charsets;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Reads and writes the state files kept from one run to the other
+ * (watermarks, snapshots, mirrors...). A file is written in a temporary file,
+ * synced to disk and then moved in place so that a crash never leaves a
+ * half-written file behind.
+ */
+public class AtomicFiles {
+
+	/**
+	 * Writes the content of a file.
+	 */
+	public interface Content {
+
+		void writeTo(Writer writer) throws IOException;
+
+	}
+
+	public static void write(File file, Content content) throws IOException {
+		com.google.common.io.Files.createParentDirs(file);
+		File tmp = new File(file.getPath() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(tmp)) {
+			Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+			content.writeTo(writer);
+			writer.flush();
+			out.getFD().sync();
+		}
+		try {
+			java.nio.file.Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			java.nio.file.Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	public static void write(File file, final String content) throws IOException {
+		write(file, writer -> writer.write(content));
+	}
+
+	public static void writeJson(File file, final Gson gson, final Object value) throws IOException {
+		write(file, writer -> gson.toJson(value, writer));
+	}
+
+	/**
+	 * @return the value stored in the file, null if there is none or if it
+	 *         can't be read. The callers then start again from scratch, the
+	 *         file being only there to avoid retrieving everything again.
+	 */
+	public static <T> T readJson(File file, Gson gson, Type type) {
+		if (file == null || !file.exists()) {
+			return null;
+		}
+		try (InputStreamReader reader = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8)) {
+			return gson.fromJson(reader, type);
+		} catch (IOException | JsonParseException e) {
+			System.err.println(file + " " + e.getMessage());
+		}
+		return null;
+	}
+
+}
@@ -51,6 +51,12 @@ public class EmitterTrace {
 		return trace;
 	}
 
+	/**
+	 * Release the files kept open by the trace, if any.
+	 */
+	public void close() throws IOException {
+	}
+
 	public Map<String, Date> evictOldEvents(Map<String, Date> trace, int nbDays) {
 		Calendar cal = Calendar.getInstance();
 		cal.add(Calendar.DATE, -nbDays);
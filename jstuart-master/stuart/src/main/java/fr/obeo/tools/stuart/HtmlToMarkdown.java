@@ -0,0 +1,288 @@
+package fr.obeo.tools.stuart;
+
+import java.util.List;
+import java.util.Set;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+/**
+ * Converts the HTML body of a feed entry to the markdown of a post, walking
+ * the DOM once. Links, code blocks and quotes are kept, the quoted replies of
+ * mails (lines starting with &gt;) are dropped and the conversion stops at
+ * the signature. The images are not rendered but their URL is collected on
+ * the way.
+ */
+public class HtmlToMarkdown {
+
+	private String mediaBaseURL;
+
+	private Set<String> skippedClasses = Sets.newHashSet();
+
+	public HtmlToMarkdown() {
+		this(null);
+	}
+
+	/**
+	 * @param mediaBaseURL
+	 *            the URL prepended to the relative images, null to keep them
+	 *            as is.
+	 */
+	public HtmlToMarkdown(String mediaBaseURL) {
+		this.mediaBaseURL = mediaBaseURL;
+	}
+
+	/**
+	 * Leave out the elements having the given CSS class.
+	 */
+	public HtmlToMarkdown skipClass(String cssClass) {
+		this.skippedClasses.add(cssClass);
+		return this;
+	}
+
+	public Result convert(String html) {
+		Walker walker = new Walker();
+		if (html != null) {
+			walker.children(Jsoup.parseBodyFragment(html).body());
+			walker.newLine();
+		}
+		return new Result(walker.out.toString(), ImmutableList.copyOf(walker.media));
+	}
+
+	private String resolve(String url) {
+		if (mediaBaseURL != null && !url.startsWith("http")) {
+			return mediaBaseURL + url;
+		}
+		return url;
+	}
+
+	public static class Result {
+
+		private String markdown;
+
+		private List<String> mediaURLs;
+
+		Result(String markdown, List<String> mediaURLs) {
+			this.markdown = markdown;
+			this.mediaURLs = mediaURLs;
+		}
+
+		public String getMarkdown() {
+			return markdown;
+		}
+
+		/**
+		 * @return the URL of the images, in document order.
+		 */
+		public List<String> getMediaURLs() {
+			return mediaURLs;
+		}
+
+		@Override
+		public String toString() {
+			return markdown;
+		}
+	}
+
+	private class Walker {
+
+		private StringBuilder out = new StringBuilder();
+
+		private StringBuilder line = new StringBuilder();
+
+		private Set<String> media = Sets.newLinkedHashSet();
+
+		private String linePrefix = "";
+
+		private int quoteDepth = 0;
+
+		private boolean inPre = false;
+
+		private boolean inCodeBlock = false;
+
+		private boolean foundSignature = false;
+
+		void children(Element element) {
+			for (Node child : element.childNodes()) {
+				if (foundSignature) {
+					return;
+				}
+				if (child instanceof TextNode) {
+					text(((TextNode) child).getWholeText());
+				} else if (child instanceof Element) {
+					element((Element) child);
+				}
+			}
+		}
+
+		private void element(Element e) {
+			for (String cssClass : e.classNames()) {
+				if (skippedClasses.contains(cssClass)) {
+					return;
+				}
+			}
+			String tag = e.tagName();
+			switch (tag) {
+			case "script":
+			case "style":
+				return;
+			case "br":
+				newLine();
+				return;
+			case "img":
+				if (e.attr("src").length() > 0) {
+					media.add(resolve(e.attr("src")));
+				}
+				return;
+			case "a":
+				link(e);
+				return;
+			case "pre":
+				pre(e);
+				return;
+			case "code":
+				if (!inPre) {
+					line.append('`').append(e.text()).append('`');
+					return;
+				}
+				break;
+			case "blockquote":
+				newLine();
+				quoteDepth++;
+				children(e);
+				newLine();
+				quoteDepth--;
+				return;
+			case "li":
+				newLine();
+				linePrefix = "- ";
+				children(e);
+				newLine();
+				linePrefix = "";
+				return;
+			case "h1":
+			case "h2":
+			case "h3":
+			case "h4":
+			case "h5":
+			case "h6":
+				newLine();
+				linePrefix = Strings.repeat("#", tag.charAt(1) - '0') + " ";
+				children(e);
+				newLine();
+				linePrefix = "";
+				return;
+			default:
+				break;
+			}
+			if (e.isBlock()) {
+				newLine();
+				children(e);
+				newLine();
+			} else {
+				children(e);
+			}
+		}
+
+		private void link(Element e) {
+			String href = e.attr("href");
+			if (href.isEmpty() || href.startsWith("#") || href.startsWith("javascript:")) {
+				children(e);
+				return;
+			}
+			int start = line.length();
+			int outStart = out.length();
+			children(e);
+			if (out.length() != outStart || line.length() < start) {
+				/*
+				 * the anchor holds blocks, its text is already out.
+				 */
+				return;
+			}
+			String label = line.substring(start).trim();
+			line.setLength(start);
+			if (label.isEmpty() || label.equals(href)) {
+				line.append(label);
+			} else {
+				line.append('[').append(label).append("](").append(href).append(')');
+			}
+		}
+
+		private void pre(Element e) {
+			newLine();
+			boolean code = e.getElementsByTag("code").size() > 0;
+			inPre = true;
+			if (code) {
+				/*
+				 * a plain pre is most of the time the text of a mail, only
+				 * the actual code is fenced.
+				 */
+				out.append(quotePrefix()).append("```\n");
+				inCodeBlock = true;
+			}
+			children(e);
+			if (line.length() > 0) {
+				newLine();
+			}
+			if (code) {
+				out.append(quotePrefix()).append("```\n");
+				inCodeBlock = false;
+			}
+			inPre = false;
+		}
+
+		private void text(String text) {
+			if (inPre) {
+				int from = 0;
+				int eol = text.indexOf('\n');
+				while (eol != -1) {
+					line.append(text, from, eol);
+					newLine();
+					from = eol + 1;
+					eol = text.indexOf('\n', from);
+				}
+				line.append(text, from, text.length());
+			} else {
+				String collapsed = CharMatcher.WHITESPACE.collapseFrom(text, ' ');
+				if (line.length() == 0 || line.charAt(line.length() - 1) == ' ') {
+					collapsed = CharMatcher.WHITESPACE.trimLeadingFrom(collapsed);
+				}
+				line.append(collapsed);
+			}
+		}
+
+		void newLine() {
+			String text = line.toString();
+			line.setLength(0);
+			if (foundSignature) {
+				return;
+			}
+			if (inCodeBlock) {
+				out.append(quotePrefix()).append(text).append('\n');
+				return;
+			}
+			String trimmed = text.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith(">")) {
+				return;
+			}
+			if (trimmed.startsWith("--")) {
+				foundSignature = true;
+				return;
+			}
+			out.append(quotePrefix()).append(linePrefix).append(CharMatcher.WHITESPACE.trimTrailingFrom(text))
+					.append('\n');
+		}
+
+		private String quotePrefix() {
+			return Strings.repeat("> ", quoteDepth);
+		}
+	}
+
+}
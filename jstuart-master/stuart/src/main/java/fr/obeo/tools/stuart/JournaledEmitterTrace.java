@@ -0,0 +1,292 @@
+package fr.obeo.tools.stuart;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ForwardingMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * An {@link EmitterTrace} backed by an append-only journal. Recording a sent
+ * post appends a single line to the journal instead of rewriting the whole
+ * trace, {@link #save(Map)} only syncs the journal to disk and compacts it once
+ * it got too big, and {@link #evictOldEvents(Map, int)} is a compaction pass.
+ * Compactions are written in a temporary file which atomically replaces the
+ * journal. A crash can at worst lose the line being written : the journal is
+ * reopened on a new line.
+ *
+ * The first load imports the JSON trace written by {@link EmitterTrace} if no
+ * journal exists yet.
+ */
+public class JournaledEmitterTrace extends EmitterTrace {
+
+	private static final String REMOVED = "-";
+
+	/*
+	 * the journal is compacted when it holds more than twice as many lines as
+	 * live events (plus some slack so that small traces are left alone).
+	 */
+	private static final int COMPACTION_SLACK = 1000;
+
+	private File journalFile;
+
+	private FileOutputStream journalOut;
+
+	private Writer journal;
+
+	private int nbJournalLines;
+
+	private JournaledMap loaded;
+
+	public JournaledEmitterTrace(File traceFile) {
+		super(traceFile);
+		this.journalFile = new File(traceFile.getPath() + ".journal");
+	}
+
+	@Override
+	public Map<String, Date> load() throws FileNotFoundException {
+		Map<String, Date> events = Maps.newLinkedHashMap();
+		try {
+			if (journalFile.exists()) {
+				nbJournalLines = replay(events);
+			} else {
+				events.putAll(super.load());
+				compact(events);
+			}
+			openJournal();
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		loaded = new JournaledMap(events);
+		return loaded;
+	}
+
+	@Override
+	public Map<String, Date> save(Map<String, Date> trace) throws IOException {
+		if (trace instanceof JournaledMap) {
+			synchronized (trace) {
+				journal.flush();
+				journalOut.getFD().sync();
+				if (nbJournalLines > 2 * trace.size() + COMPACTION_SLACK) {
+					compact(((JournaledMap) trace).events);
+					openJournal();
+				}
+			}
+		} else {
+			compact(trace);
+			openJournal();
+		}
+		return trace;
+	}
+
+	@Override
+	public Map<String, Date> evictOldEvents(Map<String, Date> trace, int nbDays) {
+		if (!(trace instanceof JournaledMap)) {
+			return super.evictOldEvents(trace, nbDays);
+		}
+		Calendar cal = Calendar.getInstance();
+		cal.add(Calendar.DATE, -nbDays);
+		Date daysAgo = cal.getTime();
+		synchronized (trace) {
+			Iterator<Map.Entry<String, Date>> it = ((JournaledMap) trace).events.entrySet().iterator();
+			while (it.hasNext()) {
+				if (it.next().getValue().before(daysAgo)) {
+					it.remove();
+				}
+			}
+			try {
+				compact(((JournaledMap) trace).events);
+				openJournal();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return trace;
+	}
+
+	/**
+	 * Close the journal, the trace should not be modified anymore.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (loaded != null) {
+			synchronized (loaded) {
+				closeJournal();
+			}
+		} else {
+			closeJournal();
+		}
+	}
+
+	private int replay(Map<String, Date> events) throws IOException {
+		int nbLines = 0;
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(journalFile), Charsets.UTF_8))) {
+			String line = reader.readLine();
+			while (line != null) {
+				nbLines++;
+				int tab = line.indexOf('\t');
+				if (tab > 0) {
+					String key = TabSeparatedLines.unescape(line.substring(tab + 1));
+					String value = line.substring(0, tab);
+					if (REMOVED.equals(value)) {
+						events.remove(key);
+					} else {
+						try {
+							events.put(key, new Date(Long.parseLong(value)));
+						} catch (NumberFormatException e) {
+							/*
+							 * a line which got truncated by a crash, ignore it.
+							 */
+						}
+					}
+				}
+				line = reader.readLine();
+			}
+		}
+		return nbLines;
+	}
+
+	private void compact(Map<String, Date> events) throws IOException {
+		closeJournal();
+		AtomicFiles.write(journalFile, writer -> {
+			for (Map.Entry<String, Date> event : events.entrySet()) {
+				writer.write(line(Long.toString(event.getValue().getTime()), event.getKey()));
+			}
+		});
+		nbJournalLines = events.size();
+	}
+
+	private void openJournal() throws IOException {
+		closeJournal();
+		TabSeparatedLines.terminateLastLine(journalFile);
+		journalOut = new FileOutputStream(journalFile, true);
+		journal = new OutputStreamWriter(journalOut, Charsets.UTF_8);
+	}
+
+	private void closeJournal() throws IOException {
+		if (journal != null) {
+			journal.close();
+			journal = null;
+			journalOut = null;
+		}
+	}
+
+	private void append(String value, String key) {
+		try {
+			journal.write(line(value, key));
+			journal.flush();
+			nbJournalLines++;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String line(String value, String key) {
+		return value + '\t' + TabSeparatedLines.escape(key) + '\n';
+	}
+
+	/**
+	 * The trace as returned by {@link JournaledEmitterTrace#load()} : every
+	 * modification is appended to the journal. It can be updated from several
+	 * threads, views are read-only copies taken when they are asked for so
+	 * that they can be read while posts are recorded and no modification can
+	 * bypass the journal.
+	 */
+	private class JournaledMap extends ForwardingMap<String, Date> {
+
+		private Map<String, Date> events;
+
+		JournaledMap(Map<String, Date> events) {
+			this.events = events;
+		}
+
+		@Override
+		protected Map<String, Date> delegate() {
+			return events;
+		}
+
+		@Override
+		public synchronized Date put(String key, Date value) {
+			append(Long.toString(value.getTime()), key);
+			return events.put(key, value);
+		}
+
+		@Override
+		public void putAll(Map<? extends String, ? extends Date> map) {
+			standardPutAll(map);
+		}
+
+		@Override
+		public synchronized Date remove(Object key) {
+			if (key instanceof String && events.containsKey(key)) {
+				append(REMOVED, (String) key);
+			}
+			return events.remove(key);
+		}
+
+		@Override
+		public synchronized void clear() {
+			for (String key : Lists.newArrayList(events.keySet())) {
+				remove(key);
+			}
+		}
+
+		@Override
+		public synchronized Date get(Object key) {
+			return events.get(key);
+		}
+
+		@Override
+		public synchronized boolean containsKey(Object key) {
+			return events.containsKey(key);
+		}
+
+		@Override
+		public synchronized int size() {
+			return events.size();
+		}
+
+		@Override
+		public synchronized boolean isEmpty() {
+			return events.isEmpty();
+		}
+
+		@Override
+		public synchronized Set<String> keySet() {
+			return ImmutableSet.copyOf(events.keySet());
+		}
+
+		@Override
+		public synchronized Collection<Date> values() {
+			return ImmutableList.copyOf(events.values());
+		}
+
+		@Override
+		public synchronized Set<Map.Entry<String, Date>> entrySet() {
+			return ImmutableMap.copyOf(events).entrySet();
+		}
+
+	}
+
+}
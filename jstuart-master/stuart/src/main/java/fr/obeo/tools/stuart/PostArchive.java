@@ -0,0 +1,443 @@
+package fr.obeo.tools.stuart;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * Stores the posts of a source (a forum, a mailing list...) in a folder, one
+ * segment file per month of creation. Segments are only appended to : storing
+ * a post which is already there appends its new version, the last one wins.
+ * An index of every post (key, segment, creation date, thread and author) is
+ * kept in memory and journaled in the folder, a query only reads the segments
+ * holding the posts it returns.
+ *
+ * The archive is compacted, rewriting the segments without the old versions,
+ * once they account for more than half of the stored lines.
+ */
+public class PostArchive {
+
+	private static final String INDEX_FILE = "index.log";
+
+	private static final String SEGMENT_EXTENSION = ".jsonl";
+
+	private static final int COMPACTION_SLACK = 1000;
+
+	private static Comparator<Post> byCreationDate = new Comparator<Post>() {
+		public int compare(Post m1, Post m2) {
+			return m1.getCreatedAt().compareTo(m2.getCreatedAt());
+		}
+	};
+
+	private File folder;
+
+	private Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").disableHtmlEscaping()
+			.create();
+
+	private Map<String, IndexEntry> index;
+
+	private Multimap<String, String> keysByThread = HashMultimap.create();
+
+	private Multimap<String, String> keysByAuthor = HashMultimap.create();
+
+	private int nbStoredLines;
+
+	public PostArchive(File folder) {
+		this.folder = folder;
+	}
+
+	public synchronized int size() {
+		return index().size();
+	}
+
+	public synchronized boolean isEmpty() {
+		return index().isEmpty();
+	}
+
+	/**
+	 * @return the creation date of the most recent post, null if the archive
+	 *         is empty.
+	 */
+	public synchronized Date getMostRecentDate() {
+		long mostRecent = Long.MIN_VALUE;
+		for (IndexEntry entry : index().values()) {
+			mostRecent = Math.max(mostRecent, entry.createdAt);
+		}
+		if (mostRecent == Long.MIN_VALUE) {
+			return null;
+		}
+		return new Date(mostRecent);
+	}
+
+	public synchronized Post get(String key) {
+		IndexEntry entry = index().get(key);
+		if (entry == null) {
+			return null;
+		}
+		List<Post> found = read(Collections.singleton(entry.segment), Predicates.in(Collections.singleton(key)));
+		if (found.isEmpty()) {
+			return null;
+		}
+		return found.get(0);
+	}
+
+	public synchronized List<Post> getThread(String threadID) {
+		return getAll(keysByThread.get(threadID));
+	}
+
+	public synchronized List<Post> getByAuthor(String author) {
+		return getAll(keysByAuthor.get(author));
+	}
+
+	/**
+	 * @return the posts created in the given range, from the oldest to the
+	 *         most recent. A null bound leaves the range open.
+	 */
+	public synchronized List<Post> scan(final Date from, final Date to) {
+		final Set<String> keys = Sets.newHashSet();
+		Set<String> segments = Sets.newTreeSet();
+		for (Map.Entry<String, IndexEntry> entry : index().entrySet()) {
+			long createdAt = entry.getValue().createdAt;
+			if ((from == null || createdAt >= from.getTime()) && (to == null || createdAt <= to.getTime())) {
+				keys.add(entry.getKey());
+				segments.add(entry.getValue().segment);
+			}
+		}
+		return read(segments, Predicates.in(keys));
+	}
+
+	public List<Post> getAll() {
+		return scan(null, null);
+	}
+
+	/**
+	 * Store the given posts, replacing the stored ones having the same key.
+	 */
+	public synchronized void upsert(Collection<Post> posts) throws IOException {
+		if (posts.isEmpty()) {
+			return;
+		}
+		index();
+		folder.mkdirs();
+		Map<String, Writer> segments = Maps.newHashMap();
+		TabSeparatedLines.terminateLastLine(new File(folder, INDEX_FILE));
+		try (Writer indexJournal = new OutputStreamWriter(new FileOutputStream(new File(folder, INDEX_FILE), true),
+				Charsets.UTF_8)) {
+			for (Post post : posts) {
+				IndexEntry previous = index.get(post.getKey());
+				IndexEntry entry = new IndexEntry(post);
+				if (previous != null && !previous.segment.equals(entry.segment)) {
+					/*
+					 * the post moved to another month, its former version has
+					 * to be forgotten.
+					 */
+					segment(segments, previous.segment).write(gson.toJson(Record.removed(post.getKey())) + '\n');
+					nbStoredLines++;
+				}
+				segment(segments, entry.segment).write(gson.toJson(Record.of(post)) + '\n');
+				nbStoredLines++;
+				indexJournal.write(entry.toLine(post.getKey()));
+				index(post.getKey(), entry);
+			}
+		} finally {
+			for (Writer segment : segments.values()) {
+				segment.close();
+			}
+		}
+		if (nbStoredLines > 2 * index.size() + COMPACTION_SLACK) {
+			compact();
+		}
+	}
+
+	public void upsert(Post... posts) throws IOException {
+		upsert(Arrays.asList(posts));
+	}
+
+	/**
+	 * Rewrite the segments and the index so that they only hold the last
+	 * version of each post.
+	 */
+	public synchronized void compact() throws IOException {
+		index();
+		for (File segment : segmentFiles()) {
+			String name = segmentName(segment);
+			List<Post> posts = read(Collections.singleton(name), Predicates.<String>alwaysTrue());
+			StringBuilder content = new StringBuilder();
+			for (Post post : posts) {
+				content.append(gson.toJson(Record.of(post))).append('\n');
+			}
+			if (posts.isEmpty()) {
+				segment.delete();
+			} else {
+				AtomicFiles.write(segment, content.toString());
+			}
+		}
+		StringBuilder indexContent = new StringBuilder();
+		for (Map.Entry<String, IndexEntry> entry : index.entrySet()) {
+			indexContent.append(entry.getValue().toLine(entry.getKey()));
+		}
+		AtomicFiles.write(new File(folder, INDEX_FILE), indexContent.toString());
+		nbStoredLines = index.size();
+	}
+
+	private List<Post> getAll(Collection<String> keys) {
+		Set<String> segments = Sets.newTreeSet();
+		for (String key : keys) {
+			segments.add(index().get(key).segment);
+		}
+		return read(segments, Predicates.in(Sets.newHashSet(keys)));
+	}
+
+	private List<Post> read(Collection<String> segments, Predicate<String> keys) {
+		return read(segments, keys, true);
+	}
+
+	/**
+	 * @param checkIndex
+	 *            whether a post should only be read from the segment the
+	 *            index points to, a post which moved to another segment
+	 *            might otherwise be read in its former version.
+	 * @return the last version of the posts of the given segments having one
+	 *         of the keys, sorted by creation date.
+	 */
+	private List<Post> read(Collection<String> segments, Predicate<String> keys, boolean checkIndex) {
+		Map<String, Post> posts = Maps.newLinkedHashMap();
+		for (String segment : segments) {
+			File segmentFile = new File(folder, segment + SEGMENT_EXTENSION);
+			if (segmentFile.exists()) {
+				try (BufferedReader reader = new BufferedReader(
+						new InputStreamReader(new FileInputStream(segmentFile), Charsets.UTF_8))) {
+					String line = reader.readLine();
+					while (line != null) {
+						Record record = parse(line);
+						if (record != null && keys.apply(record.key)
+								&& (!checkIndex || isIndexedIn(record.key, segment))) {
+							if (record.post == null) {
+								posts.remove(record.key);
+							} else {
+								posts.put(record.key, record.post);
+							}
+						}
+						line = reader.readLine();
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		List<Post> result = Lists.newArrayList(posts.values());
+		Collections.sort(result, byCreationDate);
+		return result;
+	}
+
+	private boolean isIndexedIn(String key, String segment) {
+		IndexEntry entry = index.get(key);
+		return entry != null && entry.segment.equals(segment);
+	}
+
+	private Record parse(String line) {
+		try {
+			return gson.fromJson(line, Record.class);
+		} catch (JsonParseException e) {
+			/*
+			 * a line which got truncated by a crash, ignore it.
+			 */
+			return null;
+		}
+	}
+
+	private Map<String, IndexEntry> index() {
+		if (index == null) {
+			index = Maps.newLinkedHashMap();
+			File indexFile = new File(folder, INDEX_FILE);
+			try {
+				if (indexFile.exists()) {
+					loadIndex(indexFile);
+				} else if (segmentFiles().size() > 0) {
+					rebuildIndex(indexFile);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return index;
+	}
+
+	private void loadIndex(File indexFile) throws IOException {
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(indexFile), Charsets.UTF_8))) {
+			String line = reader.readLine();
+			while (line != null) {
+				nbStoredLines++;
+				String[] columns = line.split("\t", -1);
+				if (columns.length == 5) {
+					try {
+						IndexEntry entry = new IndexEntry(columns[1], Long.parseLong(columns[2]),
+								unescapeOrNull(columns[3]), unescapeOrNull(columns[4]));
+						index(TabSeparatedLines.unescape(columns[0]), entry);
+					} catch (NumberFormatException e) {
+						/*
+						 * a line which got truncated by a crash, ignore it.
+						 */
+					}
+				}
+				line = reader.readLine();
+			}
+		}
+	}
+
+	private void rebuildIndex(File indexFile) throws IOException {
+		List<File> segments = segmentFiles();
+		for (File segment : segments) {
+			for (Post post : read(Collections.singleton(segmentName(segment)), Predicates.<String>alwaysTrue(),
+					false)) {
+				index(post.getKey(), new IndexEntry(post));
+			}
+		}
+		compact();
+	}
+
+	private void index(String key, IndexEntry entry) {
+		unindex(key);
+		index.put(key, entry);
+		if (entry.threadID != null) {
+			keysByThread.put(entry.threadID, key);
+		}
+		if (entry.author != null) {
+			keysByAuthor.put(entry.author, key);
+		}
+	}
+
+	private void unindex(String key) {
+		IndexEntry previous = index.remove(key);
+		if (previous != null) {
+			keysByThread.remove(previous.threadID, key);
+			keysByAuthor.remove(previous.author, key);
+		}
+	}
+
+	private Writer segment(Map<String, Writer> segments, String name) throws IOException {
+		Writer writer = segments.get(name);
+		if (writer == null) {
+			File segmentFile = new File(folder, name + SEGMENT_EXTENSION);
+			TabSeparatedLines.terminateLastLine(segmentFile);
+			writer = new OutputStreamWriter(new FileOutputStream(segmentFile, true), Charsets.UTF_8);
+			segments.put(name, writer);
+		}
+		return writer;
+	}
+
+	private List<File> segmentFiles() {
+		List<File> segments = Lists.newArrayList();
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(SEGMENT_EXTENSION)) {
+					segments.add(file);
+				}
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	private static String segmentName(File segment) {
+		String name = segment.getName();
+		return name.substring(0, name.length() - SEGMENT_EXTENSION.length());
+	}
+
+	private static String escapeOrEmpty(String value) {
+		if (value == null) {
+			return "";
+		}
+		return TabSeparatedLines.escape(value);
+	}
+
+	private static String unescapeOrNull(String value) {
+		if (value.isEmpty()) {
+			return null;
+		}
+		return TabSeparatedLines.unescape(value);
+	}
+
+	private static class IndexEntry {
+
+		private String segment;
+
+		private long createdAt;
+
+		private String threadID;
+
+		private String author;
+
+		IndexEntry(String segment, long createdAt, String threadID, String author) {
+			this.segment = segment;
+			this.createdAt = createdAt;
+			this.threadID = threadID;
+			this.author = author;
+		}
+
+		IndexEntry(Post post) {
+			this(segmentOf(post.getCreatedAt()), post.getCreatedAt().getTime(), post.getThreadID(), post.getAuthor());
+		}
+
+		String toLine(String key) {
+			return TabSeparatedLines.escape(key) + '\t' + segment + '\t' + createdAt + '\t'
+					+ escapeOrEmpty(threadID) + '\t' + escapeOrEmpty(author) + '\n';
+		}
+
+		private static String segmentOf(Date createdAt) {
+			SimpleDateFormat month = new SimpleDateFormat("yyyy-MM");
+			month.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return month.format(createdAt);
+		}
+	}
+
+	private static class Record {
+
+		private String key;
+
+		private Post post;
+
+		static Record of(Post post) {
+			Record r = new Record();
+			r.key = post.getKey();
+			r.post = post;
+			return r;
+		}
+
+		static Record removed(String key) {
+			Record r = new Record();
+			r.key = key;
+			return r;
+		}
+	}
+
+}
@@ -0,0 +1,244 @@
+package fr.obeo.tools.stuart;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Fetches {@link PostSource}s for many channels concurrently. The sources are
+ * queued by host and run on a bounded pool of threads, a source is only
+ * handed to the pool when less than <code>maxRequestsPerHost</code> sources
+ * are running against its host so that the sources of a busy host never hold
+ * the threads the other hosts are waiting for. The posts are dispatched to
+ * their channels as soon as their source completes. A run then takes roughly
+ * the time of its slowest source instead of the sum of all of them.
+ */
+public class PostCollector {
+
+	private ExecutorService executor;
+
+	private int maxRequestsPerHost;
+
+	private long timeoutMillis = TimeUnit.MINUTES.toMillis(30);
+
+	/*
+	 * a source registered for several channels is only fetched once.
+	 */
+	private Multimap<PostSource, String> channelsBySource = LinkedHashMultimap.create();
+
+	private List<SourceReport> reports = Lists.newArrayList();
+
+	public PostCollector(int nbThreads, int maxRequestsPerHost) {
+		this.maxRequestsPerHost = maxRequestsPerHost;
+		this.executor = Executors.newFixedThreadPool(nbThreads,
+				new ThreadFactoryBuilder().setNameFormat("stuart-collector-%d").setDaemon(true).build());
+	}
+
+	public PostCollector() {
+		this(8, 2);
+	}
+
+	public PostCollector setTimeout(long duration, TimeUnit unit) {
+		this.timeoutMillis = unit.toMillis(duration);
+		return this;
+	}
+
+	public PostCollector add(String channel, PostSource... sources) {
+		for (PostSource source : sources) {
+			channelsBySource.put(source, channel);
+		}
+		return this;
+	}
+
+	/**
+	 * Fetch all the registered sources and clear them.
+	 *
+	 * @return the collected posts by channel. A source which failed or timed
+	 *         out is reported in {@link #getReports()} and contributes no post.
+	 */
+	public Multimap<String, Post> collect() {
+		Multimap<String, Post> postsByChannel = ArrayListMultimap.create();
+		CompletionService<SourceReport> completion = new ExecutorCompletionService<SourceReport>(executor);
+		Map<Future<SourceReport>, PostSource> running = Maps.newLinkedHashMap();
+		Map<String, Deque<PostSource>> waitingByHost = Maps.newLinkedHashMap();
+		for (PostSource source : channelsBySource.keySet()) {
+			Deque<PostSource> waiting = waitingByHost.get(source.getHost());
+			if (waiting == null) {
+				waiting = new ArrayDeque<PostSource>();
+				waitingByHost.put(source.getHost(), waiting);
+			}
+			waiting.add(source);
+		}
+		for (Deque<PostSource> waiting : waitingByHost.values()) {
+			for (int i = 0; i < maxRequestsPerHost && !waiting.isEmpty(); i++) {
+				submit(completion, running, waiting.poll());
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		int remaining = channelsBySource.keySet().size();
+		while (remaining > 0) {
+			try {
+				Future<SourceReport> done = completion.poll(Math.max(0, deadline - System.currentTimeMillis()),
+						TimeUnit.MILLISECONDS);
+				if (done == null) {
+					break;
+				}
+				remaining--;
+				PostSource source = running.remove(done);
+				Deque<PostSource> waiting = waitingByHost.get(source.getHost());
+				if (!waiting.isEmpty()) {
+					submit(completion, running, waiting.poll());
+				}
+				SourceReport report = done.get();
+				for (String channel : channelsBySource.get(source)) {
+					postsByChannel.putAll(channel, report.posts);
+				}
+				report.posts = Collections.emptyList();
+				reports.add(report);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				/*
+				 * fetch() catches everything, this should not happen.
+				 */
+				throw new RuntimeException(e);
+			}
+		}
+		for (Map.Entry<Future<SourceReport>, PostSource> timedOut : running.entrySet()) {
+			timedOut.getKey().cancel(true);
+			SourceReport report = new SourceReport(timedOut.getValue());
+			report.error = "timed out after " + timeoutMillis + " ms";
+			reports.add(report);
+		}
+		for (Deque<PostSource> waiting : waitingByHost.values()) {
+			for (PostSource notStarted : waiting) {
+				SourceReport report = new SourceReport(notStarted);
+				report.error = "not started after " + timeoutMillis + " ms";
+				reports.add(report);
+			}
+		}
+		channelsBySource.clear();
+		return postsByChannel;
+	}
+
+	private void submit(CompletionService<SourceReport> completion, Map<Future<SourceReport>, PostSource> running,
+			final PostSource source) {
+		running.put(completion.submit(() -> fetch(source)), source);
+	}
+
+	private SourceReport fetch(PostSource source) {
+		SourceReport report = new SourceReport(source);
+		long start = System.currentTimeMillis();
+		try {
+			Collection<Post> posts = source.collect();
+			if (posts != null) {
+				report.posts = posts;
+			}
+		} catch (Exception e) {
+			report.error = e.toString();
+			System.err.println(source + " " + e.getMessage());
+		} finally {
+			report.durationMillis = System.currentTimeMillis() - start;
+		}
+		report.nbPosts = report.posts.size();
+		return report;
+	}
+
+	/**
+	 * @return the reports of the sources fetched so far, slowest first.
+	 */
+	public List<SourceReport> getReports() {
+		List<SourceReport> sorted = Lists.newArrayList(reports);
+		Collections.sort(sorted, new Comparator<SourceReport>() {
+			public int compare(SourceReport r1, SourceReport r2) {
+				return Long.compare(r2.durationMillis, r1.durationMillis);
+			}
+		});
+		return sorted;
+	}
+
+	public void printReports(PrintStream out) {
+		for (SourceReport report : getReports()) {
+			out.println(report);
+		}
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	public static class SourceReport {
+
+		private String name;
+
+		private String host;
+
+		private int nbPosts;
+
+		private long durationMillis;
+
+		private String error;
+
+		private Collection<Post> posts = Collections.emptyList();
+
+		SourceReport(PostSource source) {
+			this.name = source.getName();
+			this.host = source.getHost();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public int getNbPosts() {
+			return nbPosts;
+		}
+
+		public long getDurationMillis() {
+			return durationMillis;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		public boolean isSuccessful() {
+			return error == null;
+		}
+
+		@Override
+		public String toString() {
+			String result = "[" + host + "] " + name + " : " + nbPosts + " posts in " + durationMillis + " ms";
+			if (error != null) {
+				result += " FAILED " + error;
+			}
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,25 @@
+package fr.obeo.tools.stuart;
+
+import java.util.Collection;
+
+/**
+ * A remote source of {@link Post}s : a feed, a forum, a bugzilla search, a
+ * jenkins server... It typically wraps one of the existing loggers so that it
+ * can be scheduled by a {@link PostCollector}.
+ */
+public interface PostSource {
+
+	/**
+	 * @return a human readable name used in reports.
+	 */
+	String getName();
+
+	/**
+	 * @return the host this source is going to hit, used to limit the number
+	 *         of concurrent requests sent to the same server.
+	 */
+	String getHost();
+
+	Collection<Post> collect() throws Exception;
+
+}
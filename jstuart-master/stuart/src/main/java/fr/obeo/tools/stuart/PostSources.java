@@ -0,0 +1,62 @@
+package fr.obeo.tools.stuart;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+
+public class PostSources {
+
+	/**
+	 * Create a {@link PostSource} from any logger call.
+	 *
+	 * @param name
+	 *            name of the source used in reports.
+	 * @param url
+	 *            url of the server which is going to be requested, only its
+	 *            host is kept.
+	 * @param fetch
+	 *            the actual logger call, for instance
+	 *            <code>() -> new RssLogger(feed, daysAgo).get()</code>
+	 * @return a new source.
+	 */
+	public static PostSource create(final String name, String url, final Callable<Collection<Post>> fetch) {
+		final String host = hostOf(url);
+		return new PostSource() {
+
+			@Override
+			public String getName() {
+				return name;
+			}
+
+			@Override
+			public String getHost() {
+				return host;
+			}
+
+			@Override
+			public Collection<Post> collect() throws Exception {
+				return fetch.call();
+			}
+
+			@Override
+			public String toString() {
+				return name + " (" + host + ")";
+			}
+		};
+	}
+
+	public static String hostOf(String url) {
+		try {
+			String host = URI.create(url).getHost();
+			if (host != null) {
+				return host;
+			}
+		} catch (IllegalArgumentException e) {
+			/*
+			 * not an URI, we keep the raw value.
+			 */
+		}
+		return url;
+	}
+
+}
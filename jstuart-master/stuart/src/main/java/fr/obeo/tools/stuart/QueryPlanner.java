@@ -0,0 +1,326 @@
+package fr.obeo.tools.stuart;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+
+import fr.obeo.tools.stuart.bugzilla.BugzillaLogger;
+import fr.obeo.tools.stuart.eclipseforum.EclipseForumsLogger;
+import fr.obeo.tools.stuart.gerrit.GerritLogger;
+import fr.obeo.tools.stuart.git.GitLogger;
+
+/**
+ * Fetches the posts of many channels following the same servers with as few
+ * requests as possible. Each channel subscribes to some keys (bugzilla
+ * products, gerrit projects, forums, git remotes...) of a query over a number
+ * of days, the subscriptions to a same query are merged into a single request
+ * for the union of their keys over the widest period, and the posts are then
+ * dispatched to the channels whose keys and period they match.
+ *
+ * The subscriptions are kept from one collection to the other : a planner is
+ * set up once and then collected at each run.
+ */
+public class QueryPlanner {
+
+	/**
+	 * A request able to retrieve several keys at once.
+	 */
+	public interface Query {
+
+		/**
+		 * @return the posts of the last days, by key.
+		 */
+		Multimap<String, Post> fetch(Set<String> keys, int nbDays) throws Exception;
+
+	}
+
+	private Map<String, Query> queries = Maps.newLinkedHashMap();
+
+	private Map<String, String> urls = Maps.newHashMap();
+
+	private List<Subscription> subscriptions = Lists.newArrayList();
+
+	/**
+	 * @param name
+	 *            the name the channels subscribe to, also used in the
+	 *            reports.
+	 * @param url
+	 *            the url of the server the query is going to request.
+	 */
+	public QueryPlanner register(String name, String url, Query query) {
+		queries.put(name, query);
+		urls.put(name, url);
+		return this;
+	}
+
+	public QueryPlanner subscribe(String channel, String queryName, int nbDays, Collection<String> keys) {
+		if (!queries.containsKey(queryName)) {
+			throw new IllegalArgumentException("Unknown query " + queryName);
+		}
+		subscriptions.add(new Subscription(channel, queryName, nbDays, keys));
+		return this;
+	}
+
+	/**
+	 * Forget the subscriptions of the given channel.
+	 */
+	public QueryPlanner unsubscribe(String channel) {
+		Iterator<Subscription> it = subscriptions.iterator();
+		while (it.hasNext()) {
+			if (it.next().channel.equals(channel)) {
+				it.remove();
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Forget all the subscriptions, the queries stay registered.
+	 */
+	public QueryPlanner clear() {
+		subscriptions.clear();
+		return this;
+	}
+
+	/**
+	 * @return the merged requests, one per query having subscribers.
+	 */
+	public List<PlannedQuery> plan() {
+		Map<String, PlannedQuery> planned = Maps.newLinkedHashMap();
+		for (Subscription subscription : subscriptions) {
+			PlannedQuery query = planned.get(subscription.queryName);
+			if (query == null) {
+				query = new PlannedQuery(subscription.queryName);
+				planned.put(subscription.queryName, query);
+			}
+			query.keys.addAll(subscription.keys);
+			query.nbDays = Math.max(query.nbDays, subscription.nbDays);
+		}
+		return Lists.newArrayList(planned.values());
+	}
+
+	/**
+	 * @return the merged request of the given query, null if nobody subscribed
+	 *         to it.
+	 */
+	public PlannedQuery plan(String queryName) {
+		for (PlannedQuery query : plan()) {
+			if (query.name.equals(queryName)) {
+				return query;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return a source running the merged request, its results are then
+	 *         dispatched by {@link #dispatch(PlannedQuery)}.
+	 */
+	public PostSource source(final PlannedQuery query) {
+		return PostSources.create(query.toString(), urls.get(query.name), () -> {
+			query.results = queries.get(query.name).fetch(query.keys, query.nbDays);
+			return query.results.values();
+		});
+	}
+
+	/**
+	 * @return the posts retrieved by the source of the merged request, by
+	 *         subscribed channel.
+	 */
+	public Multimap<String, Post> dispatch(PlannedQuery query) {
+		Multimap<String, Post> postsByChannel = LinkedHashMultimap.create();
+		for (Subscription subscription : subscriptions) {
+			if (!subscription.queryName.equals(query.name)) {
+				continue;
+			}
+			Date daysAgo = Dates.getDateXDaysAgo(subscription.nbDays);
+			for (String key : subscription.keys) {
+				for (Post post : query.results.get(key)) {
+					if (!post.getCreatedAt().before(daysAgo)) {
+						postsByChannel.put(subscription.channel, post);
+					}
+				}
+			}
+		}
+		return postsByChannel;
+	}
+
+	/**
+	 * Run every merged request once with the given collector.
+	 *
+	 * @return the posts by channel.
+	 */
+	public Multimap<String, Post> collect(PostCollector collector) {
+		List<PlannedQuery> planned = plan();
+		for (PlannedQuery query : planned) {
+			collector.add(query.name, source(query));
+		}
+		collector.collect();
+
+		Multimap<String, Post> postsByChannel = LinkedHashMultimap.create();
+		for (PlannedQuery query : planned) {
+			postsByChannel.putAll(dispatch(query));
+		}
+		return postsByChannel;
+	}
+
+	/**
+	 * Bugzilla searches, the keys are products.
+	 */
+	public static Query bugzilla(final String baseURL, final Set<String> authorsToIgnore) {
+		return new Query() {
+
+			@Override
+			public Multimap<String, Post> fetch(Set<String> keys, int nbDays) throws Exception {
+				return new BugzillaLogger(baseURL, authorsToIgnore).bugzillaLogByProduct(nbDays, keys);
+			}
+		};
+	}
+
+	/**
+	 * Gerrit changes ready for review, the keys are projects.
+	 */
+	public static Query gerrit(final String serverURL) {
+		return new Query() {
+
+			@Override
+			public Multimap<String, Post> fetch(Set<String> keys, int nbDays) throws Exception {
+				return new GerritLogger(serverURL).getPatchsetsByProject(keys, nbDays);
+			}
+		};
+	}
+
+	/**
+	 * Gerrit changes ready for review, the keys are projects.
+	 *
+	 * @param logger
+	 *            the logger to query with, for instance one keeping a
+	 *            snapshot of the changes.
+	 */
+	public static Query gerrit(final GerritLogger logger) {
+		return new Query() {
+
+			@Override
+			public Multimap<String, Post> fetch(Set<String> keys, int nbDays) throws Exception {
+				return logger.getPatchsetsByProject(keys, nbDays);
+			}
+		};
+	}
+
+	/**
+	 * Eclipse forums, the keys are forum numbers. Each forum has its own feed,
+	 * it is read once for all the channels following it.
+	 */
+	public static Query eclipseForums(final String baseURL) {
+		return eclipseForums(baseURL, null);
+	}
+
+	/**
+	 * Eclipse forums, the keys are forum numbers.
+	 *
+	 * @param watermarks
+	 *            remembers the most recent post of each forum, null to read
+	 *            the whole period each time.
+	 */
+	public static Query eclipseForums(final String baseURL, final Watermarks watermarks) {
+		return new Query() {
+
+			@Override
+			public Multimap<String, Post> fetch(Set<String> keys, int nbDays) throws Exception {
+				Multimap<String, Post> posts = ArrayListMultimap.create();
+				Date daysAgo = Dates.getDateXDaysAgo(nbDays);
+				for (String forumNumber : keys) {
+					posts.putAll(forumNumber, new EclipseForumsLogger().setBaseURL(baseURL).setWatermarks(watermarks)
+							.collectPosts(Integer.parseInt(forumNumber), daysAgo));
+				}
+				return posts;
+			}
+		};
+	}
+
+	/**
+	 * Commits merged in git repositories, the keys are remote URLs. The
+	 * remotes are fetched concurrently.
+	 *
+	 * @param webCommitURLs
+	 *            the URL of the commits of each remote, up to their id.
+	 */
+	public static Query git(final GitLogger logger, final Map<String, String> webCommitURLs) {
+		return new Query() {
+
+			@Override
+			public Multimap<String, Post> fetch(Set<String> keys, int nbDays) throws Exception {
+				Map<String, String> remotes = Maps.newLinkedHashMap();
+				for (String remoteURL : keys) {
+					remotes.put(remoteURL, webCommitURLs.get(remoteURL));
+				}
+				return logger.getMergedCommits(Dates.getDateXDaysAgo(nbDays), remotes);
+			}
+		};
+	}
+
+	public static class PlannedQuery {
+
+		private String name;
+
+		private Set<String> keys = Sets.newLinkedHashSet();
+
+		private int nbDays;
+
+		/*
+		 * stays empty if the request failed.
+		 */
+		private volatile Multimap<String, Post> results = ImmutableMultimap.of();
+
+		PlannedQuery(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Set<String> getKeys() {
+			return keys;
+		}
+
+		public int getNbDays() {
+			return nbDays;
+		}
+
+		@Override
+		public String toString() {
+			return name + " " + keys + " (" + nbDays + " days)";
+		}
+	}
+
+	private static class Subscription {
+
+		private String channel;
+
+		private String queryName;
+
+		private int nbDays;
+
+		private Set<String> keys;
+
+		Subscription(String channel, String queryName, int nbDays, Collection<String> keys) {
+			this.channel = channel;
+			this.queryName = queryName;
+			this.nbDays = nbDays;
+			this.keys = Sets.newLinkedHashSet(keys);
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package fr.obeo.tools.stuart;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Escapes the values written in the tab separated journals (the trace journal,
+ * the post archive index) so that a tab or a line break in a key can't break
+ * a line.
+ */
+class TabSeparatedLines {
+
+	static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+	}
+
+	/**
+	 * End the last line of the file if a crash left it partially written, so
+	 * that the lines appended next are not glued to it.
+	 */
+	static void terminateLastLine(File file) throws IOException {
+		if (!file.exists() || file.length() == 0) {
+			return;
+		}
+		try (RandomAccessFile content = new RandomAccessFile(file, "rw")) {
+			content.seek(content.length() - 1);
+			if (content.read() != '\n') {
+				content.write('\n');
+			}
+		}
+	}
+
+	static String unescape(String value) {
+		if (value.indexOf('\\') == -1) {
+			return value;
+		}
+		StringBuilder result = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				if (next == 'n') {
+					result.append('\n');
+				} else if (next == 'r') {
+					result.append('\r');
+				} else if (next == 't') {
+					result.append('\t');
+				} else {
+					result.append(next);
+				}
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,103 @@
+package fr.obeo.tools.stuart;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Remembers, from one run to the other, up to where each remote source has
+ * already been read (a build number, a date, a commit id...) so that the
+ * loggers only request what is new.
+ *
+ * Just like the {@link EmitterTrace}, the watermarks should be saved once the
+ * posts have been sent.
+ */
+public class Watermarks {
+
+	private File file;
+
+	private Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+	private Map<String, String> values;
+
+	public Watermarks(File file) {
+		this.file = file;
+	}
+
+	public synchronized String get(String key) {
+		return values().get(key);
+	}
+
+	public synchronized long getLong(String key, long defaultValue) {
+		String value = values().get(key);
+		if (value != null) {
+			try {
+				return Long.parseLong(value);
+			} catch (NumberFormatException e) {
+				/*
+				 * we fallback on the default value.
+				 */
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * @return the stored date or null if there is none.
+	 */
+	public synchronized Date getDate(String key) {
+		long time = getLong(key, -1);
+		if (time == -1) {
+			return null;
+		}
+		return new Date(time);
+	}
+
+	public synchronized Watermarks put(String key, String value) {
+		values().put(key, value);
+		return this;
+	}
+
+	public Watermarks put(String key, long value) {
+		return put(key, Long.toString(value));
+	}
+
+	public Watermarks put(String key, Date value) {
+		return put(key, value.getTime());
+	}
+
+	/**
+	 * @return a copy of the current values, to be given back to
+	 *         {@link #restore(Map)} if the posts read since could not be sent.
+	 */
+	public synchronized Map<String, String> snapshot() {
+		return Maps.newLinkedHashMap(values());
+	}
+
+	public synchronized void restore(Map<String, String> snapshot) {
+		values = Maps.newLinkedHashMap(snapshot);
+	}
+
+	public synchronized void save() throws IOException {
+		AtomicFiles.writeJson(file, gson, values());
+	}
+
+	private Map<String, String> values() {
+		if (values == null) {
+			values = Maps.newLinkedHashMap();
+			Map<String, String> loaded = AtomicFiles.readJson(file, gson, new TypeToken<Map<String, String>>() {
+			}.getType());
+			if (loaded != null) {
+				values.putAll(loaded);
+			}
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,207 @@
+package fr.obeo.tools.stuart.bugzilla;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import b4j.core.DefaultIssue;
+import b4j.core.DefaultSearchData;
+import b4j.core.Issue;
+import b4j.core.session.BugzillaHttpSession;
+
+/**
+ * Keeps the recently resolved bugzilla issues, keyed by server and bug id, for
+ * a limited time. The issues missing from the cache are retrieved with a
+ * single search request whatever their number, over a session which is kept
+ * open for each server. Ids which do not match any issue are remembered too.
+ */
+public class BugzillaIssueCache {
+
+	private static BugzillaIssueCache shared;
+
+	private LoadingCache<IssueKey, Optional<Issue>> issues;
+
+	private Map<String, BugzillaHttpSession> sessions = Maps.newHashMap();
+
+	public BugzillaIssueCache(long maximumSize, long timeToLive, TimeUnit unit) {
+		this.issues = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(timeToLive, unit)
+				.build(new CacheLoader<IssueKey, Optional<Issue>>() {
+
+					@Override
+					public Optional<Issue> load(IssueKey key) throws Exception {
+						return loadAll(Lists.newArrayList(key)).get(key);
+					}
+
+					@Override
+					public Map<IssueKey, Optional<Issue>> loadAll(Iterable<? extends IssueKey> keys)
+							throws Exception {
+						Multimap<String, String> idsByServer = HashMultimap.create();
+						for (IssueKey key : keys) {
+							idsByServer.put(key.baseURL, key.id);
+						}
+						Map<IssueKey, Optional<Issue>> result = Maps.newHashMap();
+						for (String baseURL : idsByServer.keySet()) {
+							result.putAll(fetch(baseURL, idsByServer.get(baseURL)));
+						}
+						return result;
+					}
+				});
+	}
+
+	/**
+	 * @return the cache shared by all the {@link BugzillaLogger}s, it keeps up
+	 *         to 1000 issues for 30 minutes.
+	 */
+	public static synchronized BugzillaIssueCache shared() {
+		if (shared == null) {
+			shared = new BugzillaIssueCache(1000, 30, TimeUnit.MINUTES);
+		}
+		return shared;
+	}
+
+	public Issue get(String baseURL, String id) {
+		return getAll(baseURL, Lists.newArrayList(id)).get(id);
+	}
+
+	/**
+	 * @return the issues found by id, in the order of the given ids. The ids
+	 *         which could not be resolved are missing from the result.
+	 */
+	public Map<String, Issue> getAll(String baseURL, Collection<String> ids) {
+		Map<String, Issue> result = Maps.newLinkedHashMap();
+		Collection<IssueKey> keys = Lists.newArrayList();
+		for (String id : ids) {
+			keys.add(new IssueKey(baseURL, id));
+		}
+		try {
+			Map<IssueKey, Optional<Issue>> found = issues.getAll(keys);
+			for (IssueKey key : keys) {
+				Optional<Issue> issue = found.get(key);
+				if (issue != null && issue.isPresent()) {
+					result.put(key.id, issue.get());
+				}
+			}
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			/*
+			 * the server could not be reached, nothing is cached and we will
+			 * try again on the next call.
+			 */
+			e.printStackTrace();
+		}
+		return result;
+	}
+
+	public void invalidate(String baseURL, String id) {
+		issues.invalidate(new IssueKey(baseURL, id));
+	}
+
+	public synchronized void close() {
+		for (BugzillaHttpSession session : sessions.values()) {
+			session.close();
+		}
+		sessions.clear();
+	}
+
+	private Map<IssueKey, Optional<Issue>> fetch(String baseURL, Collection<String> ids) {
+		Map<IssueKey, Optional<Issue>> result = Maps.newHashMap();
+		for (String id : ids) {
+			result.put(new IssueKey(baseURL, id), Optional.<Issue>absent());
+		}
+		BugzillaHttpSession session = session(baseURL);
+		synchronized (session) {
+			try {
+				if (ids.size() == 1) {
+					String id = ids.iterator().next();
+					Issue found = session.getIssue(id);
+					if (isValid(found)) {
+						result.put(new IssueKey(baseURL, id), Optional.of(found));
+					}
+				} else {
+					DefaultSearchData searchData = new DefaultSearchData();
+					searchData.add("bug_id", Joiner.on(',').join(ids));
+					for (Issue found : session.searchBugs(searchData, null)) {
+						IssueKey key = new IssueKey(baseURL, found.getId());
+						if (isValid(found) && result.containsKey(key)) {
+							result.put(key, Optional.of(found));
+						}
+					}
+				}
+			} catch (RuntimeException e) {
+				closeSession(baseURL);
+				throw e;
+			}
+		}
+		return result;
+	}
+
+	private boolean isValid(Issue found) {
+		return found != null && found.getReporter() != null;
+	}
+
+	private synchronized BugzillaHttpSession session(String baseURL) {
+		BugzillaHttpSession session = sessions.get(baseURL);
+		if (session == null) {
+			session = new BugzillaHttpSession();
+			try {
+				session.setBaseUrl(new URL(baseURL));
+			} catch (MalformedURLException e) {
+				throw new RuntimeException(e);
+			}
+			session.setBugzillaBugClass(DefaultIssue.class);
+			if (!session.open()) {
+				throw new RuntimeException("Could not open a session on " + baseURL);
+			}
+			sessions.put(baseURL, session);
+		}
+		return session;
+	}
+
+	private synchronized void closeSession(String baseURL) {
+		BugzillaHttpSession session = sessions.remove(baseURL);
+		if (session != null) {
+			session.close();
+		}
+	}
+
+	private static class IssueKey {
+
+		private String baseURL;
+
+		private String id;
+
+		IssueKey(String baseURL, String id) {
+			this.baseURL = baseURL;
+			this.id = id;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(baseURL, id);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof IssueKey) {
+				IssueKey other = (IssueKey) obj;
+				return Objects.equal(baseURL, other.baseURL) && Objects.equal(id, other.id);
+			}
+			return false;
+		}
+	}
+
+}
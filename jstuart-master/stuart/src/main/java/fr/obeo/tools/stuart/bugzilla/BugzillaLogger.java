@@ -1,8 +1,6 @@
 package fr.obeo.tools.stuart.bugzilla;
 
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
@@ -10,18 +8,20 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.google.common.base.Splitter;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
 import b4j.core.Comment;
-import b4j.core.DefaultIssue;
-import b4j.core.DefaultSearchData;
 import b4j.core.Issue;
-import b4j.core.session.BugzillaHttpSession;
 import fr.obeo.tools.stuart.Dates;
 import fr.obeo.tools.stuart.Post;
 
@@ -29,6 +29,8 @@ public class BugzillaLogger {
 	private static final String BUG_ICON = "https://i.imgur.com/3lCiRbW.png";
 	private String baseURL = "https://bugs.eclipse.org/bugs";
 	private Set<String> authorsToIgnore = Sets.newLinkedHashSet();
+	private BugzillaIssueCache issueCache = BugzillaIssueCache.shared();
+	private BugzillaMirror mirror;
 
 	public BugzillaLogger() {
 	}
@@ -42,6 +44,27 @@ public class BugzillaLogger {
 		this.authorsToIgnore = authorsToIgnore;
 	}
 
+	public BugzillaLogger setIssueCache(BugzillaIssueCache issueCache) {
+		this.issueCache = issueCache;
+		return this;
+	}
+
+	/**
+	 * Read the issues from the given mirror instead of the one shared by all
+	 * the loggers of the server.
+	 */
+	public BugzillaLogger setMirror(BugzillaMirror mirror) {
+		this.mirror = mirror;
+		return this;
+	}
+
+	private BugzillaMirror getMirror() {
+		if (mirror == null) {
+			mirror = BugzillaMirror.shared(baseURL);
+		}
+		return mirror;
+	}
+
 	public Collection<Post> bugzillaLog(int nbDaysAgo, Collection<String> products) throws MalformedURLException {
 		return bugzillaLog(nbDaysAgo, products, Collections.EMPTY_SET, Collections.EMPTY_SET);
 	}
@@ -52,85 +75,88 @@ public class BugzillaLogger {
 	}
 
 	public Issue find(String key) {
-		Issue found = null;
-		try {
-			BugzillaHttpSession session = new BugzillaHttpSession();
-			session.setBaseUrl(new URL(this.baseURL));
-			session.setBugzillaBugClass(DefaultIssue.class);
-
-			if (session.open()) {
-				found = session.getIssue(key);
-			}
-
-			session.close();
-		} catch (MalformedURLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		return found;
+		return issueCache.get(baseURL, key);
 	}
 
 	public Collection<Post> bugzillaLog(int nbDaysAgo, Collection<String> products, Collection<String> components,
 			Collection<String> keywords) throws MalformedURLException {
 		List<Post> posts = new ArrayList<Post>();
-		BugzillaHttpSession session = new BugzillaHttpSession();
-		session.setBaseUrl(new URL(this.baseURL));
-		session.setBugzillaBugClass(DefaultIssue.class);
-		if (session.open()) {
-			DefaultSearchData searchData = new DefaultSearchData();
-			Calendar cal = Calendar.getInstance();
-			cal.add(Calendar.DATE, -nbDaysAgo);
-			Date daysAgo = cal.getTime();
-			for (String productName : products) {
-				searchData.add("product", productName);
+		Calendar cal = Calendar.getInstance();
+		cal.add(Calendar.DATE, -nbDaysAgo);
+		Date daysAgo = cal.getTime();
+		BugzillaMirror mirror = getMirror();
+		mirror.sync(products, components, daysAgo);
+
+		for (Issue issue : mirror.getIssues(products, components, daysAgo)) {
+			if (!hasKeywords(issue, keywords)) {
+				continue;
 			}
-			for (String componentName : components) {
-				searchData.add("component", componentName);
-			}
-
-			for (String keywordName : keywords) {
-				searchData.add("keywords", keywordName);
-			}
-			searchData.add("limit", "20");
+			toPosts(issue, daysAgo, posts);
+		}
 
-			SimpleDateFormat dt = new SimpleDateFormat("yyyy-MM-dd");
-			searchData.add("chfieldfrom", dt.format(daysAgo));
-			searchData.add("chfieldto", "Now");
+		return posts;
+	}
 
-			Iterable<Issue> returnedIssues = session.searchBugs(searchData, null);
+	/**
+	 * The same as {@link #bugzillaLog(int, Collection)} with the posts given by
+	 * product, a single search can then serve the channels following
+	 * different products.
+	 */
+	public Multimap<String, Post> bugzillaLogByProduct(int nbDaysAgo, Collection<String> products)
+			throws MalformedURLException {
+		Multimap<String, Post> posts = ArrayListMultimap.create();
+		Calendar cal = Calendar.getInstance();
+		cal.add(Calendar.DATE, -nbDaysAgo);
+		Date daysAgo = cal.getTime();
+		BugzillaMirror mirror = getMirror();
+		mirror.sync(products, Collections.<String> emptySet(), daysAgo);
+
+		for (Issue issue : mirror.getIssues(products, Collections.<String> emptySet(), daysAgo)) {
+			List<Post> issuePosts = Lists.newArrayList();
+			toPosts(issue, daysAgo, issuePosts);
+			if (issue.getProject() != null) {
+				posts.putAll(issue.getProject().getName(), issuePosts);
+			}
+		}
+		return posts;
+	}
 
-			for (Issue issue : returnedIssues) {
-				if (issue.getCommentCount() == 0) {
+	private void toPosts(Issue issue, Date daysAgo, List<Post> posts) {
+		if (issue.getCommentCount() == 0) {
 
-					if (issue.getCreationTimestamp().after(daysAgo)
-							&& !this.authorsToIgnore.contains(issue.getReporter().getName())) {
-						posts.add(Post.createPostWithSubject(issue.getUri(),
-								"[[" + issue.getId() + "](" + issue.getUri() + ")] " + issue.getSummary(),
-								"Has been created", issue.getReporter().getName(), BUG_ICON,
-								issue.getCreationTimestamp()).addURLs(issue.getUri()));
-					}
+			if (issue.getCreationTimestamp().after(daysAgo)
+					&& !this.authorsToIgnore.contains(issue.getReporter().getName())) {
+				posts.add(Post.createPostWithSubject(issue.getUri(),
+						"[[" + issue.getId() + "](" + issue.getUri() + ")] " + issue.getSummary(), "Has been created",
+						issue.getReporter().getName(), BUG_ICON, issue.getCreationTimestamp()).addURLs(issue.getUri()));
+			}
 
-				} else {
-					int index = 0;
-					for (Comment c : issue.getComments()) {
-						if (!authorsToIgnore.contains(c.getAuthor().getName())) {
-							if (c.getCreationTimestamp().after(daysAgo)) {
-								String commentURL = issue.getUri() + "#c" + index;
-								posts.add(Post.createPostWithSubject(commentURL,
-										"[[" + issue.getId() + "](" + commentURL + ")] " + issue.getSummary(),
-										c.getTheText(), c.getAuthor().getName(), BUG_ICON, c.getCreationTimestamp())
-										.addURLs(commentURL));
-							}
-						}
-						index++;
+		} else {
+			int index = 0;
+			for (Comment c : issue.getComments()) {
+				if (!authorsToIgnore.contains(c.getAuthor().getName())) {
+					if (c.getCreationTimestamp().after(daysAgo)) {
+						String commentURL = issue.getUri() + "#c" + index;
+						posts.add(Post.createPostWithSubject(commentURL,
+								"[[" + issue.getId() + "](" + commentURL + ")] " + issue.getSummary(), c.getTheText(),
+								c.getAuthor().getName(), BUG_ICON, c.getCreationTimestamp()).addURLs(commentURL));
 					}
 				}
+				index++;
 			}
-
-			session.close();
 		}
+	}
 
-		return posts;
+	private boolean hasKeywords(Issue issue, Collection<String> keywords) {
+		if (keywords.isEmpty()) {
+			return true;
+		}
+		Object value = issue.get("keywords");
+		if (!(value instanceof String)) {
+			return false;
+		}
+		Set<String> issueKeywords = Sets.newHashSet(Splitter.on(',').trimResults().split((String) value));
+		return issueKeywords.containsAll(keywords);
 	}
 
 	public Collection<BugOrCommentRef> findPotentialBugzillaIds(String content) {
@@ -222,43 +248,43 @@ public class BugzillaLogger {
 	public void findBugzillaIssues(String content, List<Issue> bugs, List<CommentWithIssue> comments) {
 		Collection<BugOrCommentRef> potentialIds = findPotentialBugzillaIds(content);
 		if (potentialIds.size() > 0) {
-
-			try {
-				BugzillaHttpSession session = new BugzillaHttpSession();
-				session.setBaseUrl(new URL(this.baseURL));
-				session.setBugzillaBugClass(DefaultIssue.class);
-
-				if (session.open()) {
-					for (BugOrCommentRef key : potentialIds) {
-
-						Issue found = session.getIssue(key.id);
-						if (found != null && found.getReporter() != null) {
-							Comment c = null;
-							int commentNumber = key.getCommentNumber();
-							if (commentNumber != -1) {
-								int i = 0;
-								Iterator<Comment> it = found.getComments().iterator();
-								while (it.hasNext() && c == null) {
-									Comment cur = it.next();
-									if (i == commentNumber) {
-										c = cur;
-									}
-									i++;
-								}
-							}
-							if (c != null) {
-								comments.add(CommentWithIssue.from(c, found,commentNumber));
-							} else {
-								bugs.add(found);
+			Set<String> ids = Sets.newLinkedHashSet();
+			for (BugOrCommentRef key : potentialIds) {
+				ids.add(key.id);
+			}
+			Map<String, Issue> issues = Maps.newHashMap();
+			for (String id : ids) {
+				Issue mirrored = getMirror().getIssue(id);
+				if (mirrored != null) {
+					issues.put(id, mirrored);
+				}
+			}
+			ids.removeAll(issues.keySet());
+			if (ids.size() > 0) {
+				issues.putAll(issueCache.getAll(baseURL, ids));
+			}
+			for (BugOrCommentRef key : potentialIds) {
+				Issue found = issues.get(key.id);
+				if (found != null) {
+					Comment c = null;
+					int commentNumber = key.getCommentNumber();
+					if (commentNumber != -1) {
+						int i = 0;
+						Iterator<Comment> it = found.getComments().iterator();
+						while (it.hasNext() && c == null) {
+							Comment cur = it.next();
+							if (i == commentNumber) {
+								c = cur;
 							}
+							i++;
 						}
 					}
+					if (c != null) {
+						comments.add(CommentWithIssue.from(c, found, commentNumber));
+					} else {
+						bugs.add(found);
+					}
 				}
-
-				session.close();
-			} catch (MalformedURLException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
 			}
 		}
 	}
@@ -0,0 +1,461 @@
+package fr.obeo.tools.stuart.bugzilla;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+
+import b4j.core.Comment;
+import b4j.core.Component;
+import b4j.core.DefaultComment;
+import b4j.core.DefaultIssue;
+import b4j.core.DefaultSearchData;
+import b4j.core.Issue;
+import b4j.core.User;
+import b4j.core.session.BugzillaHttpSession;
+import b4j.core.session.bugzilla.BugzillaComponent;
+import b4j.core.session.bugzilla.BugzillaProject;
+import b4j.core.session.bugzilla.BugzillaStatus;
+import b4j.core.session.bugzilla.BugzillaUser;
+import fr.obeo.tools.stuart.AtomicFiles;
+
+/**
+ * A local copy of the bugzilla issues (and their comments) of some products
+ * and components, shared by the {@link BugzillaLogger}s, the
+ * {@link NoResponseDetector}s and the bots of a same server.
+ *
+ * The first synchronization of a set of products and components retrieves
+ * the issues changed during the requested period (and all their opened issues
+ * if asked to), the next ones only the issues changed since the previous
+ * synchronization. The mirror can be kept in a file so that this also holds
+ * from one run to the other.
+ *
+ * The resolved issues which did not change during the widest period requested
+ * so far are forgotten.
+ */
+public class BugzillaMirror {
+
+	private static final int PAGE_SIZE = 200;
+
+	/**
+	 * the clocks of bugzilla and ours might not agree.
+	 */
+	private static final long SYNC_SLACK_MS = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * a scope nobody synchronized for that long is not used anymore.
+	 */
+	private static final long UNUSED_SCOPE_MS = TimeUnit.DAYS.toMillis(30);
+
+	private static Map<String, BugzillaMirror> shared = Maps.newHashMap();
+
+	private static Gson gson = new Gson();
+
+	private String baseURL;
+
+	private File file;
+
+	private MirrorState state;
+
+	public BugzillaMirror(String baseURL) {
+		this.baseURL = baseURL;
+	}
+
+	/**
+	 * @return the in-memory mirror shared by everything querying this server.
+	 */
+	public static synchronized BugzillaMirror shared(String baseURL) {
+		BugzillaMirror mirror = shared.get(baseURL);
+		if (mirror == null) {
+			mirror = new BugzillaMirror(baseURL);
+			shared.put(baseURL, mirror);
+		}
+		return mirror;
+	}
+
+	/**
+	 * Keep the mirror in the given file.
+	 */
+	public synchronized BugzillaMirror setFile(File file) {
+		if (!file.equals(this.file)) {
+			this.file = file;
+			this.state = null;
+		}
+		return this;
+	}
+
+	/**
+	 * Bring the issues of the given products and components changed since the
+	 * given date up to date.
+	 *
+	 * @return false if bugzilla could not be reached, the mirrored issues are
+	 *         then left as they were.
+	 */
+	public boolean sync(Collection<String> products, Collection<String> components, Date since)
+			throws MalformedURLException {
+		return sync(products, components, since, false);
+	}
+
+	/**
+	 * Bring the issues of the given products and components up to date.
+	 *
+	 * @param since
+	 *            the issues changed since this date are needed, null if only
+	 *            the ones changed from now on are.
+	 * @param openIssues
+	 *            whether all the opened issues are needed, whatever their last
+	 *            change. They are retrieved once, the next synchronizations
+	 *            keep them up to date.
+	 * @return false if bugzilla could not be reached, the mirrored issues are
+	 *         then left as they were.
+	 */
+	public synchronized boolean sync(Collection<String> products, Collection<String> components, Date since,
+			boolean openIssues) throws MalformedURLException {
+		MirrorState state = getState();
+		String key = scopeKey(products, components);
+		Scope scope = state.scopes.get(key);
+		long startedAt = System.currentTimeMillis();
+		long coveredFrom = since != null ? since.getTime() : startedAt;
+		BugzillaHttpSession session = new BugzillaHttpSession();
+		session.setBaseUrl(new URL(this.baseURL));
+		session.setBugzillaBugClass(DefaultIssue.class);
+		if (!session.open()) {
+			System.err.println("Could not open a session on " + baseURL + ", using the mirrored issues.");
+			return false;
+		}
+		try {
+			evictResolvedIssues(startedAt);
+			if (scope == null) {
+				scope = new Scope();
+				scope.coveredFrom = coveredFrom;
+				int nbIssues = 0;
+				if (since != null) {
+					nbIssues += fetch(session, products, components, coveredFrom);
+				}
+				if (openIssues) {
+					nbIssues += fetch(session, products, components, null);
+					scope.openIssues = true;
+				}
+				System.out.println("[bugzilla] mirrored " + nbIssues + " issues of " + key);
+			} else {
+				if (coveredFrom < scope.coveredFrom) {
+					scope.coveredFrom = coveredFrom;
+					fetch(session, products, components, coveredFrom);
+				} else {
+					fetch(session, products, components, scope.lastSync - SYNC_SLACK_MS);
+				}
+				if (openIssues && !scope.openIssues) {
+					fetch(session, products, components, null);
+					scope.openIssues = true;
+				}
+			}
+		} finally {
+			session.close();
+		}
+		scope.lastSync = startedAt;
+		scope.window = Math.max(scope.window, startedAt - coveredFrom);
+		state.scopes.put(key, scope);
+		if (file != null) {
+			try {
+				save();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the mirrored issues of the given products and components which
+	 *         changed since the given date (or all of them if it is null).
+	 */
+	public synchronized List<Issue> getIssues(Collection<String> products, Collection<String> components,
+			Date changedSince) {
+		List<Issue> result = Lists.newArrayList();
+		for (MirroredIssue issue : getState().issues.values()) {
+			if ((products.isEmpty() || products.contains(issue.product))
+					&& (components.isEmpty() || components.contains(issue.component))
+					&& (changedSince == null || issue.updated >= changedSince.getTime())) {
+				result.add(issue.toIssue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the mirrored issue, null if it is not part of the mirror.
+	 */
+	public synchronized Issue getIssue(String id) {
+		MirroredIssue issue = getState().issues.get(id);
+		if (issue != null) {
+			return issue.toIssue();
+		}
+		return null;
+	}
+
+	/**
+	 * Retrieve the issues page after page, either the opened ones if
+	 * <code>changedSince</code> is null or the ones whose last change time is
+	 * after it.
+	 */
+	private int fetch(BugzillaHttpSession session, Collection<String> products, Collection<String> components,
+			Long changedSince) {
+		int nbIssues = 0;
+		int offset = 0;
+		int nbFound = PAGE_SIZE;
+		while (nbFound == PAGE_SIZE) {
+			DefaultSearchData searchData = new DefaultSearchData();
+			for (String productName : products) {
+				searchData.add("product", productName);
+			}
+			for (String componentName : components) {
+				searchData.add("component", componentName);
+			}
+			if (changedSince == null) {
+				searchData.add("resolution", "---");
+			} else {
+				/*
+				 * a relative date is understood whatever the timezone of the
+				 * server.
+				 */
+				long hours = TimeUnit.MILLISECONDS.toHours(System.currentTimeMillis() - changedSince) + 1;
+				searchData.add("chfieldfrom", "-" + hours + "h");
+				searchData.add("chfieldto", "Now");
+			}
+			searchData.add("order", "bug_id");
+			searchData.add("limit", String.valueOf(PAGE_SIZE));
+			searchData.add("offset", String.valueOf(offset));
+			nbFound = 0;
+			for (Issue issue : session.searchBugs(searchData, null)) {
+				getState().issues.put(issue.getId(), MirroredIssue.from(issue));
+				nbFound++;
+			}
+			nbIssues += nbFound;
+			offset += PAGE_SIZE;
+		}
+		return nbIssues;
+	}
+
+	/**
+	 * Forget the resolved issues none of the scopes needs anymore : the ones
+	 * which did not change during the widest period requested, nor since the
+	 * previous synchronization of a scope. The scopes which are not
+	 * synchronized anymore are forgotten first.
+	 */
+	private void evictResolvedIssues(long now) {
+		MirrorState state = getState();
+		Iterator<Scope> scopes = state.scopes.values().iterator();
+		while (scopes.hasNext()) {
+			if (scopes.next().lastSync < now - UNUSED_SCOPE_MS) {
+				scopes.remove();
+			}
+		}
+		long oldestNeeded = now;
+		for (Scope scope : state.scopes.values()) {
+			oldestNeeded = Math.min(oldestNeeded, Math.min(now - scope.window, scope.lastSync - SYNC_SLACK_MS));
+		}
+		Iterator<MirroredIssue> it = state.issues.values().iterator();
+		int nbEvicted = 0;
+		while (it.hasNext()) {
+			MirroredIssue issue = it.next();
+			if (issue.status != null && !new BugzillaStatus(issue.status).isOpen() && issue.updated < oldestNeeded) {
+				it.remove();
+				nbEvicted++;
+			}
+		}
+		if (nbEvicted > 0) {
+			System.out.println("[bugzilla] forgot " + nbEvicted + " resolved issues of " + baseURL);
+		}
+	}
+
+	private MirrorState getState() {
+		if (state == null) {
+			state = AtomicFiles.readJson(file, gson, MirrorState.class);
+			if (state == null || state.issues == null || state.scopes == null) {
+				state = new MirrorState();
+			}
+		}
+		return state;
+	}
+
+	private void save() throws IOException {
+		AtomicFiles.writeJson(file, gson, state);
+	}
+
+	private static String scopeKey(Collection<String> products, Collection<String> components) {
+		return Joiner.on(',').join(products) + "/" + Joiner.on(',').join(components);
+	}
+
+	private static class MirrorState {
+
+		private Map<String, Scope> scopes = Maps.newLinkedHashMap();
+
+		private Map<String, MirroredIssue> issues = Maps.newLinkedHashMap();
+
+	}
+
+	private static class Scope {
+
+		private long lastSync;
+
+		/**
+		 * the changes older than this date might be missing.
+		 */
+		private long coveredFrom;
+
+		/**
+		 * the widest period (in milliseconds before a synchronization)
+		 * requested for this scope.
+		 */
+		private long window;
+
+		/**
+		 * whether all the opened issues have been retrieved.
+		 */
+		private boolean openIssues;
+
+	}
+
+	/**
+	 * The parts of an issue the loggers look at, in a form which can be
+	 * written in the mirror file.
+	 */
+	private static class MirroredIssue {
+
+		private String id;
+
+		private String uri;
+
+		private String summary;
+
+		private String product;
+
+		private String component;
+
+		private String status;
+
+		private String reporter;
+
+		private String assignee;
+
+		private String keywords;
+
+		private long created;
+
+		private long updated;
+
+		private List<MirroredComment> comments = Lists.newArrayList();
+
+		static MirroredIssue from(Issue issue) {
+			MirroredIssue result = new MirroredIssue();
+			result.id = issue.getId();
+			result.uri = issue.getUri();
+			result.summary = issue.getSummary();
+			if (issue.getProject() != null) {
+				result.product = issue.getProject().getName();
+			}
+			Component component = Iterables.getFirst(issue.getComponents(), null);
+			if (component != null) {
+				result.component = component.getName();
+			}
+			if (issue.getStatus() != null) {
+				result.status = issue.getStatus().getName();
+			}
+			result.reporter = nameOf(issue.getReporter());
+			result.assignee = nameOf(issue.getAssignee());
+			Object keywords = issue.get("keywords");
+			if (keywords instanceof String) {
+				result.keywords = (String) keywords;
+			}
+			result.created = issue.getCreationTimestamp().getTime();
+			result.updated = issue.getUpdateTimestamp().getTime();
+			for (Comment comment : issue.getComments()) {
+				MirroredComment mirrored = new MirroredComment();
+				mirrored.id = comment.getId();
+				mirrored.author = nameOf(comment.getAuthor());
+				mirrored.text = comment.getTheText();
+				mirrored.created = comment.getCreationTimestamp().getTime();
+				result.comments.add(mirrored);
+			}
+			return result;
+		}
+
+		private static String nameOf(User user) {
+			if (user != null) {
+				return user.getName();
+			}
+			return null;
+		}
+
+		Issue toIssue() {
+			DefaultIssue issue = new DefaultIssue();
+			issue.setId(id);
+			issue.setUri(uri);
+			issue.setSummary(summary);
+			if (product != null) {
+				BugzillaProject project = new BugzillaProject(product);
+				issue.setProject(project);
+				if (component != null) {
+					BugzillaComponent bugzillaComponent = new BugzillaComponent(component);
+					bugzillaComponent.setProject(project);
+					issue.setComponents(Collections.singleton(bugzillaComponent));
+				}
+			}
+			if (status != null) {
+				issue.setStatus(new BugzillaStatus(status));
+			}
+			issue.setReporter(user(reporter));
+			issue.setAssignee(user(assignee));
+			if (keywords != null) {
+				issue.set("keywords", keywords);
+			}
+			issue.setCreationTimestamp(new Date(created));
+			issue.setUpdateTimestamp(new Date(updated));
+			for (MirroredComment mirrored : comments) {
+				DefaultComment comment = new DefaultComment(id);
+				comment.setId(mirrored.id);
+				comment.setAuthor(user(mirrored.author));
+				comment.setTheText(mirrored.text);
+				comment.setCreationTimestamp(new Date(mirrored.created));
+				issue.addComments(comment);
+			}
+			return issue;
+		}
+
+		private static User user(String name) {
+			if (name == null) {
+				return null;
+			}
+			BugzillaUser user = new BugzillaUser();
+			user.setName(name);
+			return user;
+		}
+
+	}
+
+	private static class MirroredComment {
+
+		private String id;
+
+		private String author;
+
+		private String text;
+
+		private long created;
+
+	}
+
+}
@@ -1,37 +1,40 @@
 package fr.obeo.tools.stuart.bugzilla;
 
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Sets;
+import com.google.gson.Gson;
 
 import b4j.core.Comment;
-import b4j.core.DefaultIssue;
-import b4j.core.DefaultSearchData;
 import b4j.core.Issue;
 import b4j.core.User;
-import b4j.core.session.BugzillaHttpSession;
 import fr.obeo.tools.stuart.UserRequest;
+import fr.obeo.tools.stuart.bugzilla.ResponseStore.IssueState;
 
 public class NoResponseDetector {
 
 	private static final int LIMIT_DELAY_HOURS = 100;
+
+	/**
+	 * the clocks of bugzilla and ours might not agree.
+	 */
+	private static final long SYNC_SLACK_MS = TimeUnit.MINUTES.toMillis(10);
+
+	private static Gson gson = new Gson();
+
+	private File stateFile;
+
+	private ResponseStore store;
+
+	private BugzillaMirror mirror;
+
 	private Collection<String> teamMembers;
 	private String baseURL;
 	private Collection<String> authorsToIgnore;
@@ -54,130 +57,115 @@ public class NoResponseDetector {
 		this.components = components;
 	}
 
-	public Collection<UserRequest> noResponseFromTeam() throws MalformedURLException {
-		List<UserRequest> result = Lists.newArrayList();
-		Multimap<String, Answer> delaysInAnswering = LinkedHashMultimap.create();
-		Iterator<Issue> openedIssues = searchOpenedIssues();
-		while (openedIssues.hasNext()) {
-			Issue bugzIssue = openedIssues.next();
-			IssueWithAnswer issue = new IssueWithAnswer(bugzIssue);
-
-			if (!teamMembers.contains(issue.getIssue().getReporter().getName())) {
-				/*
-				 * reported by a user
-				 */
-				Date lastQuestion = issue.getIssue().getCreationTimestamp();
-				boolean teamAnsweredAtLeastOnce = false;
-				for (Comment comment : Iterables.filter(issue.getIssue().getComments(), notGenie)) {
-					if (teamMembers.contains(comment.getAuthor().getName())) {
-						teamAnsweredAtLeastOnce = true;
-						Date answeredOn = comment.getCreationTimestamp();
-						Answer answer = new Answer(lastQuestion, answeredOn, comment);
-						if (answer.getNbHoursBeforeAnswer() < LIMIT_DELAY_HOURS) {
-							delaysInAnswering.put(comment.getAuthor().getName(), answer);
-						}
-					} else {
-						lastQuestion = comment.getCreationTimestamp();
-					}
+	/**
+	 * Keep what has been learnt of the issues in the given file, so that the
+	 * next runs only retrieve the issues changed since.
+	 */
+	public NoResponseDetector setStateFile(File stateFile) {
+		this.stateFile = stateFile;
+		return this;
+	}
 
-				}
+	/**
+	 * Read the issues from the given mirror instead of the one shared with
+	 * the other users of the server.
+	 */
+	public NoResponseDetector setMirror(BugzillaMirror mirror) {
+		this.mirror = mirror;
+		return this;
+	}
 
-				boolean reporterAutoAsign = issue.getIssue().getReporter().getName()
-						.equals(issue.getIssue().getAssignee().getName());
-				Object r = bugzIssue.get("keywords");
-				boolean isTriaged = r instanceof String && ((String) r).indexOf("triaged") != -1;
-				if (!reporterAutoAsign && issue.getIssue().getStatus().isOpen()
-						&& !teamMembers.contains(issue.getLastAuthor().getName())
-						&& !(teamAnsweredAtLeastOnce && isTriaged)) {
-					result.add(issue);
-				}
-			}
-		}
-		List<Date> allDatesDates = Lists.newArrayList();
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-ww");
-		StringBuffer delay = new StringBuffer();
-		for (String user : delaysInAnswering.keySet()) {
-			Collection<Answer> answers = delaysInAnswering.get(user);
-			for (Answer answer : answers) {
-				allDatesDates.add(answer.getAnsweredOn());
-			}
-			delay.append(user + " : " + Joiner.on(",").join(answers) + "\n");
+	public Collection<UserRequest> noResponseFromTeam() throws IOException {
+		ResponseStore store = getStore();
+		long startedAt = System.currentTimeMillis();
+		Date changedSince = null;
+		if (store.getLastSync() != 0) {
+			changedSince = new Date(store.getLastSync() - SYNC_SLACK_MS);
 		}
-		Collections.sort(allDatesDates);
-		Set<String> allDates = Sets.newLinkedHashSet();
-		for (Date date : allDatesDates) {
-			allDates.add(sdf.format(date));
+		if (mirror == null) {
+			mirror = BugzillaMirror.shared(baseURL);
 		}
-		delay.append("\n");
-		delay.append(" ;" + Joiner.on(" ; ").join(allDates) + "\n");
-		for (String user : delaysInAnswering.keySet()) {
-			Collection<Answer> answers = delaysInAnswering.get(user);
-			StringBuffer buf = new StringBuffer();
-			buf.append(user);
-			buf.append(" ;");
-			for (String date : allDates) {
-				long highestDelay = -1;
-				for (Answer answer : answers) {
-					if (answer.getNbHoursBeforeAnswer() < LIMIT_DELAY_HOURS
-							&& date.equals(sdf.format(answer.getAnsweredOn()))) {
-						if (answer.getNbHoursBeforeAnswer() > highestDelay) {
-							highestDelay = answer.getNbHoursBeforeAnswer();
-						}
-
-					}
-				}
-				if (highestDelay != -1) {
-					buf.append(highestDelay);
-					buf.append(" ");
-				}
-				buf.append(" ;");
+		/*
+		 * the issues changed since the last run are needed whatever their
+		 * resolution : the ones resolved in the meantime stop waiting.
+		 */
+		if (mirror.sync(products, components, changedSince, true)) {
+			for (Issue bugzIssue : mirror.getIssues(products, components, changedSince)) {
+				update(store, bugzIssue);
+			}
+			store.setLastSync(startedAt);
+			store.prune();
+			if (stateFile != null) {
+				store.save(stateFile, gson);
 			}
-			delay.append(buf.toString());
 		}
-		delay.append("\n");
-		return result;
+		return store.getWaitingIssues();
+	}
 
+	/**
+	 * @return for each team member, the highest delay in answering (in hours)
+	 *         week after week, as of the last call to
+	 *         {@link #noResponseFromTeam()}.
+	 */
+	public String getDelayReport() {
+		return getStore().getDelayReport();
 	}
 
-	private Iterator<Issue> searchOpenedIssues() throws MalformedURLException {
-		BugzillaHttpSession session = new BugzillaHttpSession();
-		session.setBaseUrl(new URL(this.baseURL));
-		session.setBugzillaBugClass(DefaultIssue.class);
-		Iterator<Issue> openedIssues = Iterators.emptyIterator();
-		if (session.open()) {
-			DefaultSearchData searchData = new DefaultSearchData();
-			for (String productName : products) {
-				searchData.add("product", productName);
+	private ResponseStore getStore() {
+		if (store == null) {
+			String query = baseURL + products + components;
+			if (stateFile != null) {
+				store = ResponseStore.load(stateFile, gson, query);
 			}
-			for (String componentName : components) {
-				searchData.add("component", componentName);
+			if (store == null) {
+				store = new ResponseStore(query);
 			}
-			searchData.add("resolution", "---");
-
-			openedIssues = session.searchBugs(searchData, null).iterator();
-
 		}
-		return openedIssues;
+		return store;
 	}
 
-	private Iterator<Issue> searchAllIssues() throws MalformedURLException {
-		BugzillaHttpSession session = new BugzillaHttpSession();
-		session.setBaseUrl(new URL(this.baseURL));
-		session.setBugzillaBugClass(DefaultIssue.class);
-		Iterator<Issue> allIssues = Iterators.emptyIterator();
-		if (session.open()) {
-			DefaultSearchData searchData = new DefaultSearchData();
-			for (String productName : products) {
-				searchData.add("product", productName);
-			}
-			for (String componentName : components) {
-				searchData.add("component", componentName);
-			}
+	/**
+	 * Update the state of an issue which changed, only its answers given since
+	 * the last time it has been looked at are added to the delays.
+	 */
+	private void update(ResponseStore store, Issue bugzIssue) {
+		IssueWithAnswer issue = new IssueWithAnswer(bugzIssue);
+		IssueState state = store.getIssue(bugzIssue.getId());
+		long countedUntil = state.getCountedUntil();
+		boolean waiting = false;
+		if (!teamMembers.contains(issue.getIssue().getReporter().getName())) {
+			/*
+			 * reported by a user
+			 */
+			Date lastQuestion = issue.getIssue().getCreationTimestamp();
+			boolean teamAnsweredAtLeastOnce = false;
+			for (Comment comment : Iterables.filter(issue.getIssue().getComments(), notGenie)) {
+				if (teamMembers.contains(comment.getAuthor().getName())) {
+					teamAnsweredAtLeastOnce = true;
+					Date answeredOn = comment.getCreationTimestamp();
+					Answer answer = new Answer(lastQuestion, answeredOn, comment);
+					if (answeredOn.getTime() > state.getCountedUntil()
+							&& answer.getNbHoursBeforeAnswer() < LIMIT_DELAY_HOURS) {
+						store.addDelay(comment.getAuthor().getName(), answeredOn, answer.getNbHoursBeforeAnswer());
+					}
+					countedUntil = Math.max(countedUntil, answeredOn.getTime());
+				} else {
+					lastQuestion = comment.getCreationTimestamp();
+				}
 
-			allIssues = session.searchBugs(searchData, null).iterator();
+			}
 
+			boolean reporterAutoAsign = issue.getIssue().getReporter().getName()
+					.equals(issue.getIssue().getAssignee().getName());
+			Object r = bugzIssue.get("keywords");
+			boolean isTriaged = r instanceof String && ((String) r).indexOf("triaged") != -1;
+			waiting = !reporterAutoAsign && issue.getIssue().getStatus().isOpen()
+					&& !teamMembers.contains(issue.getLastAuthor().getName())
+					&& !(teamAnsweredAtLeastOnce && isTriaged);
 		}
-		return allIssues;
+		state.setCountedUntil(countedUntil);
+		state.update(issue.getUrl(), issue.getSummary(), issue.getReporterName(), issue.getLastAuthorName(),
+				issue.getLastUpdate(), waiting, !bugzIssue.getStatus().isOpen());
 	}
 
 	public class IssueWithAnswer implements UserRequest {
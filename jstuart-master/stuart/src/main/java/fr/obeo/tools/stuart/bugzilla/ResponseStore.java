@@ -0,0 +1,257 @@
+package fr.obeo.tools.stuart.bugzilla;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+
+import fr.obeo.tools.stuart.AtomicFiles;
+import fr.obeo.tools.stuart.UserRequest;
+
+/**
+ * What the {@link NoResponseDetector} knows of the issues it already looked
+ * at : for each issue whether a user is waiting for an answer from the team
+ * and up to when its answers have been counted, and for each team member the
+ * delays in answering aggregated by week. It is kept on disk so that the next
+ * run only looks at the issues changed since.
+ *
+ * Only the last {@link #MAX_WEEKS} weeks are kept : older delays are dropped,
+ * and so are the resolved issues whose answers have all been counted before
+ * that.
+ */
+class ResponseStore {
+
+	static final int MAX_WEEKS = 52;
+
+	private String query;
+
+	private long lastSync;
+
+	private Map<String, IssueState> issues = Maps.newLinkedHashMap();
+
+	/**
+	 * the highest delay in answering (in hours) by team member and week.
+	 */
+	private Map<String, Map<String, Long>> delays = Maps.newLinkedHashMap();
+
+	ResponseStore(String query) {
+		this.query = query;
+	}
+
+	/**
+	 * @return the store kept in the file, null if there is none or if it has
+	 *         been built for other products or components.
+	 */
+	static ResponseStore load(File file, Gson gson, String query) {
+		ResponseStore store = AtomicFiles.readJson(file, gson, ResponseStore.class);
+		if (store != null && query.equals(store.query) && store.issues != null && store.delays != null) {
+			return store;
+		}
+		return null;
+	}
+
+	void save(File file, Gson gson) throws IOException {
+		AtomicFiles.writeJson(file, gson, this);
+	}
+
+	long getLastSync() {
+		return lastSync;
+	}
+
+	void setLastSync(long lastSync) {
+		this.lastSync = lastSync;
+	}
+
+	/**
+	 * @return the state of the issue, created if it has never been seen.
+	 */
+	IssueState getIssue(String id) {
+		IssueState state = issues.get(id);
+		if (state == null) {
+			state = new IssueState();
+			issues.put(id, state);
+		}
+		return state;
+	}
+
+	List<UserRequest> getWaitingIssues() {
+		List<UserRequest> result = Lists.newArrayList();
+		for (IssueState state : issues.values()) {
+			if (state.waiting) {
+				result.add(state);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Count an answer of the given team member in the week it has been given.
+	 */
+	void addDelay(String user, Date answeredOn, long nbHours) {
+		if (answeredOn.before(getOldestWeek())) {
+			/*
+			 * an issue pruned then changed again is looked at from the start.
+			 */
+			return;
+		}
+		Map<String, Long> weeks = delays.get(user);
+		if (weeks == null) {
+			weeks = Maps.newTreeMap();
+			delays.put(user, weeks);
+		}
+		String week = weekOf(answeredOn);
+		Long highest = weeks.get(week);
+		if (highest == null || nbHours > highest) {
+			weeks.put(week, nbHours);
+		}
+	}
+
+	/**
+	 * Forget the weeks which are too old to be kept, and the resolved issues
+	 * whose answers have all been counted in those weeks.
+	 */
+	void prune() {
+		Date oldestWeek = getOldestWeek();
+		String oldestWeekKey = weekOf(oldestWeek);
+		Iterator<Map<String, Long>> users = delays.values().iterator();
+		while (users.hasNext()) {
+			Map<String, Long> weeks = users.next();
+			weeks.keySet().removeIf(week -> week.compareTo(oldestWeekKey) < 0);
+			if (weeks.isEmpty()) {
+				users.remove();
+			}
+		}
+		Iterator<IssueState> states = issues.values().iterator();
+		while (states.hasNext()) {
+			IssueState state = states.next();
+			if (state.resolved && !state.waiting && state.countedUntil < oldestWeek.getTime()
+					&& state.lastUpdate < oldestWeek.getTime()) {
+				states.remove();
+			}
+		}
+	}
+
+	private static Date getOldestWeek() {
+		Calendar cal = Calendar.getInstance();
+		cal.add(Calendar.WEEK_OF_YEAR, -MAX_WEEKS);
+		return cal.getTime();
+	}
+
+	/**
+	 * @return for each team member, a line giving their highest delay in
+	 *         answering (in hours) for each week.
+	 */
+	String getDelayReport() {
+		Set<String> allWeeks = Sets.newTreeSet();
+		for (Map<String, Long> weeks : delays.values()) {
+			allWeeks.addAll(weeks.keySet());
+		}
+		StringBuffer report = new StringBuffer();
+		report.append(" ;" + Joiner.on(" ; ").join(allWeeks) + "\n");
+		for (String user : delays.keySet()) {
+			Map<String, Long> weeks = delays.get(user);
+			report.append(user);
+			report.append(" ;");
+			for (String week : allWeeks) {
+				Long highest = weeks.get(week);
+				if (highest != null) {
+					report.append(highest);
+					report.append(" ");
+				}
+				report.append(" ;");
+			}
+			report.append("\n");
+		}
+		return report.toString();
+	}
+
+	private static String weekOf(Date date) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(date);
+		return String.format("%d-%02d", cal.getWeekYear(), cal.get(Calendar.WEEK_OF_YEAR));
+	}
+
+	static class IssueState implements UserRequest {
+
+		private String url;
+
+		private String summary;
+
+		private String reporter;
+
+		private String lastAuthor;
+
+		private long lastUpdate;
+
+		/**
+		 * the answers given up to this date are already part of the delays.
+		 */
+		private long countedUntil;
+
+		private boolean waiting;
+
+		private boolean resolved;
+
+		long getCountedUntil() {
+			return countedUntil;
+		}
+
+		void setCountedUntil(long countedUntil) {
+			this.countedUntil = countedUntil;
+		}
+
+		void update(String url, String summary, String reporter, String lastAuthor, Date lastUpdate,
+				boolean waiting, boolean resolved) {
+			this.url = url;
+			this.summary = summary;
+			this.reporter = reporter;
+			this.lastAuthor = lastAuthor;
+			this.lastUpdate = lastUpdate.getTime();
+			this.waiting = waiting;
+			this.resolved = resolved;
+		}
+
+		@Override
+		public long getNbDaysSinceLastAnswer() {
+			return TimeUnit.DAYS.convert(System.currentTimeMillis() - lastUpdate, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public long getNbMinutesSinceLastAnswer() {
+			return (System.currentTimeMillis() - lastUpdate) / (1000 * 60);
+		}
+
+		@Override
+		public String getSummary() {
+			return summary;
+		}
+
+		@Override
+		public String getLastAuthorName() {
+			return lastAuthor;
+		}
+
+		@Override
+		public String getReporterName() {
+			return reporter;
+		}
+
+		@Override
+		public String getUrl() {
+			return url;
+		}
+
+	}
+
+}
@@ -0,0 +1,378 @@
+package fr.obeo.tools.stuart.daemon;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * The channels served by the {@link StuartDaemon} and the sources feeding
+ * them, as declared in a JSON file :
+ *
+ * <pre>
+ * {
+ *   "host": "mattermost.eclipse.org",
+ *   "storage": "/var/lib/stuart",
+ *   "channels": [ {
+ *     "name": "webtools",
+ *     "hook": "$WEBTOOLS_CHANNEL",
+ *     "sources": [
+ *       { "type": "forum", "forum": 88, "intervalMinutes": 15 },
+ *       { "type": "rss", "url": "https://stackoverflow.com/feeds/tag/jsdt", "icon": "..." },
+ *       { "type": "bugzilla", "url": "https://bugs.eclipse.org/bugs", "products": [ "JSDT" ] },
+ *       { "type": "gerrit", "url": "https://git.eclipse.org/r", "projects": [ "jsdt/webtools.jsdt" ], "days": 1 }
+ *     ]
+ *   } ]
+ * }
+ * </pre>
+ *
+ * A hook starting with <code>$</code> is read from the environment variable of
+ * that name so that the file can be shared without giving away the hooks.
+ *
+ * The trace of a channel is kept in
+ * <code>&lt;storage&gt;/&lt;host&gt;_&lt;sha256 of the hook&gt;_trace.json</code>
+ * unless it is given a <code>"trace"</code> name. A channel moving from its CI
+ * job to the daemon keeps its trace by naming it as the job did : a job keeping
+ * <code>mattermost.eclipse.org_webtools_trace.json</code> becomes a channel
+ * with <code>"trace": "webtools"</code>. The JSON trace left by the job is
+ * imported in the journal of the daemon the first time it is loaded, the posts
+ * it already sent are not sent again.
+ *
+ * The daemon also receives the notifications of Jenkins, Gerrit and GitHub
+ * when given a <code>webhook</code> :
+ *
+ * <pre>
+ * "webhook": { "port": 8090, "secret": "$WEBHOOK_SECRET", "jenkins": "https://ci.eclipse.org/sirius/", "gerrit": "https://git.eclipse.org/r" }
+ * </pre>
+ *
+ * the notifications are then posted to
+ * <code>http://&lt;daemon&gt;:8090/&lt;jenkins|gerrit|github|posts&gt;/&lt;channel name&gt;</code>.
+ * The GitHub pushes are only handled for the repositories of the git sources,
+ * cloned from the same URL.
+ */
+public class DaemonConfig {
+
+	private String scheme = "https";
+
+	private String host;
+
+	private String storage = ".";
+
+	private int traceRetentionDays = 60;
+
+	/**
+	 * the delay between two runs of a source is randomly shifted by up to this
+	 * ratio of its interval so that the sources do not all run at once.
+	 */
+	private double jitter = 0.1;
+
+	private List<ChannelConfig> channels = Lists.newArrayList();
+
+	private WebhookConfig webhook;
+
+	public static DaemonConfig load(File file) throws IOException {
+		DaemonConfig config;
+		try (InputStreamReader reader = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8)) {
+			config = new Gson().fromJson(reader, DaemonConfig.class);
+		} catch (JsonParseException e) {
+			throw new IOException(file + " is not a valid configuration : " + e.getMessage(), e);
+		}
+		if (config == null || config.host == null || config.channels == null) {
+			throw new IOException(file + " should at least give the mattermost host and the channels.");
+		}
+		if (config.webhook != null && config.webhook.secret != null && config.webhook.getSecret() == null) {
+			throw new IOException(file + " : the environment variable of the webhook secret "
+					+ config.webhook.secret + " is not set.");
+		}
+		Set<String> hooks = Sets.newHashSet();
+		Set<String> names = Sets.newHashSet();
+		Set<String> traces = Sets.newHashSet();
+		for (ChannelConfig channel : config.channels) {
+			if (channel.name == null || channel.getHook() == null) {
+				throw new IOException(file + " : every channel needs a name and a hook, " + channel.name
+						+ " has no hook (or its environment variable is not set).");
+			}
+			if (!hooks.add(channel.getHook())) {
+				/*
+				 * the trace of a channel is named after its hook.
+				 */
+				throw new IOException(file + " : the hook of " + channel.name
+						+ " is used by another channel, their sources should be merged.");
+			}
+			if (channel.trace != null && !channel.trace.matches("[\\w.-]+")) {
+				throw new IOException(file + " : the trace of " + channel.name
+						+ " should be a file name made of letters, digits, '.', '-' and '_'.");
+			}
+			if (channel.trace != null && !traces.add(channel.trace)) {
+				throw new IOException(file + " : the trace of " + channel.name + " is used by another channel.");
+			}
+			if (!names.add(channel.name)) {
+				/*
+				 * the webhook notifications are posted to a channel name.
+				 */
+				throw new IOException(file + " : there are several channels named " + channel.name + ".");
+			}
+			if (channel.sources == null) {
+				channel.sources = Lists.newArrayList();
+			}
+			for (SourceConfig source : channel.sources) {
+				if (!SourceFactory.TYPES.contains(source.type)) {
+					throw new IOException(file + " : unknown source type " + source.type + " in channel "
+							+ channel.name + ", expecting one of " + SourceFactory.TYPES);
+				}
+				if (source.intervalMinutes < 1) {
+					throw new IOException(file + " : the interval of " + source.getName() + " in channel "
+							+ channel.name + " should be of at least one minute.");
+				}
+			}
+		}
+		return config;
+	}
+
+	public String getScheme() {
+		return scheme;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public File getStorage() {
+		return new File(storage);
+	}
+
+	public int getTraceRetentionDays() {
+		return traceRetentionDays;
+	}
+
+	public double getJitter() {
+		return jitter;
+	}
+
+	public List<ChannelConfig> getChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return the configuration of the webhook server, null if the daemon
+	 *         only polls.
+	 */
+	public WebhookConfig getWebhook() {
+		return webhook;
+	}
+
+	public static class WebhookConfig {
+
+		private int port = 8090;
+
+		/**
+		 * read from the environment when starting with <code>$</code>, as the
+		 * hooks.
+		 */
+		private String secret;
+
+		/**
+		 * the jenkins server whose notifications are accepted, if any.
+		 */
+		private String jenkins;
+
+		/**
+		 * the gerrit server whose notifications are accepted, if any.
+		 */
+		private String gerrit;
+
+		/**
+		 * the period the commits of a GitHub push are looked for in.
+		 */
+		private int githubDays = 3;
+
+		public int getPort() {
+			return port;
+		}
+
+		public String getSecret() {
+			if (secret != null && secret.startsWith("$")) {
+				return System.getenv(secret.substring(1));
+			}
+			return secret;
+		}
+
+		public String getJenkins() {
+			return jenkins;
+		}
+
+		public String getGerrit() {
+			return gerrit;
+		}
+
+		public int getGithubDays() {
+			return githubDays;
+		}
+	}
+
+	public static class ChannelConfig {
+
+		private String name;
+
+		private String hook;
+
+		/**
+		 * send the posts as a few summary messages instead of one message
+		 * per post.
+		 */
+		private boolean digest = false;
+
+		/**
+		 * the trace is kept in <code>&lt;host&gt;_&lt;trace&gt;_trace.json</code>,
+		 * named after the hook if not given.
+		 */
+		private String trace;
+
+		private List<SourceConfig> sources = Lists.newArrayList();
+
+		public String getName() {
+			return name;
+		}
+
+		public String getHook() {
+			if (hook != null && hook.startsWith("$")) {
+				return System.getenv(hook.substring(1));
+			}
+			return hook;
+		}
+
+		public boolean isDigest() {
+			return digest;
+		}
+
+		public String getTrace() {
+			return trace;
+		}
+
+		public List<SourceConfig> getSources() {
+			return sources;
+		}
+	}
+
+	/**
+	 * A source of posts, only the attributes making sense for its type are
+	 * used.
+	 */
+	public static class SourceConfig {
+
+		/**
+		 * one of {@link SourceFactory#TYPES}.
+		 */
+		private String type;
+
+		/**
+		 * the name used in the logs, computed from the other attributes if
+		 * not given.
+		 */
+		private String name;
+
+		private String url;
+
+		private int intervalMinutes = 15;
+
+		private int days = 3;
+
+		private List<String> products = Lists.newArrayList();
+
+		private List<String> components = Lists.newArrayList();
+
+		private List<String> ignoredAuthors = Lists.newArrayList("genie", "genie@eclipse.org");
+
+		private List<String> projects = Lists.newArrayList();
+
+		private boolean groupReviews = false;
+
+		private int forum;
+
+		private String icon;
+
+		private String commitURL;
+
+		/**
+		 * only keep the posts whose subject contains this text.
+		 */
+		private String subjectContains;
+
+		public String getType() {
+			return type;
+		}
+
+		public String getName() {
+			if (name != null) {
+				return name;
+			}
+			switch (type) {
+			case "forum":
+				return "forum " + forum;
+			case "bugzilla":
+				return "bugzilla " + products + (components.isEmpty() ? "" : " " + components);
+			case "gerrit":
+				return "gerrit " + projects;
+			default:
+				return type + " " + url;
+			}
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public int getIntervalMinutes() {
+			return intervalMinutes;
+		}
+
+		public int getDays() {
+			return days;
+		}
+
+		public List<String> getProducts() {
+			return products;
+		}
+
+		public List<String> getComponents() {
+			return components;
+		}
+
+		public List<String> getIgnoredAuthors() {
+			return ignoredAuthors;
+		}
+
+		public List<String> getProjects() {
+			return projects;
+		}
+
+		public boolean isGroupReviews() {
+			return groupReviews;
+		}
+
+		public int getForum() {
+			return forum;
+		}
+
+		public String getIcon() {
+			return icon;
+		}
+
+		public String getCommitURL() {
+			return commitURL;
+		}
+
+		public String getSubjectContains() {
+			return subjectContains;
+		}
+	}
+
+}
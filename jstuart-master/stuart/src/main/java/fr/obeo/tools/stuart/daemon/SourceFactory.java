@@ -0,0 +1,247 @@
+package fr.obeo.tools.stuart.daemon;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+
+import fr.obeo.tools.stuart.Dates;
+import fr.obeo.tools.stuart.Post;
+import fr.obeo.tools.stuart.PostSource;
+import fr.obeo.tools.stuart.PostSources;
+import fr.obeo.tools.stuart.QueryPlanner;
+import fr.obeo.tools.stuart.Watermarks;
+import fr.obeo.tools.stuart.bugzilla.BugzillaLogger;
+import fr.obeo.tools.stuart.bugzilla.BugzillaMirror;
+import fr.obeo.tools.stuart.daemon.DaemonConfig.SourceConfig;
+import fr.obeo.tools.stuart.eclipseforum.EclipseForumsLogger;
+import fr.obeo.tools.stuart.gerrit.GerritLogger;
+import fr.obeo.tools.stuart.git.GitLogger;
+import fr.obeo.tools.stuart.git.GitMirrors;
+import fr.obeo.tools.stuart.jenkins.JenkinsLogger;
+import fr.obeo.tools.stuart.rss.RssLogger;
+
+/**
+ * Turns the sources of the configuration into {@link PostSource}s. The
+ * loggers keeping a state from one call to the other (the gerrit snapshot, the
+ * forum readers...) are created once per source and then reused at each of its
+ * runs, the bugzilla mirror of a server is shared by all its sources and kept
+ * in the storage folder, the other ones only hold the period they look at and
+ * are created for each run.
+ *
+ * The bugzilla, gerrit, forum and git sources of different channels querying
+ * the same server are merged by a {@link QueryPlanner} : see
+ * {@link #getPlannedQueryKey(SourceConfig)}.
+ */
+class SourceFactory {
+
+	static final Set<String> TYPES = ImmutableSet.of("rss", "forum", "bugzilla", "gerrit", "jenkins", "git");
+
+	private static final String ECLIPSE_FORUMS = "http://www.eclipse.org/forums/";
+
+	private File storage;
+
+	private GitMirrors gitMirrors;
+
+	SourceFactory(File storage) {
+		this.storage = storage;
+		this.gitMirrors = new GitMirrors(new File(storage, "clones"));
+	}
+
+	/**
+	 * @param watermarks
+	 *            the watermarks of the channel the source is feeding.
+	 * @param trace
+	 *            the trace of the channel the source is feeding.
+	 */
+	PostSource create(final SourceConfig config, final Watermarks watermarks, final Map<String, Date> trace)
+			throws MalformedURLException {
+		Callable<Collection<Post>> fetch;
+		String url = config.getUrl();
+		switch (config.getType()) {
+		case "rss":
+			final URL feed = new URL(url);
+			fetch = () -> {
+				RssLogger logger = new RssLogger(feed, daysAgo(config)).setWatermarks(watermarks);
+				if (config.getIcon() != null) {
+					logger.setIcon(config.getIcon());
+				}
+				return logger.get();
+			};
+			break;
+		case "forum":
+			url = getForumsURL(config);
+			final EclipseForumsLogger forums = new EclipseForumsLogger().setBaseURL(url).setWatermarks(watermarks);
+			fetch = () -> forums.collectPosts(config.getForum(), daysAgo(config));
+			break;
+		case "bugzilla":
+			final BugzillaLogger bugzilla = new BugzillaLogger(url, Sets.newHashSet(config.getIgnoredAuthors()))
+					.setMirror(getBugzillaMirror(url));
+			fetch = () -> bugzilla.bugzillaLog(config.getDays(), config.getProducts(), config.getComponents());
+			break;
+		case "gerrit":
+			String snapshotName = Hashing.sha256().hashString(url + config.getProjects(), Charsets.UTF_8) + ".json";
+			final GerritLogger gerrit = new GerritLogger(url).groupReviews(config.isGroupReviews())
+					.setSnapshot(new File(new File(storage, "gerrit"), snapshotName));
+			fetch = () -> gerrit.getPatchsets(config.getProjects(), config.getDays());
+			break;
+		case "jenkins":
+			final String serverURL = url;
+			fetch = () -> new JenkinsLogger(serverURL, daysAgo(config)).setWatermarks(watermarks)
+					.getBuildResults(trace.keySet());
+			break;
+		case "git":
+			final String remoteURL = url;
+			fetch = () -> new GitLogger(gitMirrors).setWatermarks(watermarks).getMergedCommits(daysAgo(config),
+					remoteURL, config.getCommitURL());
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown source type " + config.getType());
+		}
+		return PostSources.create(config.getName(), url, fetch);
+	}
+
+	/**
+	 * @return the key shared by the sources which can be merged in a single
+	 *         planned query, null if the source has to run on its own.
+	 */
+	String getPlannedQueryKey(SourceConfig config) {
+		switch (config.getType()) {
+		case "bugzilla":
+			/*
+			 * the planned query is by product only.
+			 */
+			if (config.getComponents().isEmpty() && !config.getProducts().isEmpty()) {
+				return "bugzilla|" + config.getUrl() + "|" + Sets.newTreeSet(config.getIgnoredAuthors());
+			}
+			return null;
+		case "gerrit":
+			/*
+			 * the planned query gives a post per change.
+			 */
+			if (!config.isGroupReviews() && !config.getProjects().isEmpty()) {
+				return "gerrit|" + config.getUrl();
+			}
+			return null;
+		case "forum":
+			return "forum|" + getForumsURL(config);
+		case "git":
+			/*
+			 * the remotes of a host are fetched concurrently.
+			 */
+			return "git|" + PostSources.hostOf(config.getUrl());
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return the keys the source subscribes to in its planned query.
+	 */
+	Collection<String> getPlannedKeys(SourceConfig config) {
+		switch (config.getType()) {
+		case "bugzilla":
+			return config.getProducts();
+		case "gerrit":
+			return config.getProjects();
+		case "forum":
+			return Collections.singleton(String.valueOf(config.getForum()));
+		case "git":
+			return Collections.singleton(config.getUrl());
+		default:
+			throw new IllegalArgumentException(config.getType() + " sources are not planned");
+		}
+	}
+
+	/**
+	 * @param configs
+	 *            the sources sharing a planned query key.
+	 * @param stateName
+	 *            the name of the files keeping the state of the query from
+	 *            one run to the other.
+	 * @return a planner holding their query, registered under their type.
+	 */
+	QueryPlanner createPlanner(List<SourceConfig> configs, Watermarks watermarks, String stateName) {
+		QueryPlanner planner = new QueryPlanner();
+		SourceConfig config = configs.get(0);
+		String url = config.getUrl();
+		switch (config.getType()) {
+		case "bugzilla":
+			/*
+			 * the query reads the shared mirror of the server.
+			 */
+			getBugzillaMirror(url);
+			planner.register("bugzilla", url,
+					QueryPlanner.bugzilla(url, Sets.newHashSet(config.getIgnoredAuthors())));
+			break;
+		case "gerrit":
+			planner.register("gerrit", url, QueryPlanner.gerrit(new GerritLogger(url)
+					.setSnapshot(new File(new File(storage, "gerrit"), stateName + ".json"))));
+			break;
+		case "forum":
+			url = getForumsURL(config);
+			planner.register("forum", url, QueryPlanner.eclipseForums(url, watermarks));
+			break;
+		case "git":
+			Map<String, String> webCommitURLs = Maps.newLinkedHashMap();
+			for (SourceConfig remote : configs) {
+				if (!webCommitURLs.containsKey(remote.getUrl())) {
+					webCommitURLs.put(remote.getUrl(), remote.getCommitURL());
+				}
+			}
+			planner.register("git", url,
+					QueryPlanner.git(new GitLogger(gitMirrors).setWatermarks(watermarks), webCommitURLs));
+			break;
+		default:
+			throw new IllegalArgumentException(config.getType() + " sources are not planned");
+		}
+		return planner;
+	}
+
+	/**
+	 * @return the posts of the source which should be sent to its channel.
+	 */
+	static Collection<Post> filter(SourceConfig config, Collection<Post> posts) {
+		if (config.getSubjectContains() == null) {
+			return posts;
+		}
+		List<Post> filtered = Lists.newArrayList();
+		for (Post post : posts) {
+			if (post.getSubject() != null && post.getSubject().contains(config.getSubjectContains())) {
+				filtered.add(post);
+			}
+		}
+		return filtered;
+	}
+
+	private BugzillaMirror getBugzillaMirror(String url) {
+		String mirrorName = Hashing.sha256().hashString(url, Charsets.UTF_8) + ".json";
+		return BugzillaMirror.shared(url).setFile(new File(new File(storage, "bugzilla"), mirrorName));
+	}
+
+	private static String getForumsURL(SourceConfig config) {
+		return config.getUrl() != null ? config.getUrl() : ECLIPSE_FORUMS;
+	}
+
+	GitMirrors getGitMirrors() {
+		return gitMirrors;
+	}
+
+	private static Date daysAgo(SourceConfig config) {
+		return Dates.getDateXDaysAgo(config.getDays());
+	}
+
+}
@@ -0,0 +1,727 @@
+package fr.obeo.tools.stuart.daemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+
+import fr.obeo.tools.stuart.Dates;
+import fr.obeo.tools.stuart.EmitterTrace;
+import fr.obeo.tools.stuart.JournaledEmitterTrace;
+import fr.obeo.tools.stuart.MattermostPost;
+import fr.obeo.tools.stuart.Post;
+import fr.obeo.tools.stuart.PostSource;
+import fr.obeo.tools.stuart.QueryPlanner;
+import fr.obeo.tools.stuart.QueryPlanner.PlannedQuery;
+import fr.obeo.tools.stuart.Watermarks;
+import fr.obeo.tools.stuart.daemon.DaemonConfig.ChannelConfig;
+import fr.obeo.tools.stuart.daemon.DaemonConfig.SourceConfig;
+import fr.obeo.tools.stuart.daemon.DaemonConfig.WebhookConfig;
+import fr.obeo.tools.stuart.gerrit.GerritLogger;
+import fr.obeo.tools.stuart.http.Http;
+import fr.obeo.tools.stuart.jenkins.JenkinsLogger;
+import fr.obeo.tools.stuart.mattermost.AsyncMattermostEmitter;
+import fr.obeo.tools.stuart.mattermost.DigestEmitter;
+import fr.obeo.tools.stuart.mattermost.MattermostEmitter;
+import fr.obeo.tools.stuart.webhook.WebhookHandlers;
+import fr.obeo.tools.stuart.webhook.WebhookServer;
+
+/**
+ * Keeps the channels of a {@link DaemonConfig} up to date from a single,
+ * long-running JVM instead of a job per channel started by the CI. Each
+ * source runs on its own interval (shifted by some jitter so that the sources
+ * do not hit the servers all at once) and its new posts are sent to its
+ * channel right away. The emitters, the loggers and their clients, the
+ * traces and the watermarks are kept from one run to the other.
+ *
+ * The bugzilla, gerrit, forum and git sources of several channels asking the
+ * same server are run as a single request by a {@link QueryPlanner}, on the
+ * shortest of their intervals, its posts being then dispatched to each
+ * channel.
+ *
+ * The configuration file is checked every minute : the channels and sources
+ * which changed are replaced, the others keep running undisturbed.
+ *
+ * When the configuration has a webhook, the notifications it receives are sent
+ * to the channels with the trace of their pollers, a post is then sent once
+ * whether it is pushed or polled first.
+ *
+ * <pre>
+ * java fr.obeo.tools.stuart.daemon.StuartDaemon stuart.json
+ * </pre>
+ */
+public class StuartDaemon {
+
+	private static final long CONFIG_CHECK_PERIOD_SECONDS = 60;
+
+	private static final long HOUSEKEEPING_PERIOD_HOURS = 6;
+
+	private static final int MAX_REQUESTS_PER_HOST = 2;
+
+	private static final long HOST_BUSY_RETRY_SECONDS = 10;
+
+	private static final long HTTP_CACHE_SIZE = 200L * 1024 * 1024;
+
+	private File configFile;
+
+	private long configLastModified = -1;
+
+	private DaemonConfig config;
+
+	private SourceFactory sources;
+
+	private Gson gson = new Gson();
+
+	private ScheduledExecutorService scheduler;
+
+	private Map<String, Semaphore> hostPermits = Maps.newConcurrentMap();
+
+	/*
+	 * keyed by all the attributes of the channel, a channel whose hook changed
+	 * is a new channel.
+	 */
+	private Map<String, Channel> channels = Maps.newLinkedHashMap();
+
+	/*
+	 * keyed by channel and source configuration, or by merged request and the
+	 * configurations of its subscribers.
+	 */
+	private Map<String, Job> jobs = Maps.newLinkedHashMap();
+
+	private WebhookServer webhook;
+
+	/*
+	 * the repositories of the git sources, the only ones the webhook clones.
+	 */
+	private Set<String> gitRemotes = Sets.newConcurrentHashSet();
+
+	private String webhookKey;
+
+	public StuartDaemon(File configFile) {
+		this.configFile = configFile;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: StuartDaemon <configuration file>");
+			System.exit(1);
+		}
+		final StuartDaemon daemon = new StuartDaemon(new File(args[0]));
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				daemon.stop();
+			}
+		}, "stuart-shutdown"));
+		daemon.start();
+	}
+
+	/**
+	 * Load the configuration and schedule its sources.
+	 *
+	 * @throws IOException
+	 *             if the configuration can't be read, later reloading errors
+	 *             are only logged and the previous configuration is kept.
+	 */
+	public synchronized StuartDaemon start() throws IOException {
+		configLastModified = configFile.lastModified();
+		DaemonConfig loaded = DaemonConfig.load(configFile);
+		if (System.getProperty("stuart.http.cache") == null) {
+			try {
+				Http.configure(new File(loaded.getStorage(), "http-cache"), HTTP_CACHE_SIZE);
+			} catch (IllegalStateException e) {
+				/*
+				 * restarted in the same JVM, the client is already set up.
+				 */
+			}
+		}
+		scheduler = new ScheduledThreadPoolExecutor(8,
+				new ThreadFactoryBuilder().setNameFormat("stuart-scheduler-%d").build());
+		apply(loaded);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				reloadIfChanged();
+			}
+		}, CONFIG_CHECK_PERIOD_SECONDS, CONFIG_CHECK_PERIOD_SECONDS, TimeUnit.SECONDS);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				housekeeping();
+			}
+		}, HOUSEKEEPING_PERIOD_HOURS, HOUSEKEEPING_PERIOD_HOURS, TimeUnit.HOURS);
+		return this;
+	}
+
+	/**
+	 * Stop the sources and wait for the posts already queued to be sent.
+	 */
+	public synchronized void stop() {
+		if (scheduler == null) {
+			return;
+		}
+		for (Job job : jobs.values()) {
+			job.cancel();
+		}
+		jobs.clear();
+		scheduler.shutdownNow();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		stopWebhook();
+		for (Channel channel : channels.values()) {
+			channel.close();
+		}
+		channels.clear();
+		scheduler = null;
+	}
+
+	synchronized void reloadIfChanged() {
+		long lastModified = configFile.lastModified();
+		if (lastModified == configLastModified) {
+			return;
+		}
+		configLastModified = lastModified;
+		try {
+			apply(DaemonConfig.load(configFile));
+			System.out.println("[daemon] reloaded " + configFile);
+		} catch (IOException e) {
+			System.err.println("[daemon] keeping the previous configuration : " + e.getMessage());
+		}
+	}
+
+	private void apply(DaemonConfig newConfig) throws IOException {
+		if (config == null || !config.getStorage().equals(newConfig.getStorage())) {
+			sources = new SourceFactory(newConfig.getStorage());
+		}
+		config = newConfig;
+		String newWebhookKey = newConfig.getWebhook() == null ? null
+				: gson.toJson(newConfig.getWebhook()) + "|" + newConfig.getStorage();
+		if (newWebhookKey == null ? webhookKey != null : !newWebhookKey.equals(webhookKey)) {
+			stopWebhook();
+			if (newWebhookKey != null) {
+				startWebhook(newConfig.getWebhook());
+			}
+			webhookKey = newWebhookKey;
+		}
+
+		Set<String> wantedRemotes = Sets.newHashSet();
+		for (ChannelConfig channel : newConfig.getChannels()) {
+			for (SourceConfig source : channel.getSources()) {
+				if ("git".equals(source.getType()) && source.getUrl() != null) {
+					wantedRemotes.add(source.getUrl());
+				}
+			}
+		}
+		gitRemotes.retainAll(wantedRemotes);
+		gitRemotes.addAll(wantedRemotes);
+
+		Map<String, ChannelConfig> wantedChannels = Maps.newLinkedHashMap();
+		Map<String, JobConfig> wantedJobs = Maps.newLinkedHashMap();
+		Map<String, JobConfig> plannedGroups = Maps.newLinkedHashMap();
+		for (ChannelConfig channel : newConfig.getChannels()) {
+			String channelKey = channel.getName() + "|" + channel.getHook() + "|" + channel.getTrace() + "|"
+					+ channel.isDigest() + "|" + newConfig.getScheme() + "://" + newConfig.getHost() + "|"
+					+ newConfig.getStorage();
+			wantedChannels.put(channelKey, channel);
+			for (SourceConfig source : channel.getSources()) {
+				String targetKey = channelKey + "|" + gson.toJson(source);
+				String queryKey = sources.getPlannedQueryKey(source);
+				if (queryKey == null) {
+					wantedJobs.put(targetKey, new JobConfig(null).add(targetKey, channelKey, source));
+				} else {
+					JobConfig group = plannedGroups.get(queryKey);
+					if (group == null) {
+						group = new JobConfig(queryKey);
+						plannedGroups.put(queryKey, group);
+					}
+					group.add(targetKey, channelKey, source);
+				}
+			}
+		}
+		/*
+		 * a planned job is replaced as soon as one of its subscribers changes.
+		 */
+		for (JobConfig group : plannedGroups.values()) {
+			List<String> targetKeys = Lists.newArrayList(group.targetKeys);
+			Collections.sort(targetKeys);
+			wantedJobs.put(group.queryKey + "|" + targetKeys, group);
+		}
+
+		for (String jobKey : Lists.newArrayList(jobs.keySet())) {
+			if (!wantedJobs.containsKey(jobKey)) {
+				Job removed = jobs.remove(jobKey);
+				removed.cancel();
+				System.out.println("[daemon] stopped " + removed);
+			}
+		}
+		for (String channelKey : Lists.newArrayList(channels.keySet())) {
+			if (!wantedChannels.containsKey(channelKey)) {
+				Channel removed = channels.remove(channelKey);
+				if (webhook != null) {
+					webhook.removeChannel(removed.name);
+				}
+				removed.close();
+			}
+		}
+		for (Map.Entry<String, ChannelConfig> wanted : wantedChannels.entrySet()) {
+			if (!channels.containsKey(wanted.getKey())) {
+				channels.put(wanted.getKey(), new Channel(wanted.getValue()));
+			}
+		}
+		if (webhook != null) {
+			for (Channel channel : channels.values()) {
+				webhook.addChannel(channel.name, channel.asyncEmitter, channel.traceFile, channel.trace,
+						channel.pending);
+			}
+		}
+		for (Map.Entry<String, JobConfig> wanted : wantedJobs.entrySet()) {
+			if (!jobs.containsKey(wanted.getKey())) {
+				JobConfig jobConfig = wanted.getValue();
+				List<Channel> targets = Lists.newArrayList();
+				for (String channelKey : jobConfig.channelKeys) {
+					targets.add(channels.get(channelKey));
+				}
+				Job job;
+				if (jobConfig.queryKey == null) {
+					job = new Job(wanted.getKey(), targets.get(0), jobConfig.sources.get(0));
+				} else {
+					job = new Job(wanted.getKey(), jobConfig.queryKey, targets, jobConfig.sources);
+				}
+				jobs.put(wanted.getKey(), job);
+				/*
+				 * the first runs are spread over the first minutes.
+				 */
+				job.schedule(ThreadLocalRandom.current()
+						.nextLong(TimeUnit.MINUTES.toMillis(Math.min(5, job.getIntervalMinutes()))));
+			}
+		}
+	}
+
+	private void startWebhook(WebhookConfig webhookConfig) throws IOException {
+		WebhookServer server = new WebhookServer(webhookConfig.getPort()).setSecret(webhookConfig.getSecret());
+		server.on("posts", WebhookHandlers.posts());
+		if (webhookConfig.getSecret() == null) {
+			System.err.println("[daemon] the webhook has no secret, anyone reaching port " + webhookConfig.getPort()
+					+ " can post to the channels.");
+		}
+		server.on("github",
+				WebhookHandlers.github(sources.getGitMirrors(), webhookConfig.getGithubDays(), gitRemotes));
+		if (webhookConfig.getJenkins() != null) {
+			server.on("jenkins", WebhookHandlers
+					.jenkins(new JenkinsLogger(webhookConfig.getJenkins(), Dates.getDateXDaysAgo(0))));
+		}
+		if (webhookConfig.getGerrit() != null) {
+			server.on("gerrit", WebhookHandlers.gerrit(new GerritLogger(webhookConfig.getGerrit())));
+		}
+		try {
+			webhook = server.start();
+		} catch (Exception e) {
+			throw new IOException("Could not start the webhook on port " + webhookConfig.getPort(), e);
+		}
+	}
+
+	private void stopWebhook() {
+		if (webhook != null) {
+			try {
+				webhook.stop();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			webhook = null;
+		}
+	}
+
+	synchronized void housekeeping() {
+		for (Channel channel : channels.values()) {
+			channel.evictOldEvents();
+		}
+	}
+
+	private long nextDelay(long intervalMinutes) {
+		long interval = TimeUnit.MINUTES.toMillis(intervalMinutes);
+		long jitter = (long) (interval * config.getJitter());
+		if (jitter <= 0) {
+			return interval;
+		}
+		return interval + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+	}
+
+	/**
+	 * The sources a job feeds and their channels, a single one unless the
+	 * sources are merged by a planner.
+	 */
+	private static class JobConfig {
+
+		private String queryKey;
+
+		private List<String> targetKeys = Lists.newArrayList();
+
+		private List<String> channelKeys = Lists.newArrayList();
+
+		private List<SourceConfig> sources = Lists.newArrayList();
+
+		JobConfig(String queryKey) {
+			this.queryKey = queryKey;
+		}
+
+		JobConfig add(String targetKey, String channelKey, SourceConfig source) {
+			targetKeys.add(targetKey);
+			channelKeys.add(channelKey);
+			sources.add(source);
+			return this;
+		}
+	}
+
+	/**
+	 * A source feeding a channel, or the merged request of the sources of
+	 * several channels, run again and again until it is cancelled. A run is
+	 * scheduled once the posts of the previous one are delivered.
+	 */
+	private class Job implements Runnable {
+
+		private List<Channel> channels;
+
+		private List<SourceConfig> configs;
+
+		private PostSource source;
+
+		/*
+		 * only for the merged requests, the posts are then dispatched to the
+		 * channels subscribed under their index.
+		 */
+		private QueryPlanner planner;
+
+		private String queryKey;
+
+		/*
+		 * only saved once the posts are delivered, they are restored when some
+		 * could not be so that they are read again at the next run.
+		 */
+		private Watermarks watermarks;
+
+		private ScheduledFuture<?> next;
+
+		private volatile boolean cancelled = false;
+
+		Job(String key, Channel channel, SourceConfig config) throws IOException {
+			this.channels = Collections.singletonList(channel);
+			this.configs = Collections.singletonList(config);
+			this.watermarks = createWatermarks(stateName(key));
+			this.source = sources.create(config, watermarks, channel.trace);
+		}
+
+		Job(String key, String queryKey, List<Channel> channels, List<SourceConfig> configs) throws IOException {
+			this.queryKey = queryKey;
+			this.channels = channels;
+			this.configs = configs;
+			String stateName = stateName(key);
+			this.watermarks = createWatermarks(stateName);
+			this.planner = sources.createPlanner(configs, watermarks, stateName);
+			for (int i = 0; i < configs.size(); i++) {
+				SourceConfig subscriber = configs.get(i);
+				planner.subscribe(String.valueOf(i), subscriber.getType(), subscriber.getDays(),
+						sources.getPlannedKeys(subscriber));
+			}
+		}
+
+		private String stateName(String key) {
+			return Hashing.sha256().hashString(key, Charsets.UTF_8).toString();
+		}
+
+		private Watermarks createWatermarks(String stateName) throws IOException {
+			File watermarksJson = new File(config.getStorage(), "jobs/" + stateName + "_watermarks.json");
+			com.google.common.io.Files.createParentDirs(watermarksJson);
+			return new Watermarks(watermarksJson);
+		}
+
+		/**
+		 * @return the shortest interval of its sources.
+		 */
+		long getIntervalMinutes() {
+			long interval = Long.MAX_VALUE;
+			for (SourceConfig config : configs) {
+				interval = Math.min(interval, config.getIntervalMinutes());
+			}
+			return interval;
+		}
+
+		synchronized void schedule(long delayMillis) {
+			if (!cancelled) {
+				next = scheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		synchronized void cancel() {
+			cancelled = true;
+			if (next != null) {
+				next.cancel(false);
+			}
+		}
+
+		@Override
+		public void run() {
+			long start = System.currentTimeMillis();
+			PlannedQuery query = null;
+			PostSource toRun = source;
+			if (planner != null) {
+				query = planner.plan(configs.get(0).getType());
+				toRun = planner.source(query);
+			}
+			Semaphore permit = hostPermits.computeIfAbsent(toRun.getHost(),
+					h -> new Semaphore(MAX_REQUESTS_PER_HOST));
+			if (!permit.tryAcquire()) {
+				/*
+				 * the host is busy with other sources, we try again shortly
+				 * instead of holding a thread of the scheduler.
+				 */
+				long retry = TimeUnit.SECONDS.toMillis(HOST_BUSY_RETRY_SECONDS);
+				schedule(ThreadLocalRandom.current().nextLong(retry / 2, retry * 3 / 2));
+				return;
+			}
+			Map<String, String> before = watermarks.snapshot();
+			List<CompletableFuture<Integer>> deliveries = Lists.newArrayList();
+			try {
+				Collection<Post> posts;
+				try {
+					posts = toRun.collect();
+				} finally {
+					permit.release();
+				}
+				if (planner == null) {
+					deliveries.add(send(0, posts, start));
+				} else {
+					Multimap<String, Post> postsBySubscriber = planner.dispatch(query);
+					for (int i = 0; i < channels.size(); i++) {
+						deliveries.add(send(i, postsBySubscriber.get(String.valueOf(i)), start));
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				System.err.println("[daemon] " + this + " failed : " + e.getMessage());
+				e.printStackTrace();
+				done(before, false);
+				return;
+			}
+			CompletableFuture.allOf(deliveries.toArray(new CompletableFuture<?>[deliveries.size()]))
+					.whenComplete((v, error) -> {
+						if (error != null) {
+							System.err.println("[daemon] " + this + " : some posts could not be delivered, "
+									+ error.getMessage());
+						}
+						done(before, error == null);
+					});
+		}
+
+		private CompletableFuture<Integer> send(int target, Collection<Post> posts, final long start)
+				throws InterruptedException {
+			final Collection<Post> filtered = SourceFactory.filter(configs.get(target), posts);
+			final Channel channel = channels.get(target);
+			if (cancelled) {
+				return CompletableFuture.completedFuture(0);
+			}
+			return channel.send(filtered).whenComplete((nbSent, error) -> {
+				if (error == null) {
+					System.out.println("[daemon] " + channel.name + " <- " + (source != null ? source : queryKey)
+							+ " : " + filtered.size() + " posts (" + nbSent + " new) in "
+							+ (System.currentTimeMillis() - start) + " ms");
+				}
+			});
+		}
+
+		/**
+		 * Keep the watermarks if all the posts were delivered, go back to the
+		 * ones of the beginning of the run otherwise, and schedule the next
+		 * run.
+		 */
+		private void done(Map<String, String> before, boolean delivered) {
+			if (delivered && !cancelled) {
+				try {
+					watermarks.save();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			} else {
+				watermarks.restore(before);
+			}
+			schedule(nextDelay(getIntervalMinutes()));
+		}
+
+		@Override
+		public String toString() {
+			List<String> names = Lists.newArrayList();
+			for (Channel channel : channels) {
+				names.add(channel.name);
+			}
+			return Joiner.on(", ").join(names) + " <- " + (source != null ? source : queryKey);
+		}
+	}
+
+	/**
+	 * The emitter and the trace of a channel, shared by all its sources.
+	 */
+	private class Channel {
+
+		private String name;
+
+		private MattermostEmitter emitter;
+
+		/*
+		 * used by the webhook even when the polled posts are sent as digests.
+		 */
+		private AsyncMattermostEmitter asyncEmitter;
+
+		private DigestEmitter digestEmitter;
+
+		private EmitterTrace traceFile;
+
+		private Map<String, Date> trace;
+
+		/*
+		 * the posts queued but not delivered yet, a source running again in
+		 * the meantime should not queue them twice.
+		 */
+		private Set<String> pending = Sets.newConcurrentHashSet();
+
+		Channel(ChannelConfig channel) throws IOException {
+			this.name = channel.getName();
+			String traceName = channel.getTrace();
+			if (traceName == null) {
+				traceName = Hashing.sha256().hashString(channel.getHook(), Charsets.UTF_8).toString();
+			}
+			this.emitter = new MattermostEmitter(config.getScheme(), config.getHost(), channel.getHook());
+			this.asyncEmitter = new AsyncMattermostEmitter(emitter);
+			if (channel.isDigest()) {
+				this.digestEmitter = new DigestEmitter(emitter);
+			}
+			File traceJson = new File(config.getStorage(), config.getHost() + "_" + traceName + "_trace.json");
+			com.google.common.io.Files.createParentDirs(traceJson);
+			this.traceFile = new JournaledEmitterTrace(traceJson);
+			this.trace = traceFile.load();
+		}
+
+		/**
+		 * @return completed with the number of posts which were not sent yet
+		 *         once they are delivered, or exceptionally if some of them
+		 *         could not be.
+		 */
+		CompletableFuture<Integer> send(Collection<Post> posts) throws InterruptedException {
+			final List<Post> toSend = Lists.newArrayList();
+			for (Post post : posts) {
+				/*
+				 * posts are traced before leaving the pending ones, a post we
+				 * mark as pending is either not sent yet or already traced.
+				 */
+				if (pending.add(post.getKey())) {
+					if (trace.containsKey(post.getKey())) {
+						pending.remove(post.getKey());
+					} else {
+						toSend.add(post);
+					}
+				}
+			}
+			Collections.sort(toSend, new Comparator<Post>() {
+				public int compare(Post m1, Post m2) {
+					return m1.getCreatedAt().compareTo(m2.getCreatedAt());
+				}
+			});
+			if (digestEmitter != null) {
+				synchronized (digestEmitter) {
+					digestEmitter.send(toSend, trace);
+				}
+				/*
+				 * the digests which could not be sent left their posts out of
+				 * the trace.
+				 */
+				int nbFailed = 0;
+				for (Post post : toSend) {
+					if (!trace.containsKey(post.getKey())) {
+						nbFailed++;
+					}
+					pending.remove(post.getKey());
+				}
+				saveTrace();
+				CompletableFuture<Integer> delivered = new CompletableFuture<Integer>();
+				if (nbFailed > 0) {
+					delivered.completeExceptionally(
+							new IOException(nbFailed + " posts could not be sent to " + name + "."));
+				} else {
+					delivered.complete(toSend.size());
+				}
+				return delivered;
+			}
+			List<CompletableFuture<?>> deliveries = Lists.newArrayList();
+			for (final Post post : toSend) {
+				deliveries.add(asyncEmitter.submit(MattermostPost.fromGenericPost(post)).whenComplete((sent, error) -> {
+					if (error == null) {
+						trace.put(post.getKey(), new Date());
+					} else {
+						error.printStackTrace();
+					}
+					pending.remove(post.getKey());
+				}));
+			}
+			return CompletableFuture.allOf(deliveries.toArray(new CompletableFuture<?>[deliveries.size()]))
+					.whenComplete((v, error) -> saveTrace()).thenApply(v -> toSend.size());
+		}
+
+		private void saveTrace() {
+			try {
+				traceFile.save(trace);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		void evictOldEvents() {
+			try {
+				traceFile.evictOldEvents(trace, config.getTraceRetentionDays());
+				traceFile.save(trace);
+			} catch (IOException | RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+
+		void close() {
+			try {
+				asyncEmitter.close();
+				traceFile.save(trace);
+				traceFile.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
@@ -2,10 +2,8 @@ package fr.obeo.tools.stuart.eclipseforum;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Collection;
@@ -14,11 +12,9 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Supplier;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.io.Files;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
@@ -26,6 +22,7 @@ import com.google.gson.reflect.TypeToken;
 
 import fr.obeo.tools.stuart.Dates;
 import fr.obeo.tools.stuart.Post;
+import fr.obeo.tools.stuart.PostArchive;
 
 public class DumpForumPosts {
 
@@ -33,6 +30,8 @@ public class DumpForumPosts {
 			.create();
 	private ForumLogger postSupplier;
 
+	private Map<String, PostArchive> archives = Maps.newHashMap();
+
 	public DumpForumPosts(ForumLogger postSupplier) {
 		this.postSupplier = postSupplier;
 	}
@@ -41,39 +40,28 @@ public class DumpForumPosts {
 		return updateOnProject(forumID, prjName, Lists.newArrayList());
 	}
 
+	/**
+	 * @return the posts created or updated since the last update, the whole
+	 *         archive is available through {@link #getPosts(String)}.
+	 */
 	public List<Post> updateOnProject(int forumID, String prjName, List<Post> newPosts2) throws IOException {
-		List<Post> alreadyThere = getPosts(prjName);
-		Date mostRecent = null;
-		Map<String, Post> postByKey = Maps.newLinkedHashMap();
-		for (Post post : alreadyThere) {
-			if (mostRecent == null) {
-				mostRecent = post.getCreatedAt();
-			} else {
-				if (!mostRecent.after(post.getCreatedAt())) {
-					mostRecent = post.getCreatedAt();
-				}
-			}
-			postByKey.put(post.getKey(), post);
-		}
-
+		PostArchive archive = getArchive(prjName);
+		Date mostRecent = archive.getMostRecentDate();
 		if (mostRecent == null) {
 			mostRecent = Dates.getDateXDaysAgo(3650);
 		}
-		System.out.println("[" + prjName + "] old posts:" + postByKey.size());
+		System.out.println("[" + prjName + "] old posts:" + archive.size());
 		Collection<Post> newPosts = postSupplier.collectPosts(forumID, mostRecent);
 		newPosts2.addAll(newPosts);
-		System.out.println("[" + prjName + "] new posts:" + newPosts.size() + " before:" + postByKey.values().size());
-		for (Post post : newPosts) {
-			postByKey.put(post.getKey(), post);
-		}
-		List<Post> posts = Lists.newArrayList(postByKey.values());
-		Collections.sort(posts, new Comparator<Post>() {
+		System.out.println("[" + prjName + "] new posts:" + newPosts.size() + " before:" + archive.size());
+		archive.upsert(newPosts);
+		List<Post> updated = Lists.newArrayList(newPosts);
+		Collections.sort(updated, new Comparator<Post>() {
 			public int compare(Post m1, Post m2) {
 				return m1.getCreatedAt().compareTo(m2.getCreatedAt());
 			}
 		});
-		savePosts(prjName, posts);
-		return posts;
+		return updated;
 
 	}
 
@@ -104,22 +92,39 @@ public class DumpForumPosts {
 	}
 
 	public void savePosts(String prjName, Collection<Post> posts) throws IOException {
-		File dataFile = getPostsDataFile(prjName);
-		Files.createParentDirs(dataFile);
-
-		try (FileOutputStream out = new FileOutputStream(dataFile)) {
+		getArchive(prjName).upsert(posts);
+	}
 
-			OutputStreamWriter writer = new OutputStreamWriter(out, "UTF-8");
-			gson.toJson(posts, writer);
-			writer.flush();
-			out.flush();
+	/**
+	 * @return the archive of the project posts, the posts dumped in
+	 *         <code>results/&lt;project&gt;.json</code> by former versions are
+	 *         imported on first access. The archive is opened once and then
+	 *         kept.
+	 */
+	public synchronized PostArchive getArchive(String prjName) throws IOException {
+		PostArchive archive = archives.get(prjName);
+		if (archive != null) {
+			return archive;
 		}
+		archive = new PostArchive(new File(getResultsFolder(), prjName));
+		File legacyFile = new File(getResultsFolder(), prjName + ".json");
+		if (archive.isEmpty() && legacyFile.exists()) {
+			try (InputStreamReader reader = new InputStreamReader(new FileInputStream(legacyFile), "UTF-8")) {
+				List<Post> legacyPosts = gson.fromJson(reader, new TypeToken<List<Post>>() {
+				}.getType());
+				if (legacyPosts != null) {
+					archive.upsert(legacyPosts);
+				}
+			} catch (JsonSyntaxException e) {
+				e.printStackTrace();
+			}
+		}
+		archives.put(prjName, archive);
+		return archive;
 	}
 
-	private File getPostsDataFile(String prjName) {
-		String outFolder = System.getProperty("user.dir") + "/results/";
-		File dataFile = new File(outFolder + prjName + ".json");
-		return dataFile;
+	private File getResultsFolder() {
+		return new File(System.getProperty("user.dir") + "/results/");
 	}
 
 	public Collection<Post> getSentimentsPosts(String prjName) {
@@ -127,16 +132,22 @@ public class DumpForumPosts {
 	}
 
 	public List<Post> getPosts(String prjName) {
-		File dataFile = getPostsDataFile(prjName);
 		try {
-			return gson.fromJson(new InputStreamReader(new FileInputStream(dataFile), "UTF-8"),
-					new TypeToken<List<Post>>() {
-					}.getType());
-		} catch (JsonSyntaxException | IOException e) {
+			return getArchive(prjName).getAll();
+		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 		return Lists.newArrayList();
 	}
 
+	public List<Post> getPosts(String prjName, Date from, Date to) {
+		try {
+			return getArchive(prjName).scan(from, to);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return Lists.newArrayList();
+	}
+
 }
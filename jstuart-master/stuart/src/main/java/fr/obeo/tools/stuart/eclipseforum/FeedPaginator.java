@@ -0,0 +1,210 @@
+package fr.obeo.tools.stuart.eclipseforum;
+
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.io.SyndFeedInput;
+import com.rometools.rome.io.XmlReader;
+
+import fr.obeo.tools.stuart.Watermarks;
+import fr.obeo.tools.stuart.http.Http;
+
+/**
+ * Reads the pages of a FUDforum feed, newest entries first, until an entry
+ * older than the horizon shows up. While a page is being read the next ones
+ * are already requested, the number of pages requested ahead grows as long as
+ * the pages only hold new entries and the size of the pages follows the
+ * latency of the server. The pages still in flight are cancelled as soon as
+ * the horizon is crossed.
+ *
+ * With a watermark the horizon moves to the most recent entry of the previous
+ * run and a single page is requested at first, which is all it takes once the
+ * backlog has been read.
+ */
+public class FeedPaginator {
+
+	private static final int MAX_REQUESTS = 100000;
+
+	private static final int MAX_SUCCESSIVE_FAILURES = 5;
+
+	private static final int MIN_PAGE_SIZE = 10;
+
+	private static final int MAX_PAGE_SIZE = 200;
+
+	private static final long TARGET_LATENCY_MS = 3000;
+
+	private static ExecutorService executor = Executors.newFixedThreadPool(4,
+			new ThreadFactoryBuilder().setNameFormat("stuart-forums-%d").setDaemon(true).build());
+
+	private BiFunction<Integer, Integer, String> pageURL;
+
+	private int pageSize = 50;
+
+	private int maxPrefetch = 4;
+
+	private boolean silentFail = true;
+
+	private Watermarks watermarks;
+
+	private String watermarkKey;
+
+	/**
+	 * @param pageURL
+	 *            the URL of the page starting at the given offset and holding
+	 *            the given number of entries.
+	 */
+	public FeedPaginator(BiFunction<Integer, Integer, String> pageURL) {
+		this.pageURL = pageURL;
+	}
+
+	public FeedPaginator setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	public FeedPaginator setMaxPrefetch(int maxPrefetch) {
+		this.maxPrefetch = maxPrefetch;
+		return this;
+	}
+
+	public FeedPaginator setSilentFail(boolean silentFail) {
+		this.silentFail = silentFail;
+		return this;
+	}
+
+	public FeedPaginator setWatermark(Watermarks watermarks, String key) {
+		this.watermarks = watermarks;
+		this.watermarkKey = key;
+		return this;
+	}
+
+	/**
+	 * @return the entries published after the horizon (and after the
+	 *         watermark if any), newest first.
+	 */
+	public List<SyndEntry> read(Date daysAgo) {
+		Date horizon = daysAgo;
+		Date watermark = null;
+		if (watermarks != null) {
+			watermark = watermarks.getDate(watermarkKey);
+			if (watermark != null && watermark.after(horizon)) {
+				horizon = watermark;
+			}
+		}
+		List<SyndEntry> entries = Lists.newArrayList();
+		Deque<Page> inFlight = Queues.newArrayDeque();
+		int window = watermark != null ? 1 : maxPrefetch;
+		int size = pageSize;
+		int offset = 0;
+		int nbRequests = 0;
+		int nbSuccessiveFailures = 0;
+		boolean foundAnOld = false;
+		try {
+			while (!foundAnOld && nbSuccessiveFailures < MAX_SUCCESSIVE_FAILURES) {
+				while (inFlight.size() < window && nbRequests < MAX_REQUESTS) {
+					inFlight.add(new Page(pageURL.apply(offset, size)));
+					offset += size;
+					nbRequests++;
+				}
+				Page page = inFlight.poll();
+				if (page == null) {
+					break;
+				}
+				try {
+					SyndFeed feed = page.result.get();
+					nbSuccessiveFailures = 0;
+					size = adaptPageSize(size, page.latencyMillis);
+					if (feed.getEntries().isEmpty()) {
+						/*
+						 * we went past the first post of the forum.
+						 */
+						foundAnOld = true;
+					}
+					for (SyndEntry entry : feed.getEntries()) {
+						if (entry.getPublishedDate().after(horizon)) {
+							entries.add(entry);
+						} else {
+							foundAnOld = true;
+						}
+					}
+					if (!foundAnOld) {
+						window = Math.min(window * 2, maxPrefetch);
+					}
+				} catch (ExecutionException e) {
+					System.err.println(page.url + " " + e.getCause().getMessage());
+					nbSuccessiveFailures++;
+					if (!silentFail) {
+						throw new RuntimeException(e.getCause());
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}
+			}
+		} finally {
+			for (Page page : inFlight) {
+				page.result.cancel(true);
+			}
+		}
+		if (watermarks != null && entries.size() > 0) {
+			Date mostRecent = entries.get(0).getPublishedDate();
+			for (SyndEntry entry : entries) {
+				if (entry.getPublishedDate().after(mostRecent)) {
+					mostRecent = entry.getPublishedDate();
+				}
+			}
+			if (watermark == null || mostRecent.after(watermark)) {
+				watermarks.put(watermarkKey, mostRecent);
+			}
+		}
+		return entries;
+	}
+
+	private static int adaptPageSize(int size, long latencyMillis) {
+		if (latencyMillis < TARGET_LATENCY_MS / 2) {
+			return Math.min(size * 2, MAX_PAGE_SIZE);
+		} else if (latencyMillis > TARGET_LATENCY_MS) {
+			return Math.max(size / 2, MIN_PAGE_SIZE);
+		}
+		return size;
+	}
+
+	private static class Page {
+
+		private String url;
+
+		private volatile long latencyMillis;
+
+		private Future<SyndFeed> result;
+
+		Page(final String url) {
+			this.url = url;
+			this.result = executor.submit(new Callable<SyndFeed>() {
+
+				@Override
+				public SyndFeed call() throws Exception {
+					System.out.println(url);
+					long start = System.currentTimeMillis();
+					try (XmlReader reader = Http.openFeed(url)) {
+						SyndFeed feed = new SyndFeedInput().build(reader);
+						latencyMillis = System.currentTimeMillis() - start;
+						return feed;
+					}
+				}
+			});
+		}
+	}
+
+}
@@ -1,36 +1,26 @@
 package fr.obeo.tools.stuart.eclipseforum;
 
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Document.OutputSettings;
-import org.jsoup.nodes.Element;
-import org.jsoup.safety.Whitelist;
-
-import com.google.common.base.Splitter;
 import com.rometools.rome.feed.synd.SyndEntry;
-import com.rometools.rome.feed.synd.SyndFeed;
-import com.rometools.rome.io.FeedException;
-import com.rometools.rome.io.SyndFeedInput;
-import com.rometools.rome.io.XmlReader;
 
+import fr.obeo.tools.stuart.HtmlToMarkdown;
 import fr.obeo.tools.stuart.Post;
+import fr.obeo.tools.stuart.Watermarks;
 
 public class PolarsysForumsLogger implements ForumLogger {
 
-	private static final int MAX_REQUESTS = 100000;
 	private static final String FORUM_ICON = "https://i.imgur.com/w8HsmQW.png";
+	private static final HtmlToMarkdown HTML = new HtmlToMarkdown("https://polarsys.org/forums/").skipClass("pre");
 	private Date daysAgo;
 
 	private boolean silentFail = true;
 
+	private Watermarks watermarks;
+
 	private String baseURL = "https://polarsys.org/forums/";
 	private String keyword;
 	private int forumNumber = -1;
@@ -48,87 +38,21 @@ public class PolarsysForumsLogger implements ForumLogger {
 
 	public Collection<Post> forumLog() {
 		List<Post> posts = new ArrayList<Post>();
-		int requestSize = 50;
-		SyndFeedInput input = new SyndFeedInput();
-		boolean foundAnOld = false;
-		int nbSuccessiveFailures = 0;
-		for (int i = 0; i < MAX_REQUESTS && !foundAnOld && nbSuccessiveFailures < 5; i++) {
-			URL feedUrl = null;
-			try {
-				if (forumNumber != -1) {
-					feedUrl = new URL(baseURL + "feed.php?mode=m&l=1&basic=1&frm=" + forumNumber + "&field=all&srch="
-							+ keyword + "&n=" + requestSize + "&o=" + i * requestSize);
-				} else {
-					feedUrl = new URL(baseURL + "feed.php?mode=m&l=1&basic=1" + "&field=all&srch=" + keyword + "&n="
-							+ requestSize + "&o=" + i * requestSize);
-				}
-
-				System.out.println(feedUrl);
-				SyndFeed feed = input.build(new XmlReader(feedUrl));
-				for (SyndEntry entry : feed.getEntries()) {
-					if (entry.getPublishedDate().after(daysAgo)) {
-						String html = entry.getDescription().getValue();
-						Document doc = Jsoup.parse(html);
-						doc.getElementsByClass("pre").remove();
-						String htmlConvertedToText = Jsoup.clean(doc.toString(), "", Whitelist.none(),
-								new OutputSettings().prettyPrint(false));
-						StringBuffer cleaned = new StringBuffer();
-						boolean foundSignature = false;
-						for (String line : Splitter.on('\n').split(htmlConvertedToText)) {
-							if (line.trim().length() > 0 && !line.startsWith("&gt;") && !foundSignature) {
-								if (line.startsWith("--")) {
-									foundSignature = true;
-								} else {
-									cleaned.append(line);
-									cleaned.append('\n');
-								}
-							}
-						}
-
-						Post newPost = Post
-								.createPostWithSubject(entry.getUri(), entry.getTitle(), cleaned.toString(),
-										entry.getAuthor(), FORUM_ICON, entry.getPublishedDate())
-								.addURLs(entry.getUri());
-						Element img = Jsoup.parse(html).getElementsByTag("img").first();
-						if (img != null && img.attr("src") != null) {
-							String href = img.attr("src");
-							if (!href.startsWith("http")) {
-								href = "https://polarsys.org/forums/" + href;
-							}
-							newPost.addMediaURLs(href);
-						}
-						posts.add(newPost);
-					} else {
-						foundAnOld = true;
-					}
-
-				}
-				nbSuccessiveFailures = 0;
-			} catch (MalformedURLException e) {
-				System.err.println(feedUrl + " " + e.getMessage());
-				nbSuccessiveFailures++;
-				if (!silentFail) {
-					throw new RuntimeException(e);
-				}
-			} catch (IllegalArgumentException e) {
-				System.err.println(feedUrl + " " + e.getMessage());
-				nbSuccessiveFailures++;
-				if (!silentFail) {
-					throw new RuntimeException(e);
-				}
-			} catch (FeedException e) {
-				System.err.println(feedUrl + " " + e.getMessage());
-				nbSuccessiveFailures++;
-				if (!silentFail) {
-					throw new RuntimeException(e);
-				}
-			} catch (IOException e) {
-				System.err.println(feedUrl + " " + e.getMessage());
-				nbSuccessiveFailures++;
-				if (!silentFail) {
-					throw new RuntimeException(e);
-				}
+		String forum = forumNumber != -1 ? "&frm=" + forumNumber : "";
+		FeedPaginator paginator = new FeedPaginator((offset, size) -> baseURL + "feed.php?mode=m&l=1&basic=1" + forum
+				+ "&field=all&srch=" + keyword + "&n=" + size + "&o=" + offset).setSilentFail(silentFail);
+		if (watermarks != null) {
+			paginator.setWatermark(watermarks, baseURL + "frm=" + forumNumber + "&srch=" + keyword);
+		}
+		List<SyndEntry> entries = paginator.read(daysAgo);
+		for (SyndEntry entry : entries) {
+			HtmlToMarkdown.Result body = HTML.convert(entry.getDescription().getValue());
+			Post newPost = Post.createPostWithSubject(entry.getUri(), entry.getTitle(), body.getMarkdown(),
+					entry.getAuthor(), FORUM_ICON, entry.getPublishedDate()).addURLs(entry.getUri());
+			if (body.getMediaURLs().size() > 0) {
+				newPost.addMediaURLs(body.getMediaURLs().get(0));
 			}
+			posts.add(newPost);
 		}
 		/*
 		 * set the thread ID
@@ -147,6 +71,16 @@ public class PolarsysForumsLogger implements ForumLogger {
 		return id;
 	}
 
+	/**
+	 * @param watermarks
+	 *            remembers the most recent post of each forum, the next calls
+	 *            only read what was posted since.
+	 */
+	public PolarsysForumsLogger setWatermarks(Watermarks watermarks) {
+		this.watermarks = watermarks;
+		return this;
+	}
+
 	public PolarsysForumsLogger setSilentFail(boolean val) {
 		this.silentFail = val;
 		return this;
@@ -0,0 +1,82 @@
+package fr.obeo.tools.stuart.gerrit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+
+import fr.obeo.tools.stuart.AtomicFiles;
+import fr.obeo.tools.stuart.gerrit.model.PatchSet;
+
+/**
+ * The open changes ready for review, as of the last synchronization with
+ * gerrit. It is kept on disk so that the next run only asks for the changes
+ * updated since.
+ */
+class ChangeSnapshot {
+
+	private String query;
+
+	private long lastSync;
+
+	private Map<String, PatchSet> changes = Maps.newLinkedHashMap();
+
+	ChangeSnapshot(String query) {
+		this.query = query;
+	}
+
+	/**
+	 * @return the snapshot stored in the file, null if there is none or if it
+	 *         has been built for another query.
+	 */
+	static ChangeSnapshot load(File file, Gson gson, String query) {
+		ChangeSnapshot snapshot = AtomicFiles.readJson(file, gson, ChangeSnapshot.class);
+		if (snapshot != null && query.equals(snapshot.query) && snapshot.changes != null) {
+			return snapshot;
+		}
+		return null;
+	}
+
+	void save(File file, Gson gson) throws IOException {
+		AtomicFiles.writeJson(file, gson, this);
+	}
+
+	long getLastSync() {
+		return lastSync;
+	}
+
+	void setLastSync(long lastSync) {
+		this.lastSync = lastSync;
+	}
+
+	void put(PatchSet change) {
+		changes.put(change.getId(), change);
+	}
+
+	void remove(String id) {
+		changes.remove(id);
+	}
+
+	/**
+	 * Forget the changes which have not been updated since the given date.
+	 */
+	void evictOlderThan(Date date) {
+		Iterator<PatchSet> it = changes.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().getUpdated().before(date)) {
+				it.remove();
+			}
+		}
+	}
+
+	List<PatchSet> getChanges() {
+		return Lists.newArrayList(changes.values());
+	}
+
+}
@@ -1,6 +1,9 @@
 package fr.obeo.tools.stuart.gerrit;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
 import java.util.ArrayList;
@@ -10,16 +13,20 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
 import com.squareup.okhttp.FormEncodingBuilder;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
@@ -28,6 +35,7 @@ import com.squareup.okhttp.Response;
 
 import fr.obeo.tools.stuart.Dates;
 import fr.obeo.tools.stuart.Post;
+import fr.obeo.tools.stuart.http.Http;
 import fr.obeo.tools.stuart.gerrit.model.PatchSet;
 import fr.obeo.tools.stuart.git.GitLogger;
 
@@ -35,6 +43,14 @@ public class GerritLogger {
 
 	private static final String GERRIT_ICON = "https://i.imgur.com/aRoIo4q.png";
 
+	private static final String DETAILS = "&o=DETAILED_ACCOUNTS&o=CURRENT_REVISION";
+
+	private static final String XSSI_PREFIX = ")]}'";
+
+	private static final int PAGE_SIZE = 100;
+
+	private static final long SYNC_SLACK_MS = 5 * 60 * 1000;
+
 	private String serverURL;
 	private Gson gson;
 
@@ -44,11 +60,22 @@ public class GerritLogger {
 
 	private String password;
 
+	private File snapshotFile;
+
 	public void setAuthInfo(String username, String password) {
 		this.username = username;
 		this.password = password;
 	}
 
+	/**
+	 * Keep the changes ready for review in the given file : the next calls
+	 * only request the changes updated in the meantime.
+	 */
+	public GerritLogger setSnapshot(File snapshotFile) {
+		this.snapshotFile = snapshotFile;
+		return this;
+	}
+
 	public GerritLogger(String serverURL) {
 		this.serverURL = serverURL;
 		gson = new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss").setPrettyPrinting().create();
@@ -56,44 +83,89 @@ public class GerritLogger {
 
 	public Collection<Post> getPatchsets(Collection<String> projects, int nbDays) {
 		List<Post> posts = new ArrayList<Post>();
+		List<PatchSet> reviewsToSend = getReadyChanges(projects, nbDays);
+		if (reviewsToSend.size() == 1 || !groupReviews) {
+			for (PatchSet review : reviewsToSend) {
+				posts.add(toPost(review));
+			}
+		} else if (reviewsToSend.size() > 1) {
+
+			List<List<PatchSet>> partitions = Lists.partition(reviewsToSend, 14);
+			for (List<PatchSet> reviews : partitions) {
+				String body = "\n" + "|subject|author|changes| merge ?|   |\n"
+						+ "|-------|:------:|---------|-------|------|----|\n";
+				Set<String> authors = Sets.newLinkedHashSet();
+				Set<String> urls = Sets.newLinkedHashSet();
+				for (PatchSet review : reviews) {
+
+					boolean recentlyUpdated = (new Date().getTime() - review.getUpdated().getTime()) < 24 * 60 * 60
+							* 1000;
+					String reviewKey = serverURL + "/" + review.getId();
+					String mergeable = mergeableText(review);
+
+					if (recentlyUpdated) {
+						body += "| **" + GitLogger.detectBugzillaLink(review.getSubject()) + "** | **"
+								+ review.getOwner().getName() + "** | *+" + review.getInsertions() + "/-"
+								+ review.getDeletions() + "*|" + mergeable + "| [link](" + serverURL + "/#/c/"
+								+ review.get_number() + ")|\n";
+					} else {
+						body += "| " + GitLogger.detectBugzillaLink(review.getSubject()) + " | "
+								+ review.getOwner().getName() + " | *+" + review.getInsertions() + "/-"
+								+ review.getDeletions() + "*|" + mergeable + "| [link](" + serverURL + "/#/c/"
+								+ review.get_number() + ")|\n";
+					}
+					authors.add(review.getOwner().getName());
+					urls.add(reviewKey);
+				}
+				String authorName = Joiner.on(',').join(authors);
+				String postKey = Joiner.on('_').join(urls);
+
+				Post newPost = Post.createPostWithSubject(postKey,
+						"Ready for reviews (" + reviews.size() + "/" + reviewsToSend.size() + ")", body, authorName,
+						GERRIT_ICON, reviews.iterator().next().getUpdated());
+				newPost.setQuote(false);
+				newPost.mightBeTruncated(false);
+				posts.add(newPost);
+			}
+
+		}
+
+		return posts;
+	}
+
+	/**
+	 * The changes ready for review of the given projects, one post per change
+	 * whatever {@link #groupReviews(boolean)} says, given by project so that a
+	 * single query can serve the channels following different projects.
+	 */
+	public Multimap<String, Post> getPatchsetsByProject(Collection<String> projects, int nbDays) {
+		Multimap<String, Post> posts = ArrayListMultimap.create();
+		for (PatchSet review : getReadyChanges(projects, nbDays)) {
+			posts.put(review.getProject(), toPost(review));
+		}
+		return posts;
+	}
+
+	/**
+	 * @return the changes of the projects ready for review and updated in the
+	 *         last days, oldest first.
+	 */
+	private List<PatchSet> getReadyChanges(Collection<String> projects, int nbDays) {
 		String prjString = Joiner.on(" OR ").join(Iterables.transform(projects, new Function<String, String>() {
 
 			public String apply(String projectName) {
 				return "project:" + projectName;
 			}
 		}));
-		String query = "status:open AND label:Verified=1 AND -age:" + nbDays + "d AND (" + prjString + ")";
-
-		String urlPath = "/changes/?q=" + query + "&o=DETAILED_ACCOUNTS&o=CURRENT_REVISION";
-		String url = serverURL + urlPath;
-		OkHttpClient client = new OkHttpClient();
-		if (this.username != null && this.password != null) {
-
-			/*
-			 * gerrit rest api uses a prefix in case of authenticated request.
-			 */
-			url = serverURL + "/a" + urlPath;
-			CookieManager cookieManager = new CookieManager();
-			cookieManager.setCookiePolicy(CookiePolicy.ACCEPT_ALL);
-			client.setCookieHandler(cookieManager);
-			Response authResp;
-			try {
-				RequestBody body = new FormEncodingBuilder().add("username", username).add("password", password)
-						.build();
-				authResp = client.newCall(new Request.Builder().url(serverURL + "/login/").post(body).build())
-						.execute();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-
-		}
-		Request request = new Request.Builder().url(url).get().build();
-		Response response = null;
+		String readyQuery = "status:open AND label:Verified=1 AND (" + prjString + ")";
+		OkHttpClient client = openClient();
 		try {
-			response = client.newCall(request).execute();
-			String returnedJson = response.body().string();
-			PatchSet[] recentReviews = gson.fromJson(returnedJson, PatchSet[].class);
+			List<PatchSet> recentReviews;
+			if (snapshotFile != null) {
+				recentReviews = syncSnapshot(client, prjString, readyQuery, nbDays);
+			} else {
+				recentReviews = queryChanges(client, readyQuery + " AND -age:" + nbDays + "d", DETAILS);
+			}
 			List<PatchSet> reviewsToSend = Lists.newArrayList();
 			for (PatchSet review : recentReviews) {
 				if (!review.getSubject().contains("DRAFT")) {
@@ -106,69 +178,164 @@ public class GerritLogger {
 					return m1.getUpdated().compareTo(m2.getUpdated());
 				}
 			});
-			if (reviewsToSend.size() == 1 || !groupReviews) {
-				for (PatchSet review : reviewsToSend) {
-					Post newPost = Post.createPostWithSubject(serverURL + "/" + review.getId(),
-							GitLogger.detectBugzillaLink(review.getSubject()),
-							"ready for review (Validated)\n\n" + "|project|additions| deletions| mergeable | |\n"
-									+ "|-----|---------|----------|----------|-----|\n" + "|" + review.getProject()
-									+ "|" + review.getInsertions() + " | " + review.getDeletions() + "|"
-									+ mergeableText(review) + "| [link](" + serverURL + "/#/c/" + review.get_number()
-									+ ")|",
-							review.getOwner().getName(), GERRIT_ICON, review.getUpdated());
-					newPost.setQuote(false);
-					newPost.mightBeTruncated(false);
-					posts.add(newPost);
-				}
-			} else if (reviewsToSend.size() > 1) {
-
-				List<List<PatchSet>> partitions = Lists.partition(reviewsToSend, 14);
-				for (List<PatchSet> reviews : partitions) {
-					String body = "\n" + "|subject|author|changes| merge ?|   |\n"
-							+ "|-------|:------:|---------|-------|------|----|\n";
-					Set<String> authors = Sets.newLinkedHashSet();
-					Set<String> urls = Sets.newLinkedHashSet();
-					for (PatchSet review : reviews) {
-
-						boolean recentlyUpdated = (new Date().getTime() - review.getUpdated().getTime()) < 24 * 60 * 60
-								* 1000;
-						String reviewKey = serverURL + "/" + review.getId();
-						String mergeable = mergeableText(review);
-
-						if (recentlyUpdated) {
-							body += "| **" + GitLogger.detectBugzillaLink(review.getSubject()) + "** | **"
-									+ review.getOwner().getName() + "** | *+" + review.getInsertions() + "/-"
-									+ review.getDeletions() + "*|" + mergeable + "| [link](" + serverURL + "/#/c/"
-									+ review.get_number() + ")|\n";
-						} else {
-							body += "| " + GitLogger.detectBugzillaLink(review.getSubject()) + " | "
-									+ review.getOwner().getName() + " | *+" + review.getInsertions() + "/-"
-									+ review.getDeletions() + "*|" + mergeable + "| [link](" + serverURL + "/#/c/"
-									+ review.get_number() + ")|\n";
-						}
-						authors.add(review.getOwner().getName());
-						urls.add(reviewKey);
-					}
-					String authorName = Joiner.on(',').join(authors);
-					String postKey = Joiner.on('_').join(urls);
-
-					Post newPost = Post.createPostWithSubject(postKey,
-							"Ready for reviews (" + reviews.size() + "/" + reviewsToSend.size() + ")", body, authorName,
-							GERRIT_ICON, reviews.iterator().next().getUpdated());
-					newPost.setQuote(false);
-					newPost.mightBeTruncated(false);
-					posts.add(newPost);
-				}
+			return reviewsToSend;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
+	/**
+	 * @return the post announcing the given change if it is ready for review,
+	 *         for instance when gerrit notified us it has been updated.
+	 */
+	public Collection<Post> getReadyPatchset(String changeNumber) {
+		if (!changeNumber.matches("\\d+")) {
+			throw new IllegalArgumentException("Invalid change number " + changeNumber);
+		}
+		List<Post> posts = Lists.newArrayList();
+		try {
+			for (PatchSet review : queryChanges(openClient(),
+					"status:open AND label:Verified=1 AND change:" + changeNumber, DETAILS)) {
+				if (!review.getSubject().contains("DRAFT")) {
+					posts.add(toPost(review));
+				}
 			}
-			response.body().close();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-
 		return posts;
 	}
 
+	private Post toPost(PatchSet review) {
+		Post newPost = Post.createPostWithSubject(serverURL + "/" + review.getId(),
+				GitLogger.detectBugzillaLink(review.getSubject()),
+				"ready for review (Validated)\n\n" + "|project|additions| deletions| mergeable | |\n"
+						+ "|-----|---------|----------|----------|-----|\n" + "|" + review.getProject() + "|"
+						+ review.getInsertions() + " | " + review.getDeletions() + "|" + mergeableText(review)
+						+ "| [link](" + serverURL + "/#/c/" + review.get_number() + ")|",
+				review.getOwner().getName(), GERRIT_ICON, review.getUpdated());
+		newPost.setQuote(false);
+		newPost.mightBeTruncated(false);
+		return newPost;
+	}
+
+	/**
+	 * Bring the snapshot of the changes ready for review up to date : only
+	 * the changes updated since the previous synchronization are requested,
+	 * the ones which are not ready anymore are removed from the snapshot.
+	 */
+	private List<PatchSet> syncSnapshot(OkHttpClient client, String prjString, String readyQuery, int nbDays)
+			throws IOException {
+		ChangeSnapshot snapshot = ChangeSnapshot.load(snapshotFile, gson, readyQuery + " " + nbDays);
+		long now = System.currentTimeMillis();
+		if (snapshot == null) {
+			snapshot = new ChangeSnapshot(readyQuery + " " + nbDays);
+			for (PatchSet change : queryChanges(client, readyQuery + " AND -age:" + nbDays + "d", DETAILS)) {
+				snapshot.put(change);
+			}
+		} else {
+			long seconds = (now - snapshot.getLastSync() + SYNC_SLACK_MS) / 1000;
+			for (PatchSet change : queryChanges(client, "-age:" + seconds + "s AND (" + prjString + ")", "")) {
+				snapshot.remove(change.getId());
+			}
+			for (PatchSet change : queryChanges(client, readyQuery + " AND -age:" + seconds + "s", DETAILS)) {
+				snapshot.put(change);
+			}
+			snapshot.evictOlderThan(new Date(now - TimeUnit.DAYS.toMillis(nbDays)));
+		}
+		snapshot.setLastSync(now);
+		snapshot.save(snapshotFile, gson);
+		return snapshot.getChanges();
+	}
+
+	/**
+	 * @return all the changes matching the query, requested page by page.
+	 */
+	private List<PatchSet> queryChanges(OkHttpClient client, String query, String options) throws IOException {
+		List<PatchSet> changes = Lists.newArrayList();
+		boolean moreChanges = true;
+		while (moreChanges) {
+			String url = restURL() + "/changes/?q=" + query + options + "&n=" + PAGE_SIZE + "&S=" + changes.size();
+			Response response = client
+					.newCall(new Request.Builder().url(url).cacheControl(Http.REVALIDATE).get().build()).execute();
+			try (Reader in = response.body().charStream()) {
+				if (!response.isSuccessful()) {
+					throw new IOException(url + " returned " + response.code());
+				}
+				List<PatchSet> page = readChanges(in);
+				changes.addAll(page);
+				moreChanges = page.size() > 0 && page.get(page.size() - 1).isMoreChanges();
+			}
+		}
+		return changes;
+	}
+
+	private List<PatchSet> readChanges(Reader in) throws IOException {
+		List<PatchSet> changes = Lists.newArrayList();
+		JsonReader reader = new JsonReader(skipXSSIPrefix(in));
+		reader.beginArray();
+		while (reader.hasNext()) {
+			changes.add(gson.<PatchSet> fromJson(reader, PatchSet.class));
+		}
+		reader.endArray();
+		return changes;
+	}
+
+	/**
+	 * gerrit starts its JSON responses with a magic line to prevent XSSI.
+	 */
+	private static Reader skipXSSIPrefix(Reader in) throws IOException {
+		PushbackReader reader = new PushbackReader(in, XSSI_PREFIX.length());
+		char[] start = new char[XSSI_PREFIX.length()];
+		int read = 0;
+		int n = 0;
+		while (read < start.length && (n = reader.read(start, read, start.length - read)) != -1) {
+			read += n;
+		}
+		if (read == start.length && XSSI_PREFIX.equals(new String(start))) {
+			int c = reader.read();
+			while (c != -1 && c != '\n') {
+				c = reader.read();
+			}
+		} else {
+			reader.unread(start, 0, read);
+		}
+		return reader;
+	}
+
+	/**
+	 * @return a client logged in gerrit if credentials have been provided.
+	 */
+	private OkHttpClient openClient() {
+		OkHttpClient client = Http.client(serverURL);
+		if (this.username != null && this.password != null) {
+			client = Http.newClient(serverURL);
+			CookieManager cookieManager = new CookieManager();
+			cookieManager.setCookiePolicy(CookiePolicy.ACCEPT_ALL);
+			client.setCookieHandler(cookieManager);
+			try {
+				RequestBody body = new FormEncodingBuilder().add("username", username).add("password", password)
+						.build();
+				client.newCall(new Request.Builder().url(serverURL + "/login/").post(body).build()).execute().body()
+						.close();
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+		return client;
+	}
+
+	private String restURL() {
+		if (this.username != null && this.password != null) {
+			/*
+			 * gerrit rest api uses a prefix in case of authenticated request.
+			 */
+			return serverURL + "/a";
+		}
+		return serverURL;
+	}
+
 	private String mergeableText(PatchSet review) {
 		String mergeable = ":boom:";
 		if (review.isMergeable()) {
@@ -211,7 +378,7 @@ public class GerritLogger {
 		List<PatchSet> patchsets = Lists.newArrayList();
 		Collection<String> potentialIds = findPotentialPatchsetIDs(content);
 		if (potentialIds.size() > 0) {
-			OkHttpClient client = new OkHttpClient();
+			OkHttpClient client = Http.client(serverURL);
 
 			String changeString = Joiner.on(" OR ")
 					.join(Iterables.transform(potentialIds, new Function<String, String>() {
@@ -221,7 +388,7 @@ public class GerritLogger {
 						}
 					}));
 			String url = serverURL + "/changes/?q=" + changeString + "&o=DETAILED_ACCOUNTS&o=CURRENT_REVISION";
-			Request request = new Request.Builder().url(url).get().build();
+			Request request = new Request.Builder().url(url).cacheControl(Http.REVALIDATE).get().build();
 			Response response;
 			try {
 				response = client.newCall(request).execute();
@@ -63,6 +63,15 @@ public class PatchSet {
 
 	private boolean mergeable;
 
+	/**
+	 * set by gerrit on the last change of a page when more are available.
+	 */
+	private boolean _more_changes;
+
+	public boolean isMoreChanges() {
+		return _more_changes;
+	}
+
 	public String getBranch() {
 		return branch;
 	}
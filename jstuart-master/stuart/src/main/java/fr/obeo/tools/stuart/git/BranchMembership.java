@@ -0,0 +1,105 @@
+package fr.obeo.tools.stuart.git;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * The branches containing each of the recent commits of a repository. It is
+ * computed with a single walk from all the branch tips : commits are visited
+ * children first and hand the set of branches they belong to over to their
+ * parents. The walk stops at the first commit older than the horizon, the
+ * cost is linear in the number of recent commits.
+ */
+public class BranchMembership {
+
+	/*
+	 * commit dates are not always consistent with the history (rebase, clock
+	 * skew...), the walk goes a bit further than the requested horizon.
+	 */
+	private static final long HORIZON_SLACK_MS = 24L * 60 * 60 * 1000;
+
+	private List<String> branches = Lists.newArrayList();
+
+	private Map<ObjectId, BitSet> membership = Maps.newHashMap();
+
+	private BranchMembership() {
+	}
+
+	/**
+	 * Compute the branches of every commit more recent than the horizon.
+	 */
+	public static BranchMembership compute(Repository repository, Date horizon) throws IOException {
+		BranchMembership result = new BranchMembership();
+		try (RevWalk walk = new RevWalk(repository)) {
+			walk.sort(RevSort.TOPO);
+			walk.setRevFilter(CommitTimeRevFilter.after(horizon.getTime() - HORIZON_SLACK_MS));
+			Map<String, Ref> heads = repository.getRefDatabase().getRefs(Constants.R_HEADS);
+			for (Ref head : heads.values()) {
+				RevObject tip = walk.parseAny(head.getObjectId());
+				if (tip instanceof RevCommit) {
+					int index = result.branches.size();
+					result.branches.add(head.getName());
+					result.bits(tip).set(index);
+					walk.markStart((RevCommit) tip);
+				}
+			}
+			for (RevCommit commit : walk) {
+				BitSet bits = result.bits(commit);
+				for (RevCommit parent : commit.getParents()) {
+					result.bits(parent).or(bits);
+				}
+			}
+		}
+		return result;
+	}
+
+	private BitSet bits(AnyObjectId commit) {
+		BitSet bits = membership.get(commit);
+		if (bits == null) {
+			bits = new BitSet(branches.size());
+			membership.put(commit.copy(), bits);
+		}
+		return bits;
+	}
+
+	/**
+	 * @return the name of the branches (refs/heads/...) containing the
+	 *         commit, empty if the commit is older than the horizon.
+	 */
+	public Set<String> getBranches(AnyObjectId commit) {
+		BitSet bits = membership.get(commit);
+		if (bits == null) {
+			return Collections.emptySet();
+		}
+		Set<String> result = Sets.newLinkedHashSet();
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			result.add(branches.get(i));
+		}
+		return result;
+	}
+
+	public List<String> getAllBranches() {
+		return branches;
+	}
+
+}
@@ -11,123 +11,221 @@ import java.util.Set;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.api.errors.InvalidRemoteException;
-import org.eclipse.jgit.api.errors.TransportException;
-import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
-import org.eclipse.jgit.lib.TextProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
-import com.google.common.collect.Lists;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
 
 import fr.obeo.tools.stuart.Post;
+import fr.obeo.tools.stuart.Watermarks;
+import fr.obeo.tools.stuart.git.GitMirrors.FetchReport;
 
 public class GitLogger {
 
 	private static final String GIT_ICON = "https://i.imgur.com/nkq5wS9.png";
-	private File cacheFolder;
 
-	private HashFunction cloneFolderName = Hashing.sha256();
+	/*
+	 * commits are selected on their author date but walked on their commit
+	 * date which is usually the same or more recent.
+	 */
+	private static final long COMMIT_TIME_SLACK_MS = 24L * 60 * 60 * 1000;
+	private GitMirrors mirrors;
+
 	private Git repo;
 
+	private Watermarks watermarks;
+
 	public GitLogger(File clonesCacheFolder) {
-		this.cacheFolder = clonesCacheFolder;
+		this(new GitMirrors(clonesCacheFolder));
+	}
+
+	public GitLogger(GitMirrors mirrors) {
+		this.mirrors = mirrors;
+	}
+
+	/**
+	 * Only consider, from one run to the other, the commits which were not
+	 * there the previous time : the tips of the refs are recorded in the
+	 * watermarks once the commits have been retrieved. The watermarks have to
+	 * be saved by the caller once the posts are sent.
+	 */
+	public GitLogger setWatermarks(Watermarks watermarks) {
+		this.watermarks = watermarks;
+		return this;
 	}
 
 	public Collection<Post> getMergedCommits(Date daysAgo, String remoteURL, String webCommitURL) {
-		Collection<RevCommit> allCommits = getAllCommits(remoteURL, true);
+		return getMergedCommits(daysAgo, remoteURL, webCommitURL, true);
+	}
 
+	/**
+	 * Fetch all the remotes at once, see
+	 * {@link GitMirrors#updateAll(Collection)}, and then walk each of them.
+	 *
+	 * @param webCommitURLs
+	 *            the URL of the commits of each remote, up to their id.
+	 * @return the posts by remote, a remote which could not be fetched has
+	 *         none.
+	 */
+	public Multimap<String, Post> getMergedCommits(Date daysAgo, Map<String, String> webCommitURLs) {
+		Multimap<String, Post> posts = LinkedHashMultimap.create();
+		for (FetchReport report : mirrors.updateAll(webCommitURLs.keySet())) {
+			if (report.isSuccessful()) {
+				String remoteURL = report.getRemoteURL();
+				posts.putAll(remoteURL, getMergedCommits(daysAgo, remoteURL, webCommitURLs.get(remoteURL), false));
+			}
+		}
+		return posts;
+	}
+
+	private Collection<Post> getMergedCommits(Date daysAgo, String remoteURL, String webCommitURL, boolean update) {
 		List<Post> posts = new ArrayList<Post>();
-		for (RevCommit commit : allCommits) {
-			PersonIdent authorIdent = commit.getAuthorIdent();
-			Date authorDate = authorIdent.getWhen();
-			if (authorDate.after(daysAgo)) {
-				StringBuffer body = new StringBuffer();
-				boolean first = true;
-				for (String line : Splitter.on('\n').omitEmptyStrings().split(commit.getFullMessage())) {
-					if (line.contains("Change-Id:")) {
-
-					} else if (line.contains("Bug: ")) {
-
-					} else if (line.contains("Signed-off-by:")) {
-
-					} else {
-						if (!first) {
-							body.append(line);
-							body.append('\n');
-						}
-					}
-					first = false;
+		try (RevWalk allCommits = walkCommits(remoteURL, daysAgo, update)) {
+			BranchMembership membership = BranchMembership.compute(repo.getRepository(), daysAgo);
+			for (RevCommit commit : allCommits) {
+				Post newPost = toPost(commit, daysAgo, webCommitURL, membership);
+				if (newPost != null) {
+					posts.add(newPost);
 				}
+			}
+			if (watermarks != null) {
+				putTips(remoteURL);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			close();
+		}
+		return posts;
+	}
 
-				// [some thing] dflgkj,fdlg [sss]
-				// [1248]
-				// [ 1248 ]
-
-				String url = webCommitURL + commit.getId().name();
-				Set<String> branches = Sets.newLinkedHashSet();
-				RevWalk walk = new RevWalk(repo.getRepository());
-				for (Map.Entry<String, Ref> e : repo.getRepository().getAllRefs().entrySet())
-					if (e.getKey().startsWith(Constants.R_HEADS))
-						try {
-							if (walk.isMergedInto(commit, walk.parseCommit(e.getValue().getObjectId()))) {
-								branches.add(e.getValue().getName());
-							}
-						} catch (IOException e1) {
-							// TODO Auto-generated catch block
-							e1.printStackTrace();
-						}
-
-				String title = commit.getShortMessage();
-				if (branches.size() > 0) {
-					title = "[" + Joiner.on(',').join(branches) + "] " + title;
+	private Post toPost(RevCommit commit, Date daysAgo, String webCommitURL, BranchMembership membership) {
+		PersonIdent authorIdent = commit.getAuthorIdent();
+		Date authorDate = authorIdent.getWhen();
+		if (authorDate.after(daysAgo)) {
+			StringBuffer body = new StringBuffer();
+			boolean first = true;
+			for (String line : Splitter.on('\n').omitEmptyStrings().split(commit.getFullMessage())) {
+				if (line.contains("Change-Id:")) {
+
+				} else if (line.contains("Bug: ")) {
+
+				} else if (line.contains("Signed-off-by:")) {
+
+				} else {
+					if (!first) {
+						body.append(line);
+						body.append('\n');
+					}
 				}
-				title = detectBugzillaLink(title);
-				Post newPost = Post.createPostWithSubject(url, title, body.toString(), authorIdent.getName(), GIT_ICON,
-						authorDate);
-				newPost.addURLs(url);
-				posts.add(newPost);
+				first = false;
 			}
-		}
 
-		return posts;
+			// [some thing] dflgkj,fdlg [sss]
+			// [1248]
+			// [ 1248 ]
+
+			String url = webCommitURL + commit.getId().name();
+			Set<String> branches = membership.getBranches(commit);
+
+			String title = commit.getShortMessage();
+			if (branches.size() > 0) {
+				title = "[" + Joiner.on(',').join(branches) + "] " + title;
+			}
+			title = detectBugzillaLink(title);
+			Post newPost = Post.createPostWithSubject(url, title, body.toString(), authorIdent.getName(), GIT_ICON,
+					authorDate);
+			newPost.addURLs(url);
+			return newPost;
+		}
+		return null;
 	}
 
-	public Collection<RevCommit> getAllCommits(String remoteURL, boolean update) {
-		Collection<RevCommit> allCommits = Lists.newArrayList();
-		File cloneDir = new File(
-				this.cacheFolder.getPath() + File.separator + cloneFolderName.hashString(remoteURL, Charsets.UTF_8));
+	/**
+	 * Walk the commits reachable from any ref and committed after the given
+	 * date, most recent first. Commits are parsed as the walk goes, the caller
+	 * has to close the walk and then the logger.
+	 */
+	public RevWalk walkCommits(String remoteURL, Date since, boolean update) {
 		try {
-			Files.createParentDirs(cloneDir);
-			repo = null;
-			TextProgressMonitor monitor = new TextProgressMonitor();
-			if (!cloneDir.exists()) {
-				repo = Git.cloneRepository().setURI(remoteURL).setBare(true).setDirectory(cloneDir)
-						.setProgressMonitor(monitor).call();
-			} else {
-				repo = Git.open(cloneDir);
-				repo.fetch().setProgressMonitor(monitor).call();
+			open(remoteURL, update);
+			Repository repository = repo.getRepository();
+			RevWalk walk = new RevWalk(repository);
+			walk.sort(RevSort.COMMIT_TIME_DESC);
+			walk.setRevFilter(CommitTimeRevFilter.after(since.getTime() - COMMIT_TIME_SLACK_MS));
+			for (Ref ref : repository.getAllRefs().values()) {
+				RevObject tip = walk.peel(walk.parseAny(ref.getObjectId()));
+				if (tip instanceof RevCommit) {
+					walk.markStart((RevCommit) tip);
+				}
 			}
-			allCommits = Lists.newArrayList(repo.log().all().call());
-		} catch (InvalidRemoteException e) {
-			throw new RuntimeException(e);
-		} catch (TransportException e) {
-			throw new RuntimeException(e);
+			if (watermarks != null) {
+				for (String previousTip : getPreviousTips(remoteURL)) {
+					try {
+						walk.markUninteresting(walk.parseCommit(ObjectId.fromString(previousTip)));
+					} catch (MissingObjectException | IncorrectObjectTypeException | IllegalArgumentException e) {
+						/*
+						 * the ref has been rewritten and the commit is gone.
+						 */
+					}
+				}
+			}
+			return walk;
 		} catch (GitAPIException e) {
 			throw new RuntimeException(e);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		return allCommits;
+	}
+
+	private void open(String remoteURL, boolean update) throws GitAPIException, IOException {
+		close();
+		repo = mirrors.open(remoteURL, update);
+	}
+
+	/**
+	 * Close the clone opened by the last walk, the daemon keeps running and
+	 * would otherwise leak its files.
+	 */
+	public void close() {
+		if (repo != null) {
+			repo.close();
+			repo = null;
+		}
+	}
+
+	private Collection<String> getPreviousTips(String remoteURL) {
+		Collection<String> tips = Sets.newLinkedHashSet();
+		for (Ref ref : repo.getRepository().getAllRefs().values()) {
+			String tip = watermarks.get(watermarkKey(remoteURL, ref));
+			if (tip != null) {
+				tips.add(tip);
+			}
+		}
+		return tips;
+	}
+
+	private void putTips(String remoteURL) {
+		for (Ref ref : repo.getRepository().getAllRefs().values()) {
+			watermarks.put(watermarkKey(remoteURL, ref), ref.getObjectId().name());
+		}
+	}
+
+	private static String watermarkKey(String remoteURL, Ref ref) {
+		return remoteURL + " " + ref.getName();
 	}
 
 	public static String detectBugzillaLink(String title) {
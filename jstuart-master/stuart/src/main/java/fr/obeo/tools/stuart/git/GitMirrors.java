@@ -0,0 +1,298 @@
+package fr.obeo.tools.stuart.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Manages the bare clones kept in the cache folder, one per remote. Clones are
+ * created and fetched while holding a lock on the clone, shared by the threads
+ * of the JVM and by the other processes using the same cache folder, so that
+ * two jobs sharing a workspace never write in the same clone at the same
+ * time. A new clone is first created aside and then moved in place.
+ *
+ * Several remotes can be updated concurrently and the clones are garbage
+ * collected once in a while.
+ */
+public class GitMirrors {
+
+	private static Map<String, ReentrantLock> locks = Maps.newConcurrentMap();
+
+	private File cacheFolder;
+
+	private HashFunction cloneFolderName = Hashing.sha256();
+
+	private int nbThreads;
+
+	private long gcPeriodMillis = TimeUnit.DAYS.toMillis(7);
+
+	public GitMirrors(File cacheFolder, int nbThreads) {
+		this.cacheFolder = cacheFolder;
+		this.nbThreads = nbThreads;
+	}
+
+	public GitMirrors(File cacheFolder) {
+		this(cacheFolder, 4);
+	}
+
+	public GitMirrors setGcPeriod(long period, TimeUnit unit) {
+		this.gcPeriodMillis = unit.toMillis(period);
+		return this;
+	}
+
+	public File getCloneDir(String remoteURL) {
+		return new File(
+				this.cacheFolder.getPath() + File.separator + cloneFolderName.hashString(remoteURL, Charsets.UTF_8));
+	}
+
+	/**
+	 * @return the clone of the remote, created if needed and fetched if
+	 *         <code>update</code> is true.
+	 */
+	public Git open(String remoteURL, boolean update) throws IOException, GitAPIException {
+		File cloneDir = getCloneDir(remoteURL);
+		if (update || !cloneDir.exists()) {
+			FetchReport report = update(remoteURL);
+			if (report.error instanceof IOException) {
+				throw (IOException) report.error;
+			} else if (report.error instanceof GitAPIException) {
+				throw (GitAPIException) report.error;
+			} else if (report.error != null) {
+				throw new RuntimeException(report.error);
+			}
+		}
+		return Git.open(cloneDir);
+	}
+
+	/**
+	 * Clone or fetch the remote, never throws : failures are reported.
+	 */
+	public FetchReport update(final String remoteURL) {
+		final FetchReport report = new FetchReport(remoteURL);
+		final File cloneDir = getCloneDir(remoteURL);
+		long start = System.currentTimeMillis();
+		try {
+			locked(cloneDir, new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					long sizeBefore = sizeOf(cloneDir);
+					if (!cloneDir.exists()) {
+						report.cloned = true;
+						cloneAside(remoteURL, cloneDir);
+						touch(gcMarker(cloneDir));
+					} else {
+						try (Git repo = Git.open(cloneDir)) {
+							repo.fetch().setProgressMonitor(NullProgressMonitor.INSTANCE).call();
+							File gcMarker = gcMarker(cloneDir);
+							if (System.currentTimeMillis() - gcMarker.lastModified() > gcPeriodMillis) {
+								repo.gc().call();
+								touch(gcMarker);
+								report.garbageCollected = true;
+							}
+						}
+					}
+					report.bytes = sizeOf(cloneDir) - sizeBefore;
+					return null;
+				}
+			});
+		} catch (Exception e) {
+			report.error = e;
+		}
+		report.durationMillis = System.currentTimeMillis() - start;
+		System.out.println(report);
+		return report;
+	}
+
+	/**
+	 * Clone or fetch all the given remotes, at most <code>nbThreads</code> at
+	 * the same time.
+	 */
+	public List<FetchReport> updateAll(Collection<String> remoteURLs) {
+		ExecutorService executor = Executors.newFixedThreadPool(nbThreads,
+				new ThreadFactoryBuilder().setNameFormat("stuart-git-%d").setDaemon(true).build());
+		try {
+			List<Future<FetchReport>> running = Lists.newArrayList();
+			for (final String remoteURL : remoteURLs) {
+				running.add(executor.submit(new Callable<FetchReport>() {
+
+					@Override
+					public FetchReport call() throws Exception {
+						return update(remoteURL);
+					}
+				}));
+			}
+			List<FetchReport> reports = Lists.newArrayList();
+			for (Future<FetchReport> fetch : running) {
+				try {
+					reports.add(fetch.get());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				} catch (ExecutionException e) {
+					/*
+					 * update() reports its failures, this should not happen.
+					 */
+					throw new RuntimeException(e);
+				}
+			}
+			return reports;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void cloneAside(String remoteURL, File cloneDir) throws GitAPIException, IOException {
+		Files.createParentDirs(cloneDir);
+		File tmp = new File(cloneDir.getPath() + ".tmp");
+		deleteRecursively(tmp);
+		try {
+			Git.cloneRepository().setURI(remoteURL).setBare(true).setDirectory(tmp)
+					.setProgressMonitor(NullProgressMonitor.INSTANCE).call().close();
+			java.nio.file.Files.move(tmp.toPath(), cloneDir.toPath());
+		} finally {
+			deleteRecursively(tmp);
+		}
+	}
+
+	private <T> T locked(File cloneDir, Callable<T> task) throws Exception {
+		ReentrantLock lock = locks.computeIfAbsent(cloneDir.getAbsolutePath(), k -> new ReentrantLock());
+		lock.lock();
+		try {
+			File lockFile = new File(cloneDir.getPath() + ".lock");
+			Files.createParentDirs(lockFile);
+			try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE)) {
+				FileLock fileLock = channel.lock();
+				try {
+					return task.call();
+				} finally {
+					fileLock.release();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static File gcMarker(File cloneDir) {
+		return new File(cloneDir.getPath() + ".gc");
+	}
+
+	private static void touch(File file) throws IOException {
+		Files.touch(file);
+	}
+
+	private static long sizeOf(File file) {
+		if (file.isDirectory()) {
+			long size = 0;
+			File[] children = file.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					size += sizeOf(child);
+				}
+			}
+			return size;
+		}
+		return file.length();
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+
+	public static class FetchReport {
+
+		private String remoteURL;
+
+		private boolean cloned;
+
+		private boolean garbageCollected;
+
+		private long durationMillis;
+
+		private long bytes;
+
+		private Exception error;
+
+		FetchReport(String remoteURL) {
+			this.remoteURL = remoteURL;
+		}
+
+		public String getRemoteURL() {
+			return remoteURL;
+		}
+
+		public boolean isCloned() {
+			return cloned;
+		}
+
+		public boolean isGarbageCollected() {
+			return garbageCollected;
+		}
+
+		public long getDurationMillis() {
+			return durationMillis;
+		}
+
+		/**
+		 * @return how much the clone grew on disk, negative once garbage
+		 *         collected.
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		public Exception getError() {
+			return error;
+		}
+
+		public boolean isSuccessful() {
+			return error == null;
+		}
+
+		@Override
+		public String toString() {
+			String result = "[git] " + remoteURL + (cloned ? " cloned" : " fetched") + " in " + durationMillis
+					+ " ms, " + bytes + " bytes";
+			if (garbageCollected) {
+				result += ", gc";
+			}
+			if (error != null) {
+				result += " FAILED " + error;
+			}
+			return result;
+		}
+	}
+
+}
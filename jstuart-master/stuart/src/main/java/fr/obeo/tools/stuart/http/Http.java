@@ -0,0 +1,192 @@
+package fr.obeo.tools.stuart.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Maps;
+import com.rometools.rome.io.XmlReader;
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.CacheControl;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import fr.obeo.tools.stuart.PostSources;
+
+/**
+ * The HTTP client shared by all the loggers. Connections are pooled and kept
+ * alive between requests, responses are stored in an on-disk cache which is
+ * revalidated with conditional requests (ETag/Last-Modified) so that unchanged
+ * feeds or Jenkins documents are answered by a "304 Not Modified", and
+ * responses are transparently gzipped.
+ *
+ * Every request revalidates the cached response with the server : a feed
+ * which didn't say how long it stays fresh is never served from the cache
+ * without asking the server first.
+ *
+ * There is no cache unless its location is set with the
+ * <code>stuart.http.cache</code> system property or through
+ * {@link #configure(File, long)} before the first request. A cache folder can
+ * only be used by one process at a time, a process finding it in use by
+ * another one runs without cache. Timeouts can be set per host with
+ * {@link #setTimeouts(String, long, long, TimeUnit)}.
+ */
+public class Http {
+
+	private static final long DEFAULT_CACHE_SIZE = 200L * 1024 * 1024;
+
+	private static final long DEFAULT_CONNECT_TIMEOUT_SECONDS = 15;
+
+	private static final long DEFAULT_READ_TIMEOUT_SECONDS = 60;
+
+	/**
+	 * Asks the server whether the cached response is still valid, a
+	 * "304 Not Modified" answer is then served from the cache.
+	 */
+	public static final CacheControl REVALIDATE = new CacheControl.Builder().noCache().build();
+
+	private static File cacheFolder = System.getProperty("stuart.http.cache") != null
+			? new File(System.getProperty("stuart.http.cache")) : null;
+
+	/*
+	 * held as long as the JVM is running, the on-disk cache does not support
+	 * being used by several processes.
+	 */
+	private static FileLock cacheLock;
+
+	private static long cacheSize = DEFAULT_CACHE_SIZE;
+
+	private static OkHttpClient shared;
+
+	private static Map<String, OkHttpClient> clientsByHost = Maps.newConcurrentMap();
+
+	private static Map<String, long[]> timeoutsByHost = Maps.newConcurrentMap();
+
+	/**
+	 * Change the on-disk cache, must be called before the first request.
+	 */
+	public static synchronized void configure(File cacheDirectory, long maxCacheSize) {
+		if (shared != null) {
+			throw new IllegalStateException("The HTTP client is already in use.");
+		}
+		cacheFolder = cacheDirectory;
+		cacheSize = maxCacheSize;
+	}
+
+	public static void setTimeouts(String host, long connectTimeout, long readTimeout, TimeUnit unit) {
+		timeoutsByHost.put(host, new long[] { unit.toMillis(connectTimeout), unit.toMillis(readTimeout) });
+		clientsByHost.remove(host);
+	}
+
+	/**
+	 * @return the shared client.
+	 */
+	public static synchronized OkHttpClient client() {
+		if (shared == null) {
+			shared = new OkHttpClient();
+			shared.setConnectionPool(new ConnectionPool(10, TimeUnit.MINUTES.toMillis(5)));
+			if (cacheFolder != null && lockCacheFolder()) {
+				shared.setCache(new Cache(cacheFolder, cacheSize));
+			}
+			shared.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			shared.setReadTimeout(DEFAULT_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		return shared;
+	}
+
+	private static boolean lockCacheFolder() {
+		try {
+			cacheFolder.mkdirs();
+			FileChannel channel = FileChannel.open(new File(cacheFolder, "lock").toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE);
+			cacheLock = channel.tryLock();
+			if (cacheLock == null) {
+				channel.close();
+				System.err.println(cacheFolder + " is used by another process, running without HTTP cache.");
+				return false;
+			}
+			return true;
+		} catch (IOException e) {
+			System.err.println(cacheFolder + " " + e.getMessage() + ", running without HTTP cache.");
+			return false;
+		}
+	}
+
+	/**
+	 * @return the client to use to request the given URL, it shares the
+	 *         connection pool and cache of the shared client but has the
+	 *         timeouts configured for the host.
+	 */
+	public static OkHttpClient client(String url) {
+		final String host = PostSources.hostOf(url);
+		final long[] timeouts = timeoutsByHost.get(host);
+		if (timeouts == null) {
+			return client();
+		}
+		return clientsByHost.computeIfAbsent(host, h -> {
+			OkHttpClient forHost = client().clone();
+			forHost.setConnectTimeout(timeouts[0], TimeUnit.MILLISECONDS);
+			forHost.setReadTimeout(timeouts[1], TimeUnit.MILLISECONDS);
+			return forHost;
+		});
+	}
+
+	/**
+	 * @return a client which can be customized (cookies, authenticator...)
+	 *         without impacting the others, it still shares the connection pool
+	 *         and cache.
+	 */
+	public static OkHttpClient newClient(String url) {
+		return client(url).clone();
+	}
+
+	public static Response get(String url) throws IOException {
+		Response response = client(url)
+				.newCall(new Request.Builder().url(url).cacheControl(REVALIDATE).get().build()).execute();
+		if (!response.isSuccessful()) {
+			response.body().close();
+			throw new IOException("Unexpected code " + response);
+		}
+		return response;
+	}
+
+	public static String getString(String url) throws IOException {
+		try (ResponseBody body = get(url).body()) {
+			return body.string();
+		}
+	}
+
+	/**
+	 * @return the body of the response, the caller has to close it.
+	 */
+	public static InputStream openStream(String url) throws IOException {
+		return get(url).body().byteStream();
+	}
+
+	/**
+	 * @return a reader for an RSS or Atom feed detecting the encoding the same
+	 *         way rome does when given the URL, the caller has to close it.
+	 */
+	public static XmlReader openFeed(String url) throws IOException {
+		Response response = get(url);
+		try {
+			String contentType = response.header("Content-Type");
+			if (contentType == null) {
+				return new XmlReader(response.body().byteStream(), true);
+			}
+			return new XmlReader(response.body().byteStream(), contentType, true);
+		} catch (IOException e) {
+			response.body().close();
+			throw e;
+		}
+	}
+
+}
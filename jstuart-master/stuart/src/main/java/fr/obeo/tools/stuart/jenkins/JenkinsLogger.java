@@ -4,31 +4,37 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Splitter;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.squareup.okhttp.Authenticator;
 import com.squareup.okhttp.Credentials;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Request.Builder;
 import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
 
 import fr.obeo.tools.stuart.Post;
+import fr.obeo.tools.stuart.Watermarks;
+import fr.obeo.tools.stuart.http.Http;
+import fr.obeo.tools.stuart.jenkins.model.Build;
 import fr.obeo.tools.stuart.jenkins.model.BuildAction;
 import fr.obeo.tools.stuart.jenkins.model.BuildArtifact;
 import fr.obeo.tools.stuart.jenkins.model.BuildAuthor;
@@ -48,6 +54,23 @@ public class JenkinsLogger {
 
 	private static final String JENKINS_ICON = "https://i.imgur.com/OMD63Ns.png";
 
+	/*
+	 * only retrieve what is needed to build the posts, the test reports
+	 * otherwise come with the output and stack traces of every test.
+	 */
+	private static final String BUILD_TREE = "url,number,building,result,timestamp,fullDisplayName,"
+			+ "actions[urlName,totalCount,failCount,skipCount,causes[shortDescription]],culprits[fullName],"
+			+ "changeSet[items[comment]],artifacts[displayPath,relativePath]";
+
+	private static final String REPORT_COUNTS = "duration,failCount,passCount,skipCount,totalCount";
+
+	private static final String REPORT_TREE = REPORT_COUNTS
+			+ ",suites[cases[age,className,duration,failedSince,name,skipped,status]],childReports[child[number,url],result["
+			+ REPORT_COUNTS + "]]";
+
+	private static final ExecutorService REPORTS_EXECUTOR = Executors.newFixedThreadPool(4,
+			new ThreadFactoryBuilder().setNameFormat("stuart-jenkins-%d").setDaemon(true).build());
+
 	private String serverURL;
 	private Gson gson;
 
@@ -57,6 +80,8 @@ public class JenkinsLogger {
 
 	private String password;
 
+	private Watermarks watermarks;
+
 	public JenkinsLogger(String serverURL, Date daysAgo) {
 		this.serverURL = serverURL;
 		gson = new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss").setPrettyPrinting().create();
@@ -68,6 +93,17 @@ public class JenkinsLogger {
 		this.password = password;
 	}
 
+	/**
+	 * Remember the last build number of each job : once a build has been
+	 * considered it is not retrieved anymore, a job is only looked at again
+	 * when it has a new build. The watermarks have to be saved by the caller
+	 * once the posts are sent.
+	 */
+	public JenkinsLogger setWatermarks(Watermarks watermarks) {
+		this.watermarks = watermarks;
+		return this;
+	}
+
 	public Collection<Post> getBuildResults() {
 		return getBuildResults(Sets.<String>newLinkedHashSet(), Predicates.alwaysTrue());
 	}
@@ -78,139 +114,39 @@ public class JenkinsLogger {
 
 	public Collection<Post> getBuildResults(Set<String> alreadySent, Predicate<Job> jobFilter) {
 		List<Post> posts = new ArrayList<Post>();
-		String url = serverURL + "api/json?tree=jobs[name,lastBuild[building,timestamp,url]]";
-		OkHttpClient client = new OkHttpClient();
+		String url = serverURL + "api/json?tree=jobs[name,lastBuild[number,building,timestamp,url]]";
+		OkHttpClient client = Http.client(serverURL);
 
-		Builder requestBuilder = new Request.Builder().url(url).get();
-		if (username != null && password != null) {
-			requestBuilder.header("Authorization", Credentials.basic(username, password));
-		}
-		Request request = requestBuilder.build();
-		Response response = null;
 		try {
-			response = client.newCall(request).execute();
-			String returnedJson = response.body().string();
-			ServerResult recentReviews = gson.fromJson(returnedJson, ServerResult.class);
+			ServerResult recentReviews = getJson(client, url, ServerResult.class);
 			for (Job j : recentReviews.getJobs()) {
-				if (j.getLastBuild() != null && !j.getLastBuild().getUrl().contains("gerrit") && jobFilter.apply(j)) {
-					String jURL = j.getLastBuild().getUrl() + "/api/json";
-
-					Date lastJobTime = new Date(j.getLastBuild().getTimestamp());
-					if (lastJobTime.after(daysAgo)) {
-
-						requestBuilder = new Request.Builder().url(jURL).get();
-						if (username != null && password != null) {
-							requestBuilder.header("Authorization", Credentials.basic(username, password));
-						}
-
-						Response jobResponse = client.newCall(requestBuilder.build()).execute();
-						String jobJson = jobResponse.body().string();
-						BuildResult lastBuild = gson.fromJson(jobJson, BuildResult.class);
+				Build build = j.getLastBuild();
+				if (build != null && !build.getUrl().contains("gerrit") && jobFilter.apply(j)) {
+					String jURL = build.getUrl() + "/api/json?tree=" + BUILD_TREE;
+
+					Date lastJobTime = new Date(build.getTimestamp());
+					/*
+					 * the job list tells us everything we need to skip a build
+					 * before downloading its details and test reports.
+					 */
+					if (lastJobTime.after(daysAgo) && !build.isBuilding() && !alreadySent.contains(build.getUrl())
+							&& !isAlreadySeen(j)) {
+
+						BuildResult lastBuild = getJson(client, jURL, BuildResult.class);
 						String postKey = lastBuild.getUrl();
 						if (!alreadySent.contains(postKey) && !lastBuild.isBuilding()) {
-							boolean manualTrigger = false;
-							int totalCount = 0;
-							int failCount = 0;
-							int skippedCount = 0;
-							boolean hasRecentRegressions = false;
-							String testReportURLName = null;
-
-							String testsResults = "";
-
-							for (BuildAction action : lastBuild.getActions()) {
-								totalCount += action.getTotalCount();
-								failCount += action.getFailCount();
-								skippedCount += action.getSkipCount();
-								if (totalCount > 0) {
-									testReportURLName = action.getUrlName();
-									String rootReportURL = j.getLastBuild().getUrl() + testReportURLName;
-									Request requestXMLTestReport = requestBuilder
-											.url(rootReportURL + "/api/json?pretty=true").get().build();
-									TestReport rootReport = gson.fromJson(
-											client.newCall(requestXMLTestReport).execute().body().charStream(),
-											TestReport.class);
-
-									Map<String, TestReport> reports = allNonEmptyReports(rootReport, rootReportURL);
-									StringBuffer reportString = new StringBuffer();
-
-									reportString.append("failed : " + failCount + "/" + totalCount + " (skipped : "
-											+ skippedCount + ")\n\n");
-									if (failCount > 0) {
-										hasRecentRegressions = hasRecentRegressions
-												|| generatePerTestCaseReport(reports, reportString);
-									}
-									if (reports.entrySet().size() > 0 || failCount == 0) {
-										testsResults = reportString.toString();
-									}
-								}
-								for (BuildCause cause : action.getCauses()) {
-									if (cause.getShortDescription() != null) {
-										manualTrigger = cause.getShortDescription().contains("user")
-												|| cause.getShortDescription().contains("utilisateur");
-									}
-
-								}
-							}
-
-							Collection<String> authors = Sets.newLinkedHashSet();
-							for (BuildAuthor culprit : lastBuild.getCulprits()) {
-								if (culprit.getFullName() != null) {
-									authors.add(culprit.getFullName());
-								}
-							}
-
-							Collection<String> comments = Sets.newLinkedHashSet();
-							for (ChangeSetItem i : lastBuild.getChangeSet().getItems()) {
-								if (i.getComment() != null) {
-									comments.add(
-											Iterables.getFirst(Splitter.on('\n').split(i.getComment()), "no commit"));
-								}
-							}
-
-							String authorTxt = "...";
-							if (authors.size() <= 2 && authors.size() > 0) {
-								authorTxt = Joiner.on(',').join(authors);
-							}
-							if (manualTrigger || hasRecentRegressions) {
-								String body = "";
-								if (hasRecentRegressions || failCount == 0) {
-									body += testsResults + "\n";
-								} else if (comments.size() > 0) {
-									body = Joiner.on('\n').join(comments);
-								}
-								if (lastBuild.getArtifacts().size() > 0) {
-									body += "\nArtifacts:";
-									for (BuildArtifact artifact : lastBuild.getArtifacts()) {
-										body += "\n* [" + artifact.getDisplayPath() + "](" + lastBuild.getUrl()
-												+ "artifact/" + artifact.getRelativePath() + ")";
-									}
-									body += "\n";
-								}
-								String statusIcon = "https://i.imgur.com/LfNQATL.png";
-								if ("UNSTABLE".equals(lastBuild.getResult())) {
-									statusIcon = "https://i.imgur.com/ODJohQh.png";
-								} else if ("STABLE".equals(lastBuild.getResult())) {
-									statusIcon = "https://i.imgur.com/OgGlGdI.png";
-								} else if ("FAILED".equals(lastBuild.getResult())) {
-									statusIcon = "https://i.imgur.com/LfNQATL.png";
-								} else if ("SUCCESS".equals(lastBuild.getResult())) {
-									statusIcon = "https://i.imgur.com/OgGlGdI.png";
-								}
-								Post newPost = Post.createPostWithSubject(postKey,
-										" [![](" + statusIcon + ") " + lastBuild.getFullDisplayName() + "](" + postKey
-												+ ")",
-										body, authorTxt, JENKINS_ICON, new Date(lastBuild.getTimestamp()));
-								newPost.mightBeTruncated(false);
-								newPost.setQuote(false);
+							Post newPost = toPost(client, lastBuild, build.getUrl());
+							if (newPost != null) {
 								posts.add(newPost);
 							}
+							if (watermarks != null) {
+								watermarks.put(watermarkKey(j), build.getNumber());
+							}
 						}
 					}
 				}
 
 			}
-
-			response.body().close();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -218,42 +154,214 @@ public class JenkinsLogger {
 		return posts;
 	}
 
-	private Predicate<TestCase> isRecentRegression = new Predicate<TestCase>() {
-
-		@Override
-		public boolean apply(TestCase input) {
-			return "FAILED".equals(input.getStatus()) || "REGRESSION".equals(input.getStatus()) && input.getAge() < 30;
+	/**
+	 * @return the post telling about the given build, null if it is still
+	 *         running or if there is nothing worth telling about it.
+	 */
+	public Post getBuildResult(String buildURL) {
+		if (!buildURL.endsWith("/")) {
+			buildURL += "/";
 		}
-	};
+		OkHttpClient client = Http.client(serverURL);
+		try {
+			BuildResult build = getJson(client, buildURL + "api/json?tree=" + BUILD_TREE, BuildResult.class);
+			if (build.isBuilding()) {
+				return null;
+			}
+			/*
+			 * the url given by jenkins, as when polling, so that both paths
+			 * produce the same post key.
+			 */
+			return toPost(client, build, build.getUrl() != null ? build.getUrl() : buildURL);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
-	private boolean generatePerTestCaseReport(Map<String, TestReport> reports, StringBuffer out) {
-		Map<TestReport, String> reportToName = Maps.newLinkedHashMap();
+	private Post toPost(OkHttpClient client, BuildResult lastBuild, String buildURL) throws IOException {
+		String postKey = lastBuild.getUrl();
+		boolean manualTrigger = false;
+		int totalCount = 0;
+		int failCount = 0;
+		int skippedCount = 0;
 		boolean hasRecentRegressions = false;
-		Multimap<String, TestReport> testNameToReports = HashMultimap.create();
-		for (Map.Entry<String, TestReport> r : reports.entrySet()) {
-			reportToName.put(r.getValue(), r.getKey());
-			if (r.getValue().getFailCount() > 0) {
-				for (TestSuite suite : r.getValue().getSuites()) {
+		String testReportURLName = null;
+
+		String testsResults = "";
+
+		for (BuildAction action : lastBuild.getActions()) {
+			totalCount += action.getTotalCount();
+			failCount += action.getFailCount();
+			skippedCount += action.getSkipCount();
+			if (action.getTotalCount() > 0) {
+				testReportURLName = action.getUrlName();
+				String rootReportURL = buildURL + testReportURLName;
+				Map<String, TestReport> reports = fetchReports(client, rootReportURL, testReportURLName);
+				StringBuffer reportString = new StringBuffer();
+
+				reportString.append(
+						"failed : " + failCount + "/" + totalCount + " (skipped : " + skippedCount + ")\n\n");
+				if (failCount > 0) {
+					hasRecentRegressions = hasRecentRegressions || generatePerTestCaseReport(reports, reportString);
+				}
+				if (reports.entrySet().size() > 0 || failCount == 0) {
+					testsResults = reportString.toString();
+				}
+			}
+			for (BuildCause cause : action.getCauses()) {
+				if (cause.getShortDescription() != null) {
+					manualTrigger = cause.getShortDescription().contains("user")
+							|| cause.getShortDescription().contains("utilisateur");
+				}
 
-					List<TestCase> casesToDisplay = Lists
-							.newArrayList(Iterables.filter(suite.getCases(), isRecentRegression));
-					if (casesToDisplay.size() > 0) {
-						hasRecentRegressions = true;
-						for (TestCase tCase : casesToDisplay) {
-							String testName = getTestName(tCase);
-							testNameToReports.put(testName, r.getValue());
-						}
+			}
+		}
 
-					}
+		Collection<String> authors = Sets.newLinkedHashSet();
+		for (BuildAuthor culprit : lastBuild.getCulprits()) {
+			if (culprit.getFullName() != null) {
+				authors.add(culprit.getFullName());
+			}
+		}
 
+		Collection<String> comments = Sets.newLinkedHashSet();
+		for (ChangeSetItem i : lastBuild.getChangeSet().getItems()) {
+			if (i.getComment() != null) {
+				comments.add(Iterables.getFirst(Splitter.on('\n').split(i.getComment()), "no commit"));
+			}
+		}
+
+		String authorTxt = "...";
+		if (authors.size() <= 2 && authors.size() > 0) {
+			authorTxt = Joiner.on(',').join(authors);
+		}
+		if (manualTrigger || hasRecentRegressions) {
+			String body = "";
+			if (hasRecentRegressions || failCount == 0) {
+				body += testsResults + "\n";
+			} else if (comments.size() > 0) {
+				body = Joiner.on('\n').join(comments);
+			}
+			if (lastBuild.getArtifacts().size() > 0) {
+				body += "\nArtifacts:";
+				for (BuildArtifact artifact : lastBuild.getArtifacts()) {
+					body += "\n* [" + artifact.getDisplayPath() + "](" + lastBuild.getUrl() + "artifact/"
+							+ artifact.getRelativePath() + ")";
+				}
+				body += "\n";
+			}
+			String statusIcon = "https://i.imgur.com/LfNQATL.png";
+			if ("UNSTABLE".equals(lastBuild.getResult())) {
+				statusIcon = "https://i.imgur.com/ODJohQh.png";
+			} else if ("STABLE".equals(lastBuild.getResult())) {
+				statusIcon = "https://i.imgur.com/OgGlGdI.png";
+			} else if ("FAILED".equals(lastBuild.getResult())) {
+				statusIcon = "https://i.imgur.com/LfNQATL.png";
+			} else if ("SUCCESS".equals(lastBuild.getResult())) {
+				statusIcon = "https://i.imgur.com/OgGlGdI.png";
+			}
+			Post newPost = Post.createPostWithSubject(postKey,
+					" [![](" + statusIcon + ") " + lastBuild.getFullDisplayName() + "](" + postKey + ")", body,
+					authorTxt, JENKINS_ICON, new Date(lastBuild.getTimestamp()));
+			newPost.mightBeTruncated(false);
+			newPost.setQuote(false);
+			return newPost;
+		}
+		return null;
+	}
+
+	private boolean isAlreadySeen(Job j) {
+		return watermarks != null && j.getLastBuild().getNumber() > 0
+				&& j.getLastBuild().getNumber() <= watermarks.getLong(watermarkKey(j), 0);
+	}
+
+	private String watermarkKey(Job j) {
+		return serverURL + "job/" + j.getName();
+	}
+
+	/**
+	 * Retrieve the test reports of a build, a matrix build only lists the
+	 * results of its configurations : their reports are then retrieved in
+	 * parallel.
+	 */
+	private Map<String, TestReport> fetchReports(final OkHttpClient client, String rootReportURL,
+			final String testReportURLName) throws IOException {
+		final String reportQuery = "/api/json?tree=" + REPORT_TREE;
+		TestReport rootReport = getTestReport(client, rootReportURL + reportQuery);
+		Map<String, TestReport> reports = allNonEmptyReports(rootReport, rootReportURL);
+		if (rootReport.getChildReports().size() == 0) {
+			return reports;
+		}
+		Map<String, Future<TestReport>> childReports = Maps.newLinkedHashMap();
+		for (final String childURL : reports.keySet()) {
+			childReports.put(childURL, REPORTS_EXECUTOR.submit(new Callable<TestReport>() {
+
+				@Override
+				public TestReport call() throws Exception {
+					return getTestReport(client, childURL + testReportURLName + reportQuery);
+				}
+			}));
+		}
+		for (Map.Entry<String, Future<TestReport>> childReport : childReports.entrySet()) {
+			try {
+				reports.put(childReport.getKey(), childReport.getValue().get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
 				}
+				throw new RuntimeException(e.getCause());
 			}
 		}
+		return reports;
+	}
+
+	private <T> T getJson(OkHttpClient client, String url, Class<T> type) throws IOException {
+		try (ResponseBody body = get(client, url).body()) {
+			return gson.fromJson(body.charStream(), type);
+		}
+	}
+
+	/**
+	 * The reports are streamed and only keep the recent regressions, the only
+	 * test cases which end up in the posts.
+	 */
+	private TestReport getTestReport(OkHttpClient client, String url) throws IOException {
+		try (ResponseBody body = get(client, url).body()) {
+			return new TestReportReader(isRecentRegression).read(body.charStream());
+		}
+	}
+
+	private Response get(OkHttpClient client, String url) throws IOException {
+		Builder requestBuilder = new Request.Builder().url(url).cacheControl(Http.REVALIDATE).get();
+		if (username != null && password != null) {
+			requestBuilder.header("Authorization", Credentials.basic(username, password));
+		}
+		Response response = client.newCall(requestBuilder.build()).execute();
+		if (!response.isSuccessful()) {
+			response.body().close();
+			throw new IOException("Unexpected code " + response);
+		}
+		return response;
+	}
+
+	private Predicate<TestCase> isRecentRegression = new Predicate<TestCase>() {
+
+		@Override
+		public boolean apply(TestCase input) {
+			return "FAILED".equals(input.getStatus()) || "REGRESSION".equals(input.getStatus()) && input.getAge() < 30;
+		}
+	};
+
+	private boolean generatePerTestCaseReport(Map<String, TestReport> reports, StringBuffer out) {
+		TestResultIndex index = new TestResultIndex(reports, isRecentRegression);
+		boolean hasRecentRegressions = !index.isEmpty();
 
 		out.append("| Test");
-		Collection<TestReport> reportsWithFailures = Sets.newLinkedHashSet(testNameToReports.values());
-		for (TestReport r : reportsWithFailures) {
-			String reportURL = reportToName.get(r);
+		Collection<String> reportsWithFailures = index.getReportsWithFailures();
+		for (String reportURL : reportsWithFailures) {
 			String name = reportURL.substring(reportURL.indexOf("./") + 2);
 			if (name.indexOf("PLATFORM=") != -1) {
 				name = name.substring(name.indexOf("PLATFORM=") + 9);
@@ -270,25 +378,21 @@ public class JenkinsLogger {
 		}
 		out.append("|\n");
 		out.append("|----------");
-		for (int i = 0; i < reports.entrySet().size(); i++) {
+		for (int i = 0; i < reportsWithFailures.size(); i++) {
 			out.append("|--------");
 		}
 		out.append("|\n");
 		int nb = 0;
-		for (String testName : testNameToReports.keySet()) {
-			if (nb < 20) {
-				Collection<TestReport> configWhereItFails = testNameToReports.get(testName);
+		for (String testName : index.getTestNames()) {
+			if (nb < MAX_FAILED_TESTS) {
+				List<TestCase> cells = Lists.newArrayListWithCapacity(reportsWithFailures.size());
 				boolean hasRecentFailure = false;
-				for (TestReport r : reportsWithFailures) {
-					if (configWhereItFails.contains(r)) {
-						TestCase tCase = findTestCaseFromName(testName, r);
-						if (tCase != null) {
-							if (tCase.getAge() <= 10) {
-								hasRecentFailure = true;
-							}
-
-						}
+				for (String reportURL : reportsWithFailures) {
+					TestCase tCase = index.get(testName, reportURL);
+					if (tCase != null && tCase.getAge() <= 10) {
+						hasRecentFailure = true;
 					}
+					cells.add(tCase);
 				}
 				if (hasRecentFailure) {
 					out.append("|**" + testName + "**");
@@ -296,20 +400,15 @@ public class JenkinsLogger {
 					out.append("|" + testName);
 				}
 
-				for (TestReport r : reportsWithFailures) {
-					if (configWhereItFails.contains(r)) {
+				for (TestCase tCase : cells) {
+					if (tCase != null) {
 						out.append("|");
-						TestCase tCase = findTestCaseFromName(testName, r);
-						if (tCase != null) {
-							if (hasRecentFailure) {
-								out.append("**");
-							}
-							out.append(tCase.getAge());
-							if (hasRecentFailure) {
-								out.append("**");
-							}
-						} else {
-							out.append('X');
+						if (hasRecentFailure) {
+							out.append("**");
+						}
+						out.append(tCase.getAge());
+						if (hasRecentFailure) {
+							out.append("**");
 						}
 					} else {
 						out.append("| ");
@@ -325,32 +424,6 @@ public class JenkinsLogger {
 		return hasRecentRegressions;
 	}
 
-	private TestCase findTestCaseFromName(String testName, TestReport r) {
-		TestCase found = null;
-		Iterator<TestSuite> it = r.getSuites().iterator();
-		while (found == null && it.hasNext()) {
-			TestSuite s = it.next();
-			Iterator<TestCase> itC = s.getCases().iterator();
-			while (found == null && itC.hasNext()) {
-				TestCase c = itC.next();
-				if (testName.equals(getTestName(c))) {
-					found = c;
-				}
-
-			}
-		}
-		return found;
-	}
-
-	private String getTestName(TestCase tCase) {
-		String className = tCase.getClassName();
-		if (className.lastIndexOf(".") != -1) {
-			className = className.substring(className.lastIndexOf(".") + 1);
-		}
-		String testName = className + "." + tCase.getName();
-		return testName;
-	}
-
 	private boolean generatePerConfigurationReport(Map<String, TestReport> reports, StringBuffer out) {
 		boolean hasRecentRegressions = false;
 		out.append("| Configuration        | Duration  | All  | Failed | Skipped | Age |\n");
@@ -366,7 +439,7 @@ public class JenkinsLogger {
 					if (casesToDisplay.size() > 0) {
 						hasRecentRegressions = true;
 						for (TestCase tCase : casesToDisplay) {
-							String testName = getTestName(tCase);
+							String testName = TestResultIndex.getTestName(tCase);
 							if (tCase.getAge() <= 2) {
 								out.append("|**" + testName + "**|" + Math.round(tCase.getDuration()) + " sec | " + " "
 										+ "|" + " " + "|" + " " + "|**" + tCase.getAge() + "**|\n");
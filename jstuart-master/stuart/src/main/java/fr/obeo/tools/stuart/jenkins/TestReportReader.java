@@ -0,0 +1,134 @@
+package fr.obeo.tools.stuart.jenkins;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collection;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import fr.obeo.tools.stuart.jenkins.model.testResults.ChildReport;
+import fr.obeo.tools.stuart.jenkins.model.testResults.ChildReportDetail;
+import fr.obeo.tools.stuart.jenkins.model.testResults.TestCase;
+import fr.obeo.tools.stuart.jenkins.model.testResults.TestReport;
+import fr.obeo.tools.stuart.jenkins.model.testResults.TestSuite;
+
+/**
+ * Reads a Jenkins test report as it is streamed from the server. Test cases are
+ * decoded one at a time and only the ones accepted by the filter are kept, a
+ * report with tens of thousands of passing tests is never fully loaded in
+ * memory.
+ */
+public class TestReportReader {
+
+	private Gson gson = new Gson();
+
+	private Predicate<TestCase> casesToKeep;
+
+	public TestReportReader(Predicate<TestCase> casesToKeep) {
+		this.casesToKeep = casesToKeep;
+	}
+
+	public TestReport read(Reader in) throws IOException {
+		JsonReader reader = new JsonReader(in);
+		reader.setLenient(true);
+		TestReport report = readReport(reader);
+		if (report == null) {
+			return new TestReport();
+		}
+		return report;
+	}
+
+	private TestReport readReport(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		TestReport report = new TestReport();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (reader.peek() == JsonToken.NULL) {
+				reader.skipValue();
+			} else if ("childReports".equals(name)) {
+				report.setChildReports(readChildReports(reader));
+			} else if ("suites".equals(name)) {
+				report.setSuites(readSuites(reader));
+			} else if ("duration".equals(name)) {
+				report.setDuration((float) reader.nextDouble());
+			} else if ("failCount".equals(name)) {
+				report.setFailCount(reader.nextInt());
+			} else if ("passCount".equals(name)) {
+				report.setPassCount(reader.nextInt());
+			} else if ("skipCount".equals(name)) {
+				report.setSkipCount(reader.nextInt());
+			} else if ("totalCount".equals(name)) {
+				report.setTotalCount(reader.nextInt());
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return report;
+	}
+
+	private Collection<ChildReport> readChildReports(JsonReader reader) throws IOException {
+		Collection<ChildReport> childReports = Lists.newArrayList();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			ChildReport childReport = new ChildReport();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if ("child".equals(name)) {
+					childReport.setChild(gson.<ChildReportDetail>fromJson(reader, ChildReportDetail.class));
+				} else if ("result".equals(name)) {
+					childReport.setResult(readReport(reader));
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			if (childReport.getResult() == null) {
+				childReport.setResult(new TestReport());
+			}
+			childReports.add(childReport);
+		}
+		reader.endArray();
+		return childReports;
+	}
+
+	private Collection<TestSuite> readSuites(JsonReader reader) throws IOException {
+		Collection<TestSuite> suites = Lists.newArrayList();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			TestSuite suite = new TestSuite();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if ("cases".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						TestCase tCase = gson.fromJson(reader, TestCase.class);
+						if (tCase != null && casesToKeep.apply(tCase)) {
+							suite.getCases().add(tCase);
+						}
+					}
+					reader.endArray();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			if (suite.getCases().size() > 0) {
+				suites.add(suite);
+			}
+		}
+		reader.endArray();
+		return suites;
+	}
+
+}
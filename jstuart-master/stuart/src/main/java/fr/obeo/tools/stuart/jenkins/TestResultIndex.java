@@ -0,0 +1,87 @@
+package fr.obeo.tools.stuart.jenkins;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import fr.obeo.tools.stuart.jenkins.model.testResults.TestCase;
+import fr.obeo.tools.stuart.jenkins.model.testResults.TestReport;
+import fr.obeo.tools.stuart.jenkins.model.testResults.TestSuite;
+
+/**
+ * The failing test cases of a build, indexed by test name and then by report
+ * (one report per configuration of a matrix build). It is built in a single
+ * pass over the reports.
+ */
+public class TestResultIndex {
+
+	private Map<String, Map<String, TestCase>> casesByTestName = Maps.newLinkedHashMap();
+
+	private Set<String> reportsWithFailures = Sets.newLinkedHashSet();
+
+	public TestResultIndex(Map<String, TestReport> reports, Predicate<TestCase> casesToIndex) {
+		for (Map.Entry<String, TestReport> r : reports.entrySet()) {
+			if (r.getValue().getFailCount() > 0) {
+				for (TestSuite suite : r.getValue().getSuites()) {
+					for (TestCase tCase : suite.getCases()) {
+						if (casesToIndex.apply(tCase)) {
+							index(getTestName(tCase), r.getKey(), tCase);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private void index(String testName, String reportURL, TestCase tCase) {
+		Map<String, TestCase> byReport = casesByTestName.get(testName);
+		if (byReport == null) {
+			byReport = Maps.newLinkedHashMap();
+			casesByTestName.put(testName, byReport);
+		}
+		if (!byReport.containsKey(reportURL)) {
+			byReport.put(reportURL, tCase);
+		}
+		reportsWithFailures.add(reportURL);
+	}
+
+	public boolean isEmpty() {
+		return casesByTestName.isEmpty();
+	}
+
+	public Set<String> getTestNames() {
+		return casesByTestName.keySet();
+	}
+
+	/**
+	 * @return the URL of the reports having at least one indexed test case.
+	 */
+	public Set<String> getReportsWithFailures() {
+		return reportsWithFailures;
+	}
+
+	/**
+	 * @return the test case in the given report, null if it did not fail
+	 *         there.
+	 */
+	public TestCase get(String testName, String reportURL) {
+		Map<String, TestCase> byReport = casesByTestName.get(testName);
+		if (byReport != null) {
+			return byReport.get(reportURL);
+		}
+		return null;
+	}
+
+	public static String getTestName(TestCase tCase) {
+		String className = tCase.getClassName();
+		if (className.lastIndexOf(".") != -1) {
+			className = className.substring(className.lastIndexOf(".") + 1);
+		}
+		String testName = className + "." + tCase.getName();
+		return testName;
+	}
+
+}
@@ -4,19 +4,29 @@ public class Build {
 
 	private boolean building = false;
 
+	private int number;
+
 	public boolean isBuilding() {
 		return building;
 	}
 
 	@Override
 	public String toString() {
-		return "Build [building=" + building + ", timestamp=" + timestamp + ", url=" + url + "]";
+		return "Build [building=" + building + ", number=" + number + ", timestamp=" + timestamp + ", url=" + url + "]";
 	}
 
 	public void setBuilding(boolean building) {
 		this.building = building;
 	}
 
+	public int getNumber() {
+		return number;
+	}
+
+	public void setNumber(int number) {
+		this.number = number;
+	}
+
 	public long getTimestamp() {
 		return timestamp;
 	}
@@ -8,7 +8,9 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Deque;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 import com.atlassian.jira.rest.client.api.JiraRestClient;
@@ -17,21 +19,31 @@ import com.atlassian.jira.rest.client.api.domain.Comment;
 import com.atlassian.jira.rest.client.api.domain.Issue;
 import com.atlassian.jira.rest.client.api.domain.SearchResult;
 import com.atlassian.jira.rest.client.internal.async.AsynchronousJiraRestClientFactory;
+import com.atlassian.util.concurrent.Promise;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import fr.obeo.tools.stuart.Post;
 
 public class JiraLogger {
 	private static final String BUG_ICON = "http://i.imgur.com/3lCiRbW.png";
+	private static final int PAGE_SIZE = 100;
+	private static final Set<String> SEARCH_FIELDS = Sets.newHashSet("*navigable", "comment");
 	private String baseURL = "https://support.jira.obeo.fr/";
 
 	private String username;
 
 	private String password;
 
+	private JiraRestClient jira;
+
+	private int maxInFlight = 8;
+
+	private boolean reuseClient = false;
+
 	public JiraLogger() {
 	}
 
@@ -42,12 +54,46 @@ public class JiraLogger {
 	public void setAuth(String username, String password) {
 		this.username = username;
 		this.password = password;
+		close();
 	}
 
-	public Collection<Post> jiraLog(int nbDaysAgo, Collection<String> projects) throws MalformedURLException {
-		List<Post> posts = new ArrayList<Post>();
-		JiraRestClient jira = null;
-		try {
+	/**
+	 * @param maxInFlight
+	 *            the maximum number of issues retrieved at the same time when
+	 *            the search does not give their comments.
+	 */
+	public JiraLogger setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+		return this;
+	}
+
+	/**
+	 * Keep the client from one call to {@link #jiraLog(int, Collection)} to
+	 * the other instead of closing it after each call, {@link #close()} then
+	 * has to be called once the logger is not needed anymore.
+	 */
+	public JiraLogger setReuseClient(boolean reuseClient) {
+		this.reuseClient = reuseClient;
+		return this;
+	}
+
+	/**
+	 * Release the client, only needed when it is reused from one call to the
+	 * other.
+	 */
+	public synchronized void close() {
+		if (jira != null) {
+			try {
+				jira.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			jira = null;
+		}
+	}
+
+	private synchronized JiraRestClient getClient() throws URISyntaxException {
+		if (jira == null) {
 			JiraRestClientFactory restClientFactory = new AsynchronousJiraRestClientFactory();
 			URI uri = new URI(baseURL);
 			if (username != null && password != null) {
@@ -55,6 +101,14 @@ public class JiraLogger {
 			} else {
 				jira = restClientFactory.createWithBasicHttpAuthentication(uri, "anonymous", "nopass");
 			}
+		}
+		return jira;
+	}
+
+	public Collection<Post> jiraLog(int nbDaysAgo, Collection<String> projects) throws MalformedURLException {
+		List<Post> posts = new ArrayList<Post>();
+		try {
+			JiraRestClient jira = getClient();
 
 			String projectsQL = "("
 					+ Joiner.on(" OR ").join(Iterables.transform(projects, new Function<String, String>() {
@@ -65,37 +119,50 @@ public class JiraLogger {
 						}
 					})) + " )";
 			String jql = projectsQL + " AND updated>=-" + nbDaysAgo + "d ORDER BY updated DESC";
-			SearchResult r = jira.getSearchClient().searchJql(jql).get();
 			Calendar cal = Calendar.getInstance();
 			cal.add(Calendar.DATE, -nbDaysAgo);
 			Date daysAgo = cal.getTime();
-			for (Issue lightIssue : r.getIssues()) {
-				/*
-				 * for some reasons I don't get comments when using the search
-				 * API and has to retrieve each issue explicitely.
-				 */
-				Issue i = jira.getIssueClient().getIssue(lightIssue.getKey()).get();
-				String issueURL = baseURL + "browse/" + i.getKey();
-
-				if (!i.getComments().iterator().hasNext()) {
-					if (i.getCreationDate().toDate().after(daysAgo)) {
-						posts.add(Post.createPostWithSubject(issueURL,
-								"[[" + i.getKey() + "](" + i.getSelf() + ")] " + i.getSummary(), "Has been created",
-								i.getReporter().getName(), BUG_ICON, i.getCreationDate().toDate()).addURLs(issueURL));
+
+			/*
+			 * the comments are not part of the fields the search returns by
+			 * default, we ask for them so that a single request gives a whole
+			 * page of issues.
+			 */
+			List<Issue> issues = Lists.newArrayList();
+			int startAt = 0;
+			int total = 1;
+			while (startAt < total) {
+				SearchResult r = jira.getSearchClient().searchJql(jql, PAGE_SIZE, startAt, SEARCH_FIELDS).get();
+				int nbIssues = Iterables.size(r.getIssues());
+				Iterables.addAll(issues, r.getIssues());
+				total = r.getTotal();
+				if (nbIssues == 0) {
+					break;
+				}
+				startAt += nbIssues;
+			}
+
+			/*
+			 * an issue updated lately without any comment might be one the
+			 * server did not give the comments of, those are retrieved
+			 * explicitely but without waiting for one before requesting the
+			 * next.
+			 */
+			Deque<Promise<Issue>> inFlight = Lists.newLinkedList();
+			for (Issue lightIssue : issues) {
+				if (!lightIssue.getComments().iterator().hasNext()
+						&& !lightIssue.getCreationDate().toDate().after(daysAgo)) {
+					if (inFlight.size() >= maxInFlight) {
+						toPosts(inFlight.removeFirst().get(), daysAgo, posts);
 					}
+					inFlight.add(jira.getIssueClient().getIssue(lightIssue.getKey()));
 				} else {
-					for (Comment c : i.getComments()) {
-						if (c.getCreationDate().toDate().after(daysAgo)) {
-							String commentURL = issueURL + "?focusedCommentId=" + c.getId();
-							posts.add(Post
-									.createPostWithSubject(commentURL,
-											"[[" + i.getKey() + "](" + commentURL + ")] " + i.getSummary(), c.getBody(),
-											c.getAuthor().getName(), BUG_ICON, c.getCreationDate().toDate())
-									.addURLs(commentURL));
-						}
-					}
+					toPosts(lightIssue, daysAgo, posts);
 				}
 			}
+			while (!inFlight.isEmpty()) {
+				toPosts(inFlight.removeFirst().get(), daysAgo, posts);
+			}
 
 		} catch (URISyntaxException e) {
 			// TODO Auto-generated catch block
@@ -104,20 +171,42 @@ public class JiraLogger {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		} catch (ExecutionException e) {
-			// TODO Auto-generated catch block
+			/*
+			 * the client might be in a bad state, a new one will be created
+			 * on the next run.
+			 */
 			e.printStackTrace();
+			close();
 		} finally {
-			if (jira != null) {
-				try {
-					jira.close();
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+			if (!reuseClient) {
+				close();
 			}
 		}
 
 		return posts;
 	}
 
+	private void toPosts(Issue i, Date daysAgo, List<Post> posts) {
+		String issueURL = baseURL + "browse/" + i.getKey();
+
+		if (!i.getComments().iterator().hasNext()) {
+			if (i.getCreationDate().toDate().after(daysAgo)) {
+				posts.add(Post.createPostWithSubject(issueURL,
+						"[[" + i.getKey() + "](" + i.getSelf() + ")] " + i.getSummary(), "Has been created",
+						i.getReporter().getName(), BUG_ICON, i.getCreationDate().toDate()).addURLs(issueURL));
+			}
+		} else {
+			for (Comment c : i.getComments()) {
+				if (c.getCreationDate().toDate().after(daysAgo)) {
+					String commentURL = issueURL + "?focusedCommentId=" + c.getId();
+					posts.add(Post
+							.createPostWithSubject(commentURL,
+									"[[" + i.getKey() + "](" + commentURL + ")] " + i.getSummary(), c.getBody(),
+									c.getAuthor().getName(), BUG_ICON, c.getCreationDate().toDate())
+							.addURLs(commentURL));
+				}
+			}
+		}
+	}
+
 }
@@ -0,0 +1,174 @@
+package fr.obeo.tools.stuart.mattermost;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.squareup.okhttp.Response;
+
+import fr.obeo.tools.stuart.MattermostPost;
+
+/**
+ * Sends posts to a mattermost webhook from a background thread. Posts are
+ * queued in a bounded queue (callers block when it is full), sent in order
+ * over the connection pool of the wrapped {@link MattermostEmitter} and
+ * throttled by a rate limiter instead of fixed sleeps. A "429 Too Many
+ * Requests" answer is retried after the delay given by the server.
+ *
+ * Each submitted post gets a future which completes once mattermost confirmed
+ * the delivery, which is the right time to record it in the trace.
+ */
+public class AsyncMattermostEmitter {
+
+	private static final int MAX_RETRIES = 5;
+
+	private static final long DEFAULT_RETRY_DELAY_MS = 1000;
+
+	private MattermostEmitter emitter;
+
+	private BlockingQueue<PendingPost> queue;
+
+	private RateLimiter rateLimiter;
+
+	private Thread sender;
+
+	private volatile boolean closed = false;
+
+	public AsyncMattermostEmitter(MattermostEmitter emitter, int queueCapacity, double postsPerSecond) {
+		this.emitter = emitter;
+		this.queue = new LinkedBlockingQueue<PendingPost>(queueCapacity);
+		this.rateLimiter = RateLimiter.create(postsPerSecond);
+		this.sender = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				sendLoop();
+			}
+		}, "stuart-emitter");
+		this.sender.setDaemon(true);
+		this.sender.start();
+	}
+
+	public AsyncMattermostEmitter(MattermostEmitter emitter) {
+		this(emitter, 100, 2);
+	}
+
+	/**
+	 * Queue a post, blocking if too many posts are already waiting.
+	 *
+	 * @return a future completed when the post has been delivered.
+	 */
+	public CompletableFuture<MattermostPost> submit(MattermostPost post) throws InterruptedException {
+		if (closed) {
+			throw new IllegalStateException("The emitter has been closed.");
+		}
+		PendingPost pending = new PendingPost(post);
+		queue.put(pending);
+		if (!sender.isAlive() && queue.remove(pending)) {
+			pending.delivered.completeExceptionally(new IllegalStateException("The emitter has been stopped."));
+		}
+		return pending.delivered;
+	}
+
+	/**
+	 * Stop accepting new posts and wait for the queued ones to be sent.
+	 */
+	public void close() throws InterruptedException {
+		closed = true;
+		sender.join();
+	}
+
+	private void sendLoop() {
+		while (!closed || !queue.isEmpty()) {
+			PendingPost pending = null;
+			try {
+				pending = queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failQueued(e);
+				return;
+			}
+			if (pending != null) {
+				try {
+					for (MattermostPost part : emitter.split(pending.post)) {
+						deliver(part);
+					}
+					pending.delivered.complete(pending.post);
+				} catch (InterruptedException e) {
+					pending.delivered.completeExceptionally(e);
+					Thread.currentThread().interrupt();
+					failQueued(e);
+					return;
+				} catch (IOException | RuntimeException e) {
+					System.out.println("Message was length:" + pending.post.getText().length() + "\n" + pending.post);
+					pending.delivered.completeExceptionally(e);
+				}
+			}
+		}
+	}
+
+	/*
+	 * the sender is stopping : nothing will be sent anymore, the posts still
+	 * queued are failed so that nobody waits for them.
+	 */
+	private void failQueued(Exception cause) {
+		closed = true;
+		PendingPost pending = queue.poll();
+		while (pending != null) {
+			pending.delivered.completeExceptionally(cause);
+			pending = queue.poll();
+		}
+	}
+
+	private void deliver(MattermostPost part) throws IOException, InterruptedException {
+		int attempt = 0;
+		while (true) {
+			rateLimiter.acquire();
+			Response response = emitter.execute(part);
+			try {
+				if (response.isSuccessful()) {
+					return;
+				}
+				if (response.code() == 429 && attempt < MAX_RETRIES) {
+					long delay = retryDelay(response, attempt);
+					System.err.println("Throttled by mattermost, retrying in " + delay + " ms");
+					Thread.sleep(delay);
+					attempt++;
+				} else {
+					throw new IOException("Unexpected code " + response);
+				}
+			} finally {
+				response.body().close();
+			}
+		}
+	}
+
+	private long retryDelay(Response response, int attempt) {
+		String retryAfter = response.header("Retry-After");
+		if (retryAfter != null) {
+			try {
+				return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+			} catch (NumberFormatException e) {
+				/*
+				 * an HTTP date, we fallback on our own backoff.
+				 */
+			}
+		}
+		return DEFAULT_RETRY_DELAY_MS << attempt;
+	}
+
+	private static class PendingPost {
+
+		private MattermostPost post;
+
+		private CompletableFuture<MattermostPost> delivered = new CompletableFuture<MattermostPost>();
+
+		PendingPost(MattermostPost post) {
+			this.post = post;
+		}
+	}
+
+}
@@ -0,0 +1,266 @@
+package fr.obeo.tools.stuart.mattermost;
+
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import fr.obeo.tools.stuart.MattermostPost;
+import fr.obeo.tools.stuart.Post;
+
+/**
+ * Sends the posts of a channel as a few summary messages instead of one
+ * message per post. The posts of a same thread (or having the same subject,
+ * like the comments of a bug) and of a same source are grouped as long as
+ * they are close enough in time, each group is rendered as a title followed
+ * by a line per post, and the groups are packed in messages as big as
+ * mattermost accepts them. A group too big for a message goes on in the next
+ * one.
+ *
+ * Every post is recorded in the trace once the message it is part of has been
+ * sent, the polling jobs then never send it again.
+ */
+public class DigestEmitter {
+
+	/**
+	 * mattermost refuses messages of more than 4000 characters.
+	 */
+	private static final int MAX_MESSAGE_LENGTH = 3900;
+
+	private static final int MAX_EXCERPT_LENGTH = 120;
+
+	private static final Pattern LINK_TARGET = Pattern.compile("\\]\\([^)]*\\)");
+
+	private MattermostEmitter emitter;
+
+	private long windowMillis = TimeUnit.HOURS.toMillis(12);
+
+	private String username = "Stuart";
+
+	private String iconURL;
+
+	public DigestEmitter(MattermostEmitter emitter) {
+		this.emitter = emitter;
+	}
+
+	/**
+	 * Posts of a same thread are only grouped if they are created within the
+	 * given duration.
+	 */
+	public DigestEmitter setWindow(long duration, TimeUnit unit) {
+		this.windowMillis = unit.toMillis(duration);
+		return this;
+	}
+
+	/**
+	 * The author of the messages mixing posts of several authors.
+	 */
+	public DigestEmitter setAuthor(String username, String iconURL) {
+		this.username = username;
+		this.iconURL = iconURL;
+		return this;
+	}
+
+	/**
+	 * Send the posts which are not in the trace yet.
+	 *
+	 * @return the number of messages sent.
+	 */
+	public int send(Collection<Post> posts, Map<String, Date> trace) {
+		int nbMessages = 0;
+		List<Group> message = Lists.newArrayList();
+		int length = 0;
+		List<Group> groups = group(posts, trace);
+		for (int i = 0; i < groups.size(); i++) {
+			Group group = groups.get(i);
+			String block = group.render();
+			Group rest = group.splitUnrendered();
+			if (rest != null) {
+				groups.add(i + 1, rest);
+			}
+			if (length > 0 && length + block.length() > MAX_MESSAGE_LENGTH) {
+				nbMessages += emit(message, trace);
+				message.clear();
+				length = 0;
+			}
+			message.add(group);
+			length += block.length();
+		}
+		if (message.size() > 0) {
+			nbMessages += emit(message, trace);
+		}
+		return nbMessages;
+	}
+
+	private List<Group> group(Collection<Post> posts, Map<String, Date> trace) {
+		List<Post> sorted = Lists.newArrayList();
+		for (Post post : posts) {
+			if (!trace.containsKey(post.getKey())) {
+				sorted.add(post);
+			}
+		}
+		Collections.sort(sorted, new Comparator<Post>() {
+			public int compare(Post m1, Post m2) {
+				return m1.getCreatedAt().compareTo(m2.getCreatedAt());
+			}
+		});
+		List<Group> groups = Lists.newArrayList();
+		Map<String, Group> openGroups = Maps.newHashMap();
+		for (Post post : sorted) {
+			String key = post.getIconURL() + "|" + threadOf(post);
+			Group group = openGroups.get(key);
+			if (group == null || post.getCreatedAt().getTime() - group.start > windowMillis) {
+				group = new Group(post.getCreatedAt().getTime());
+				openGroups.put(key, group);
+				groups.add(group);
+			}
+			group.posts.add(post);
+		}
+		return groups;
+	}
+
+	/**
+	 * The thread id when the source knows it, the subject otherwise. The
+	 * targets of the links of the subject are left out as they often point to
+	 * the post itself (a comment of a bug for instance).
+	 */
+	private static String threadOf(Post post) {
+		if (post.getThreadID() != null) {
+			return post.getThreadID();
+		}
+		if (post.getSubject() != null) {
+			return LINK_TARGET.matcher(post.getSubject()).replaceAll("]");
+		}
+		return post.getKey();
+	}
+
+	private int emit(List<Group> groups, Map<String, Date> trace) {
+		StringBuffer text = new StringBuffer();
+		Post first = groups.get(0).posts.get(0);
+		boolean singleAuthor = true;
+		for (Group group : groups) {
+			text.append(group.render());
+			for (Post post : group.posts) {
+				singleAuthor = singleAuthor && Objects.equal(first.getAuthor(), post.getAuthor());
+			}
+		}
+		MattermostPost message = new MattermostPost(text.toString(), username, iconURL);
+		if (singleAuthor) {
+			message = new MattermostPost(text.toString(), first.getAuthor(), first.getIconURL());
+		}
+		try {
+			emitter.accept(message);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			return 0;
+		}
+		Date now = new Date();
+		for (Group group : groups) {
+			for (Post post : group.posts) {
+				trace.put(post.getKey(), now);
+			}
+		}
+		return 1;
+	}
+
+	private static class Group {
+
+		private long start;
+
+		private List<Post> posts = Lists.newArrayList();
+
+		private String rendered;
+
+		private int nbRendered;
+
+		Group(long start) {
+			this.start = start;
+		}
+
+		/**
+		 * @return a title and a line for each post, as many of them as fit in
+		 *         a single message.
+		 */
+		String render() {
+			if (rendered == null) {
+				Post first = posts.get(0);
+				String title = "##### "
+						+ (first.getSubject() != null ? first.getSubject().trim() : first.getAuthor());
+				/*
+				 * the title gives the number of lines which fit, it is
+				 * accounted for with the biggest number it could give.
+				 */
+				int titleLength = title.length() + (" *(" + posts.size() + " updates)*\n").length();
+				StringBuffer lines = new StringBuffer();
+				SimpleDateFormat time = new SimpleDateFormat("MM-dd HH:mm");
+				int nbLines = 0;
+				for (Post post : posts) {
+					StringBuffer line = new StringBuffer();
+					line.append("- ");
+					line.append(time.format(post.getCreatedAt()));
+					line.append(" **");
+					line.append(post.getAuthor());
+					line.append("** ");
+					line.append(excerpt(post));
+					String url = Iterables.getFirst(post.getURLs(), null);
+					if (url != null) {
+						line.append(" [->](" + url + ")");
+					}
+					line.append('\n');
+					if (nbLines > 0 && titleLength + lines.length() + line.length() > MAX_MESSAGE_LENGTH) {
+						break;
+					}
+					lines.append(line);
+					nbLines++;
+				}
+				if (nbLines > 1) {
+					title += " *(" + nbLines + " updates)*";
+				}
+				rendered = title + '\n' + lines;
+				nbRendered = nbLines;
+			}
+			return rendered;
+		}
+
+		/**
+		 * Keep the posts which have been rendered.
+		 *
+		 * @return a group of the posts which did not fit in the message, null
+		 *         if they all did.
+		 */
+		Group splitUnrendered() {
+			if (rendered == null || nbRendered == posts.size()) {
+				return null;
+			}
+			Group rest = new Group(start);
+			rest.posts = Lists.newArrayList(posts.subList(nbRendered, posts.size()));
+			posts = Lists.newArrayList(posts.subList(0, nbRendered));
+			return rest;
+		}
+
+		private static String excerpt(Post post) {
+			for (String line : Splitter.on('\n').trimResults().omitEmptyStrings().split(post.getMarkdownBody())) {
+				if (!line.startsWith(">") && !line.startsWith("#")) {
+					if (line.length() > MAX_EXCERPT_LENGTH) {
+						return line.substring(0, MAX_EXCERPT_LENGTH) + "(...)";
+					}
+					return line;
+				}
+			}
+			return "";
+		}
+
+	}
+
+}
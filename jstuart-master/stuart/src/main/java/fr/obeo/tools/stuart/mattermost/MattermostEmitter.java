@@ -11,7 +11,6 @@ import com.google.common.collect.Lists;
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.squareup.okhttp.Call;
 import com.squareup.okhttp.FormEncodingBuilder;
 import com.squareup.okhttp.HttpUrl;
 import com.squareup.okhttp.OkHttpClient;
@@ -26,6 +25,7 @@ public class MattermostEmitter {
 	private String scheme;
 	private String host;
 	private String channel;
+	private HttpUrl hookURL;
 	private Gson gson;
 	private OkHttpClient client;
 
@@ -47,6 +47,31 @@ public class MattermostEmitter {
 	}
 
 	public void accept(MattermostPost inPost) {
+		for (MattermostPost post : split(inPost)) {
+			System.out.println(getHookURL());
+			Response response;
+			try {
+				response = execute(post);
+				if (!response.isSuccessful()) {
+					response.body().close();
+					throw new IOException("Unexpected code " + response + " payload:\n" + gson.toJson(post) + "\n");
+				}
+				System.out.println(response.message());
+				response.body().close();
+			} catch (IOException e) {
+				System.out.println("Message was length:" + post.getText().length() + "\n" + post);
+				throw new RuntimeException(e);
+			}
+
+		}
+
+	}
+
+	/**
+	 * @return the messages to send for the given post, it gets split if it is
+	 *         bigger than what mattermost accepts.
+	 */
+	public List<MattermostPost> split(MattermostPost inPost) {
 		List<MattermostPost> toSend = Lists.newArrayList();
 		/*
 		 * the actual limit is 4000 in mattermost.
@@ -60,31 +85,26 @@ public class MattermostEmitter {
 		} else {
 			toSend.add(inPost);
 		}
+		return toSend;
+	}
 
-		for (MattermostPost post : toSend) {
-			String payload = gson.toJson(post);
-			RequestBody body = new FormEncodingBuilder().add("payload", payload).build();
-
-			HttpUrl url = new HttpUrl.Builder().scheme(scheme).host(host).addPathSegment("hooks")
-					.addPathSegment(channel).build();
-			System.out.println(url);
-			Request request = new Request.Builder().url(url).post(body).build();
-			Response response;
-			try {
-				Call call = client.newCall(request);
-				response = call.execute();
-				if (!response.isSuccessful()) {
-					throw new IOException("Unexpected code " + response + " canceled ?:" + call.isCanceled() + " payload:\n" + payload + "\n");
-				}
-				System.out.println(response.message());
-				response.body().close();
-			} catch (IOException e) {
-				System.out.println("Message was length:" + post.getText().length() + "\n" + post);
-				throw new RuntimeException(e);
-			}
+	/**
+	 * Send a single message to the webhook, the caller is responsible for
+	 * checking and closing the response.
+	 */
+	Response execute(MattermostPost post) throws IOException {
+		String payload = gson.toJson(post);
+		RequestBody body = new FormEncodingBuilder().add("payload", payload).build();
+		Request request = new Request.Builder().url(getHookURL()).post(body).build();
+		return client.newCall(request).execute();
+	}
 
+	private HttpUrl getHookURL() {
+		if (hookURL == null) {
+			hookURL = new HttpUrl.Builder().scheme(scheme).host(host).addPathSegment("hooks").addPathSegment(channel)
+					.build();
 		}
-
+		return hookURL;
 	}
 
 }
@@ -2,6 +2,7 @@ package fr.obeo.tools.stuart.mattermost.bot;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
@@ -30,6 +31,7 @@ import com.squareup.okhttp.ws.WebSocketCall;
 
 import fr.obeo.tools.stuart.mattermost.bot.internal.BotSocketListener;
 import fr.obeo.tools.stuart.mattermost.bot.internal.ChannelsWrapper;
+import fr.obeo.tools.stuart.mattermost.bot.internal.EventDecoder;
 import fr.obeo.tools.stuart.mattermost.bot.internal.MessagesWrapper;
 
 class LoginMsg {
@@ -110,7 +112,11 @@ public class MMBot {
 
 	private String host;
 
-	private List<ReactOnMessage> reactors = Lists.newArrayList();
+	private ReactorDispatcher dispatcher = new ReactorDispatcher();
+
+	private boolean debug = Boolean.getBoolean("stuart.bot.debug");
+
+	private EventDecoder decoder;
 
 	private AtomicBoolean stop = new AtomicBoolean(false);
 
@@ -126,6 +132,17 @@ public class MMBot {
 		this.u = u;
 		this.client = client;
 		this.gson = gson;
+		this.decoder = new EventDecoder(gson);
+		setDebug(debug);
+	}
+
+	/**
+	 * Trace every frame received from the websocket, also enabled with the
+	 * <code>stuart.bot.debug</code> system property.
+	 */
+	public void setDebug(boolean debug) {
+		this.debug = debug;
+		this.decoder.setDebug(debug ? System.out : null);
 	}
 
 	private CompletableFuture<String> post(String url, String payload) throws IOException {
@@ -184,7 +201,9 @@ public class MMBot {
 			// HTTPS => wss, HTTP => WS
 			String wsURL = this.host.replace("https", "wss").replace("http", "ws")
 					+ "api/v3/users/websocket?session_token_index=0&1";
-			System.out.println(wsURL);
+			if (debug) {
+				System.out.println(wsURL);
+			}
 			Request request = getRequest(wsURL);
 
 			if (websocket != null) {
@@ -199,65 +218,25 @@ public class MMBot {
 
 				@Override
 				public void onMessage(ResponseBody response) throws IOException {
-					String data = response.string();
-
-					System.out.println(data);
-					MPost msg = gson.fromJson(data, MPost.class);
-					if (msg.getId() == null) {
-						/*
-						 * the json format changed with Mattermost 3.3 with a
-						 * generic "event" which might hold data.
-						 */
-						MEvent event = gson.fromJson(data, MEvent.class);
-						if (event.getData().get("post") != null) {
-							MPost p = gson.fromJson(event.getData().get("post"), MPost.class);
-							if (p.getTeamId() == null) {
-								p.setTeamId(event.getTeamId());
-							}
-							if (event.getData().get("team_id") != null && p.getTeamId() == null) {
-								p.setTeamId(event.getData().get("team_id"));
-							}
-							if (Strings.isNullOrEmpty(p.getTeamId())) {
-								p.setTeamId(u.getTeamId());
-							}
-							/*
-							 * with 3.5 we get the channel ID directly with the
-							 * post whereas previously we got it in the event
-							 * itself.
-							 */
-							if (p.getChannelId() == null) {
-								p.setChannelId(event.getChannelId());
-							}
-							transmitPost(p);
-						} else if (event.getData().get("message") != null) {
-							System.out.println("MMBot.listen().new BotSocketListener() {...}.onMessage()");
+					try {
+						MPost p;
+						if (debug) {
+							String data = response.string();
+							System.out.println(data);
+							p = decoder.decode(new StringReader(data), u.getTeamId());
+						} else {
+							p = decoder.decode(response.charStream(), u.getTeamId());
 						}
-
-					} else {
-						if (msg.getProps() != null && msg.getProps().get("post") != null) {
-
-							MPost p = gson.fromJson(msg.getProps().get("post"), MPost.class);
-							p.setTeamId(msg.getTeamId());
+						if (p != null) {
 							transmitPost(p);
-
-						} else if (msg.getAction() == ChannelAction.typing) {
-							System.out.println(msg.getUserId() + " is typîng");
-						} else {
-
-							System.out.println("unknown :\n" + data);
 						}
+					} finally {
+						response.close();
 					}
-					response.close();
 				}
 
 				public void transmitPost(MPost p) {
-					for (ReactOnMessage listener : reactors) {
-						try {
-							listener.onMessage(MMBot.this, p);
-						} catch (Throwable e) {
-							e.printStackTrace();
-						}
-					}
+					dispatcher.dispatch(MMBot.this, p);
 				}
 
 			};
@@ -268,6 +247,7 @@ public class MMBot {
 
 	public void logOut() throws IOException {
 		stopListening();
+		dispatcher.shutdown();
 		String url = host + "logout";
 		Request r = auth(new Request.Builder()).url(url)
 				.post(RequestBody.create(MediaType.parse("application/json"), "")).build();
@@ -276,7 +256,31 @@ public class MMBot {
 	}
 
 	public void onMessage(ReactOnMessage r) {
-		reactors.add(r);
+		dispatcher.register(r);
+	}
+
+	/**
+	 * Register a reactor which is given at most <code>timeout</code> to handle
+	 * a post and never handles more than <code>maxConcurrency</code> posts at
+	 * the same time.
+	 */
+	public void onMessage(ReactOnMessage r, long timeout, TimeUnit unit, int maxConcurrency) {
+		dispatcher.register(r, timeout, unit, maxConcurrency);
+	}
+
+	public ReactorDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	/**
+	 * Hand the posts to the given dispatcher instead of the default one, for
+	 * instance one built on an executor creating virtual threads. It has to be
+	 * set before the reactors are registered.
+	 */
+	public MMBot setDispatcher(ReactorDispatcher dispatcher) {
+		this.dispatcher.shutdown();
+		this.dispatcher = dispatcher;
+		return this;
 	}
 
 	public MPost respond(MPost p, String message) throws IOException {
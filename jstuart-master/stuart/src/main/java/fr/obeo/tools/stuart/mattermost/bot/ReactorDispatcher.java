@@ -0,0 +1,299 @@
+package fr.obeo.tools.stuart.mattermost.bot;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Hands the posts received by a {@link MMBot} to its reactors without blocking
+ * the websocket thread. Reactors run on a bounded executor, each of them with
+ * its own timeout and maximum number of concurrent invocations. The posts of
+ * a channel are dispatched one after the other : the reactors only get a post
+ * once they are done with (or timed out on) the previous post of the same
+ * channel, so the replies keep the order of the messages.
+ */
+public class ReactorDispatcher {
+
+	private static final long DEFAULT_TIMEOUT_SECONDS = 30;
+
+	private static final int DEFAULT_MAX_CONCURRENCY = 2;
+
+	private static final int MAX_BACKLOG = 1000;
+
+	private ExecutorService executor;
+
+	private ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setNameFormat("stuart-bot-timer").setDaemon(true).build());
+
+	private List<Reactor> reactors = Lists.newCopyOnWriteArrayList();
+
+	private Map<String, CompletableFuture<Void>> lastByChannel = Maps.newHashMap();
+
+	private AtomicInteger waiting = new AtomicInteger();
+
+	/*
+	 * the posts waiting for the previous post of their channel.
+	 */
+	private AtomicInteger queued = new AtomicInteger();
+
+	private AtomicInteger running = new AtomicInteger();
+
+	private AtomicLong nbCompleted = new AtomicLong();
+
+	private AtomicLong nbFailed = new AtomicLong();
+
+	private AtomicLong nbTimedOut = new AtomicLong();
+
+	private AtomicLong nbRejected = new AtomicLong();
+
+	/**
+	 * @param executor
+	 *            the executor running the reactors, for instance one creating
+	 *            virtual threads on a recent JVM.
+	 */
+	public ReactorDispatcher(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public ReactorDispatcher() {
+		this(new ThreadPoolExecutor(8, 8, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<Runnable>(MAX_BACKLOG),
+				new ThreadFactoryBuilder().setNameFormat("stuart-bot-%d").setDaemon(true).build()));
+	}
+
+	public void register(ReactOnMessage reactor) {
+		register(reactor, DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS, DEFAULT_MAX_CONCURRENCY);
+	}
+
+	public void register(ReactOnMessage reactor, long timeout, TimeUnit unit, int maxConcurrency) {
+		reactors.add(new Reactor(reactor, unit.toMillis(timeout), maxConcurrency));
+	}
+
+	/**
+	 * @return a future completed once every reactor handled the post, failed
+	 *         or timed out. It fails right away if too many posts are already
+	 *         waiting for the previous posts of their channels.
+	 */
+	public CompletableFuture<Void> dispatch(final MMBot bot, final MPost p) {
+		final String channel = String.valueOf(p.getChannelId());
+		synchronized (lastByChannel) {
+			if (queued.get() >= MAX_BACKLOG) {
+				nbRejected.incrementAndGet();
+				System.err.println("Too many pending posts, rejected post " + p.getId());
+				CompletableFuture<Void> rejected = new CompletableFuture<Void>();
+				rejected.completeExceptionally(new RejectedExecutionException("Too many pending posts"));
+				return rejected;
+			}
+			CompletableFuture<Void> previous = lastByChannel.get(channel);
+			if (previous == null) {
+				previous = CompletableFuture.completedFuture(null);
+			}
+			queued.incrementAndGet();
+			final CompletableFuture<Void> current = previous.handle((v, e) -> null).thenCompose(v -> {
+				queued.decrementAndGet();
+				return fanOut(bot, p);
+			});
+			lastByChannel.put(channel, current);
+			current.whenComplete((v, e) -> {
+				synchronized (lastByChannel) {
+					lastByChannel.remove(channel, current);
+				}
+			});
+			return current;
+		}
+	}
+
+	private CompletableFuture<Void> fanOut(MMBot bot, MPost p) {
+		List<CompletableFuture<Void>> invocations = Lists.newArrayList();
+		for (Reactor reactor : reactors) {
+			invocations.add(reactor.submit(bot, p).handle((v, e) -> null));
+		}
+		return CompletableFuture.allOf(invocations.toArray(new CompletableFuture<?>[invocations.size()]));
+	}
+
+	/**
+	 * @return the number of reactor invocations waiting for a thread.
+	 */
+	public int getQueueDepth() {
+		return waiting.get();
+	}
+
+	/**
+	 * @return the number of posts waiting for the previous posts of their
+	 *         channels before being handed to the reactors.
+	 */
+	public int getNbQueuedPosts() {
+		return queued.get();
+	}
+
+	public int getNbRunning() {
+		return running.get();
+	}
+
+	public long getNbCompleted() {
+		return nbCompleted.get();
+	}
+
+	public long getNbFailed() {
+		return nbFailed.get();
+	}
+
+	public long getNbTimedOut() {
+		return nbTimedOut.get();
+	}
+
+	public long getNbRejected() {
+		return nbRejected.get();
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+		timer.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "ReactorDispatcher [queued=" + queued + ", waiting=" + waiting + ", running=" + running + ", completed=" + nbCompleted
+				+ ", failed=" + nbFailed + ", timedOut=" + nbTimedOut + ", rejected=" + nbRejected + "]";
+	}
+
+	private class Reactor {
+
+		private ReactOnMessage reactor;
+
+		private long timeoutMillis;
+
+		private int maxConcurrency;
+
+		private int nbRunning = 0;
+
+		private Queue<Invocation> backlog = Queues.newArrayDeque();
+
+		Reactor(ReactOnMessage reactor, long timeoutMillis, int maxConcurrency) {
+			this.reactor = reactor;
+			this.timeoutMillis = timeoutMillis;
+			this.maxConcurrency = maxConcurrency;
+		}
+
+		CompletableFuture<Void> submit(MMBot bot, MPost p) {
+			Invocation invocation = new Invocation(this, bot, p);
+			waiting.incrementAndGet();
+			synchronized (this) {
+				if (nbRunning < maxConcurrency) {
+					nbRunning++;
+					execute(invocation);
+				} else if (backlog.size() < MAX_BACKLOG) {
+					backlog.add(invocation);
+				} else {
+					reject(invocation, new RejectedExecutionException(name() + " has too many pending posts"));
+				}
+			}
+			return invocation.result;
+		}
+
+		synchronized void done() {
+			Invocation next = backlog.poll();
+			if (next != null) {
+				execute(next);
+			} else {
+				nbRunning--;
+			}
+		}
+
+		private void execute(Invocation invocation) {
+			try {
+				executor.execute(invocation);
+			} catch (RejectedExecutionException e) {
+				nbRunning--;
+				reject(invocation, e);
+			}
+		}
+
+		private void reject(Invocation invocation, RejectedExecutionException e) {
+			waiting.decrementAndGet();
+			nbRejected.incrementAndGet();
+			System.err.println(name() + " rejected post " + invocation.p.getId() + " : " + e.getMessage());
+			invocation.result.completeExceptionally(e);
+		}
+
+		String name() {
+			return reactor.getClass().getSimpleName();
+		}
+	}
+
+	private class Invocation implements Runnable {
+
+		private Reactor reactor;
+
+		private MMBot bot;
+
+		private MPost p;
+
+		private CompletableFuture<Void> result = new CompletableFuture<Void>();
+
+		private boolean finished = false;
+
+		Invocation(Reactor reactor, MMBot bot, MPost p) {
+			this.reactor = reactor;
+			this.bot = bot;
+			this.p = p;
+		}
+
+		@Override
+		public void run() {
+			waiting.decrementAndGet();
+			running.incrementAndGet();
+			final Thread current = Thread.currentThread();
+			ScheduledFuture<?> timeout = timer.schedule(() -> {
+				synchronized (this) {
+					if (!finished && result.completeExceptionally(new TimeoutException())) {
+						nbTimedOut.incrementAndGet();
+						System.err.println(reactor.name() + " timed out after " + reactor.timeoutMillis
+								+ " ms on post " + p.getId());
+						current.interrupt();
+					}
+				}
+			}, reactor.timeoutMillis, TimeUnit.MILLISECONDS);
+			try {
+				reactor.reactor.onMessage(bot, p);
+				if (result.complete(null)) {
+					nbCompleted.incrementAndGet();
+				}
+			} catch (Throwable e) {
+				if (result.completeExceptionally(e)) {
+					nbFailed.incrementAndGet();
+					e.printStackTrace();
+				}
+			} finally {
+				timeout.cancel(false);
+				synchronized (this) {
+					finished = true;
+					/*
+					 * the reactor might have been interrupted by the timeout,
+					 * the thread should not keep the flag for its next task.
+					 */
+					Thread.interrupted();
+				}
+				running.decrementAndGet();
+				reactor.done();
+			}
+		}
+	}
+
+}
@@ -13,11 +13,13 @@ import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
 import com.squareup.okhttp.ResponseBody;
 
+import fr.obeo.tools.stuart.http.Http;
+
 public class RespondWithGiphyAnimation implements ReactOnMessage {
 
 	private String apiKey;
 
-	private OkHttpClient client = new OkHttpClient();
+	private OkHttpClient client = Http.client("http://api.giphy.com");
 
 	private Gson gson = new GsonBuilder().disableHtmlEscaping()
 			.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).setPrettyPrinting().create();
@@ -1,6 +1,7 @@
 package fr.obeo.tools.stuart.mattermost.bot;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -14,6 +15,7 @@ import com.google.common.collect.Sets;
 
 import fr.obeo.tools.stuart.MattermostPost;
 import fr.obeo.tools.stuart.Post;
+import fr.obeo.tools.stuart.http.Http;
 import fr.obeo.tools.stuart.twitter.TwitterLogger;
 import twitter4j.Status;
 
@@ -59,8 +61,8 @@ public class RespondWithPullRequestsReferences implements ReactOnMessage {
 
 		List<String> result = Lists.newArrayList();
 		for (String pullRequestURL : pull) {
-			try {
-				Document doc = Jsoup.connect(pullRequestURL).get();
+			try (InputStream page = Http.openStream(pullRequestURL)) {
+				Document doc = Jsoup.parse(page, null, pullRequestURL);
 				String title = doc.select("span.js-issue-title").text();
 				String state = doc.select("div.state").text();
 				String number = doc.select("span.gh-header-number").text();
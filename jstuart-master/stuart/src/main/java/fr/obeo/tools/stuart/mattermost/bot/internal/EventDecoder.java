@@ -0,0 +1,175 @@
+package fr.obeo.tools.stuart.mattermost.bot.internal;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.Set;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import fr.obeo.tools.stuart.mattermost.bot.MPost;
+
+/**
+ * Decodes the frames of the mattermost websocket in a single pass. The event
+ * type is read first and the payload of the events which are not about posts
+ * (typing, status changes, reactions...) is skipped without being decoded.
+ * Both the event format of Mattermost 3.3+ and the former format, where the
+ * frame is a post holding the actual post in its props, are supported.
+ */
+public class EventDecoder {
+
+	private static final Set<String> POST_EVENTS = ImmutableSet.of("posted", "post_edited");
+
+	private Gson gson;
+
+	private PrintStream debug;
+
+	public EventDecoder(Gson gson) {
+		this.gson = gson;
+	}
+
+	/**
+	 * @param debug
+	 *            where to trace the skipped events, null to trace nothing.
+	 */
+	public EventDecoder setDebug(PrintStream debug) {
+		this.debug = debug;
+		return this;
+	}
+
+	/**
+	 * @return the post to hand to the reactors, null if the frame is not about
+	 *         a new post.
+	 */
+	public MPost decode(Reader frame, String defaultTeamId) throws IOException {
+		JsonReader reader = new JsonReader(frame);
+		reader.setLenient(true);
+		if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+			reader.skipValue();
+			return null;
+		}
+		Frame f = new Frame();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("event".equals(name)) {
+				f.event = nextString(reader);
+			} else if ("id".equals(name)) {
+				f.id = nextString(reader);
+			} else if ("channel_id".equals(name)) {
+				f.channelId = nextString(reader);
+			} else if ("team_id".equals(name)) {
+				f.teamId = nextString(reader);
+			} else if ("user_id".equals(name)) {
+				f.userId = nextString(reader);
+			} else if ("action".equals(name)) {
+				f.action = nextString(reader);
+			} else if (("data".equals(name) || "props".equals(name)) && reader.peek() == JsonToken.BEGIN_OBJECT
+					&& (f.event == null || POST_EVENTS.contains(f.event))) {
+				readPayload(reader, f);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if (f.event != null && !POST_EVENTS.contains(f.event)) {
+			trace(f.event + " from " + f.userId);
+			return null;
+		}
+		MPost p = f.post;
+		if (p == null && f.postJson != null) {
+			p = gson.fromJson(f.postJson, MPost.class);
+		}
+		if (p == null) {
+			if ("typing".equals(f.action)) {
+				trace(f.userId + " is typing");
+			} else {
+				trace("unknown frame " + f.event + " " + f.id);
+			}
+			return null;
+		}
+		if (f.id == null) {
+			if (p.getTeamId() == null) {
+				p.setTeamId(f.teamId);
+			}
+			if (f.dataTeamId != null && p.getTeamId() == null) {
+				p.setTeamId(f.dataTeamId);
+			}
+			if (Strings.isNullOrEmpty(p.getTeamId())) {
+				p.setTeamId(defaultTeamId);
+			}
+			/*
+			 * with 3.5 we get the channel ID directly with the post whereas
+			 * previously we got it in the event itself.
+			 */
+			if (p.getChannelId() == null) {
+				p.setChannelId(f.channelId);
+			}
+		} else {
+			p.setTeamId(f.teamId);
+		}
+		return p;
+	}
+
+	private void readPayload(JsonReader reader, Frame f) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("post".equals(name) && reader.peek() == JsonToken.STRING) {
+				/*
+				 * the post is serialized as a JSON string in the payload.
+				 */
+				f.postJson = reader.nextString();
+			} else if ("post".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+				f.post = gson.fromJson(reader, MPost.class);
+			} else if ("team_id".equals(name)) {
+				f.dataTeamId = nextString(reader);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+	}
+
+	private String nextString(JsonReader reader) throws IOException {
+		JsonToken token = reader.peek();
+		if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+			return reader.nextString();
+		}
+		reader.skipValue();
+		return null;
+	}
+
+	private void trace(String message) {
+		if (debug != null) {
+			debug.println(message);
+		}
+	}
+
+	private static class Frame {
+
+		private String event;
+
+		private String id;
+
+		private String channelId;
+
+		private String teamId;
+
+		private String userId;
+
+		private String action;
+
+		private String dataTeamId;
+
+		private String postJson;
+
+		private MPost post;
+	}
+
+}
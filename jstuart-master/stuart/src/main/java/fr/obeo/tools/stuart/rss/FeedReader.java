@@ -0,0 +1,255 @@
+package fr.obeo.tools.stuart.rss;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.google.common.collect.ImmutableMap;
+import com.rometools.rome.feed.synd.SyndContentImpl;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndEntryImpl;
+import com.rometools.rome.io.impl.DateParser;
+
+/**
+ * Reads the entries of a RSS (0.9x, 1.0 and 2.0) or Atom feed one at a time,
+ * so that the caller can stop as soon as it reached the entries it already
+ * knows without downloading and building the whole document. Only the parts
+ * of the entries the loggers look at are read : title, link, uri, author,
+ * dates and description (or content).
+ *
+ * The elements are matched on their namespace too so that the extensions
+ * (media:title, itunes:author...) do not override the fields of the entry.
+ */
+public class FeedReader implements Closeable {
+
+	/*
+	 * the prefixes the elements are matched with, whatever the prefixes used by
+	 * the feed.
+	 */
+	private static final Map<String, String> NAMESPACES = ImmutableMap.<String, String>builder()
+			.put("", "rss").put("http://purl.org/rss/1.0/", "rss")
+			.put("http://my.netscape.com/rdf/simple/0.9/", "rss").put("http://www.w3.org/2005/Atom", "atom")
+			.put("http://purl.org/atom/ns#", "atom").put("http://purl.org/dc/elements/1.1/", "dc")
+			.put("http://purl.org/dc/terms/", "dcterms").put("http://purl.org/rss/1.0/modules/content/", "content")
+			.build();
+
+	private static XMLInputFactory factory = createFactory();
+
+	private Reader in;
+
+	private XMLStreamReader xml;
+
+	public FeedReader(Reader in) throws XMLStreamException {
+		this.in = in;
+		this.xml = factory.createXMLStreamReader(in);
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	/**
+	 * @return the next entry of the feed, null once the feed has been read.
+	 */
+	public SyndEntry next() throws XMLStreamException {
+		while (xml.hasNext()) {
+			if (xml.next() == XMLStreamConstants.START_ELEMENT) {
+				String name = qualifiedName();
+				if ("rss:item".equals(name) || "atom:entry".equals(name)) {
+					return readEntry();
+				}
+			}
+		}
+		return null;
+	}
+
+	private SyndEntry readEntry() throws XMLStreamException {
+		SyndEntryImpl entry = new SyndEntryImpl();
+		String description = null;
+		String content = null;
+		String guid = null;
+		while (xml.next() != XMLStreamConstants.END_ELEMENT) {
+			if (xml.getEventType() != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+			switch (qualifiedName()) {
+			case "rss:title":
+			case "atom:title":
+				entry.setTitle(readContent().trim());
+				break;
+			case "rss:link":
+			case "atom:link":
+				String href = xml.getAttributeValue(null, "href");
+				String rel = xml.getAttributeValue(null, "rel");
+				String text = readContent().trim();
+				if (href == null) {
+					entry.setLink(text);
+				} else if (rel == null || "alternate".equals(rel)) {
+					entry.setLink(href);
+				}
+				break;
+			case "rss:guid":
+			case "atom:id":
+				guid = readContent().trim();
+				break;
+			case "rss:author":
+			case "atom:author":
+			case "dc:creator":
+				entry.setAuthor(readAuthor());
+				break;
+			case "rss:pubDate":
+			case "atom:published":
+			case "atom:issued":
+			case "dc:date":
+				entry.setPublishedDate(parseDate(readContent()));
+				break;
+			case "atom:updated":
+			case "atom:modified":
+			case "dcterms:modified":
+				entry.setUpdatedDate(parseDate(readContent()));
+				break;
+			case "rss:description":
+			case "atom:summary":
+				description = readContent();
+				break;
+			case "content:encoded":
+			case "atom:content":
+				content = readContent();
+				break;
+			default:
+				skip();
+				break;
+			}
+		}
+		entry.setUri(guid != null ? guid : entry.getLink());
+		String body = description != null ? description : content;
+		if (body != null) {
+			SyndContentImpl syndContent = new SyndContentImpl();
+			syndContent.setType("text/html");
+			syndContent.setValue(body);
+			entry.setDescription(syndContent);
+		}
+		return entry;
+	}
+
+	/**
+	 * @return the text of the current element. XHTML content (Atom) is
+	 *         written back as HTML.
+	 */
+	private String readContent() throws XMLStreamException {
+		StringBuilder result = new StringBuilder();
+		int depth = 0;
+		while (true) {
+			switch (xml.next()) {
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				if (depth == 0) {
+					result.append(xml.getText());
+				} else {
+					result.append(escape(xml.getText()));
+				}
+				break;
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				result.append('<').append(xml.getLocalName());
+				for (int i = 0; i < xml.getAttributeCount(); i++) {
+					result.append(' ').append(xml.getAttributeLocalName(i)).append("=\"")
+							.append(escape(xml.getAttributeValue(i))).append('"');
+				}
+				result.append('>');
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				if (depth == 0) {
+					return result.toString();
+				}
+				depth--;
+				result.append("</").append(xml.getLocalName()).append('>');
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private String readAuthor() throws XMLStreamException {
+		StringBuilder text = new StringBuilder();
+		String name = null;
+		while (xml.next() != XMLStreamConstants.END_ELEMENT) {
+			if (xml.getEventType() == XMLStreamConstants.START_ELEMENT) {
+				if ("atom:name".equals(qualifiedName())) {
+					name = readContent().trim();
+				} else {
+					skip();
+				}
+			} else if (xml.isCharacters()) {
+				text.append(xml.getText());
+			}
+		}
+		return name != null ? name : text.toString().trim();
+	}
+
+	/**
+	 * @return the name of the current element prefixed by the one of
+	 *         {@link #NAMESPACES}, the prefix is empty for an unknown
+	 *         namespace.
+	 */
+	private String qualifiedName() {
+		String namespace = xml.getNamespaceURI();
+		String prefix = NAMESPACES.get(namespace == null ? "" : namespace);
+		return (prefix == null ? "" : prefix) + ":" + xml.getLocalName();
+	}
+
+	private void skip() throws XMLStreamException {
+		int depth = 0;
+		while (true) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				if (depth == 0) {
+					return;
+				}
+				depth--;
+			}
+		}
+	}
+
+	private static Date parseDate(String value) {
+		return DateParser.parseDate(value.trim(), Locale.US);
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	/**
+	 * Stop reading and close the underlying stream, the remaining of the
+	 * document is not downloaded.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			xml.close();
+		} catch (XMLStreamException e) {
+			/*
+			 * we close the stream anyway.
+			 */
+		} finally {
+			in.close();
+		}
+	}
+
+}
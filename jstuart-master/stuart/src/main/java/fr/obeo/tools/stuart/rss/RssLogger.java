@@ -1,32 +1,30 @@
 package fr.obeo.tools.stuart.rss;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document.OutputSettings;
-import org.jsoup.nodes.Element;
-import org.jsoup.safety.Whitelist;
+import javax.xml.stream.XMLStreamException;
 
-import com.google.common.base.Splitter;
 import com.rometools.rome.feed.synd.SyndEntry;
-import com.rometools.rome.feed.synd.SyndFeed;
-import com.rometools.rome.io.FeedException;
-import com.rometools.rome.io.SyndFeedInput;
 import com.rometools.rome.io.XmlReader;
 
+import fr.obeo.tools.stuart.HtmlToMarkdown;
 import fr.obeo.tools.stuart.Post;
+import fr.obeo.tools.stuart.Watermarks;
+import fr.obeo.tools.stuart.http.Http;
 
 public class RssLogger {
 
+	private static final HtmlToMarkdown HTML = new HtmlToMarkdown();
+
 	private String RSS_ICON = "https://i.imgur.com/nKoSYdn.png";
 	private URL feedUrl;
 	private Date daysAgo;
+	private Watermarks watermarks;
 
 	public RssLogger(URL feedUrl, Date daysAgo) {
 		this.feedUrl = feedUrl;
@@ -38,60 +36,65 @@ public class RssLogger {
 		return this;
 	}
 
+	/**
+	 * @param watermarks
+	 *            remembers the most recent entry of the feed, the next calls
+	 *            stop reading the feed there.
+	 */
+	public RssLogger setWatermarks(Watermarks watermarks) {
+		this.watermarks = watermarks;
+		return this;
+	}
+
 	public Collection<Post> get() {
 		List<Post> posts = new ArrayList<Post>();
-		SyndFeedInput input = new SyndFeedInput();
-		boolean foundAnOld = false;
-		for (int i = 0; i < 1 && !foundAnOld; i++) {
-			try {
-				SyndFeed feed = input.build(new XmlReader(feedUrl));
-				Date publishedDate =feed.getPublishedDate();				
-				for (SyndEntry entry : feed.getEntries()) {
-					 publishedDate = entry.getPublishedDate();
-					if (publishedDate == null) {
-						publishedDate = entry.getUpdatedDate();
+		String key = feedUrl.toString();
+		Date horizon = daysAgo;
+		Date watermark = watermarks != null ? watermarks.getDate(key) : null;
+		if (watermark != null && watermark.after(horizon)) {
+			horizon = watermark;
+		}
+		Date mostRecent = watermark;
+		/*
+		 * entries come newest first, we stop reading the feed at the first one
+		 * we already know about.
+		 */
+		try (XmlReader reader = Http.openFeed(key); FeedReader feed = new FeedReader(reader)) {
+			SyndEntry entry = feed.next();
+			while (entry != null) {
+				Date publishedDate = entry.getPublishedDate();
+				if (publishedDate == null) {
+					publishedDate = entry.getUpdatedDate();
+				}
+				if (publishedDate != null && publishedDate.after(horizon)) {
+					String html = entry.getDescription() != null ? entry.getDescription().getValue() : null;
+					HtmlToMarkdown.Result body = HTML.convert(html);
+					Post newPost = Post.createPostWithSubject(entry.getUri(), entry.getTitle(), body.getMarkdown(),
+							entry.getAuthor(), RSS_ICON, publishedDate).addURLs(entry.getUri());
+					if (body.getMediaURLs().size() > 0) {
+						newPost.addMediaURLs(body.getMediaURLs().get(0));
 					}
-					if (publishedDate != null && publishedDate.after(daysAgo)) {
-						String html = entry.getDescription().getValue();
-
-						String htmlConvertedToText = Jsoup.clean(html, "", Whitelist.none(),
-								new OutputSettings().prettyPrint(false));
-						StringBuffer cleaned = new StringBuffer();
-						boolean foundSignature = false;
-						for (String line : Splitter.on('\n').split(htmlConvertedToText)) {
-							if (line.trim().length() > 0 && !line.startsWith("&gt;") && !foundSignature) {
-								if (line.startsWith("--")) {
-									foundSignature = true;
-								} else {
-									cleaned.append(line);
-									cleaned.append('\n');
-								}
-							}
-						}
-
-						Post newPost = Post.createPostWithSubject(entry.getUri(), entry.getTitle(), cleaned.toString(),
-								entry.getAuthor(), RSS_ICON, publishedDate).addURLs(entry.getUri());
-						Element img = Jsoup.parse(html).getElementsByTag("img").first();
-						if (img != null && img.attr("src") != null) {
-							String href = img.attr("src");
-							newPost.addMediaURLs(href);
-						}
-						posts.add(newPost);
-					} else {
-						foundAnOld = true;
-						System.out.println("Too old :" + entry.getLink());
+					posts.add(newPost);
+					if (mostRecent == null || publishedDate.after(mostRecent)) {
+						mostRecent = publishedDate;
 					}
-
+					entry = feed.next();
+				} else if (publishedDate == null) {
+					entry = feed.next();
+				} else {
+					System.out.println("Too old :" + entry.getLink());
+					entry = null;
 				}
-			} catch (MalformedURLException e) {
-				throw new RuntimeException(e);
-			} catch (IllegalArgumentException e) {
-				throw new RuntimeException(e);
-			} catch (FeedException e) {
-				throw new RuntimeException(e);
-			} catch (IOException e) {
-				throw new RuntimeException(e);
 			}
+		} catch (XMLStreamException e) {
+			throw new RuntimeException(e);
+		} catch (IllegalArgumentException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (watermarks != null && mostRecent != null) {
+			watermarks.put(key, mostRecent);
 		}
 		return posts;
 	}
@@ -0,0 +1,321 @@
+package fr.obeo.tools.stuart.trello;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.obeo.tools.stuart.AtomicFiles;
+
+/**
+ * The open lists and cards of a Trello board as of its last synchronization.
+ * It is kept on disk so that the next run only asks for the actions done on
+ * the board since.
+ *
+ * Some actions do not tell everything about the card or list they bring to the
+ * board (a copied card, an archived list restored...) : those are marked as
+ * stale and have to be read again.
+ */
+class BoardSnapshot {
+
+	private String boardId;
+
+	/**
+	 * the id of the last action applied to the snapshot.
+	 */
+	private String lastAction;
+
+	private Map<String, TrelloList> lists = Maps.newLinkedHashMap();
+
+	private Map<String, TrelloCard> cards = Maps.newLinkedHashMap();
+
+	private Map<String, String> members = Maps.newHashMap();
+
+	private Set<String> staleCards = Sets.newLinkedHashSet();
+
+	private Set<String> staleLists = Sets.newLinkedHashSet();
+
+	BoardSnapshot(String boardId) {
+		this.boardId = boardId;
+	}
+
+	/**
+	 * @return the snapshot stored in the file, null if there is none or if it
+	 *         is the one of another board.
+	 */
+	static BoardSnapshot load(File file, Gson gson, String boardId) {
+		BoardSnapshot snapshot = AtomicFiles.readJson(file, gson, BoardSnapshot.class);
+		if (snapshot != null && boardId.equals(snapshot.boardId) && snapshot.lastAction != null
+				&& snapshot.lists != null && snapshot.cards != null && snapshot.members != null) {
+			if (snapshot.staleCards == null) {
+				snapshot.staleCards = Sets.newLinkedHashSet();
+			}
+			if (snapshot.staleLists == null) {
+				snapshot.staleLists = Sets.newLinkedHashSet();
+			}
+			return snapshot;
+		}
+		return null;
+	}
+
+	void save(File file, Gson gson) throws IOException {
+		AtomicFiles.writeJson(file, gson, this);
+	}
+
+	String getLastAction() {
+		return lastAction;
+	}
+
+	void setLastAction(String lastAction) {
+		this.lastAction = lastAction;
+	}
+
+	void putList(TrelloList list) {
+		lists.put(list.id, list);
+	}
+
+	void putCard(TrelloCard card) {
+		cards.put(card.id, card);
+	}
+
+	void putMember(String id, String fullName) {
+		members.put(id, fullName);
+	}
+
+	/**
+	 * @return the cards which have to be read again.
+	 */
+	List<String> getStaleCards() {
+		return Lists.newArrayList(staleCards);
+	}
+
+	/**
+	 * @return the lists which have to be read again, along with their cards.
+	 */
+	List<String> getStaleLists() {
+		return Lists.newArrayList(staleLists);
+	}
+
+	/**
+	 * Replace a stale card by the one read again.
+	 *
+	 * @param card
+	 *            the card as read from trello, null if it is not open anymore.
+	 */
+	void refreshCard(String id, TrelloCard card) {
+		cards.remove(id);
+		if (card != null) {
+			cards.put(id, card);
+		}
+		staleCards.remove(id);
+	}
+
+	/**
+	 * Replace a stale list and its cards by the ones read again.
+	 *
+	 * @param list
+	 *            the list as read from trello, null if it is not open anymore.
+	 */
+	void refreshList(String id, TrelloList list, List<TrelloCard> listCards) {
+		lists.remove(id);
+		if (list != null) {
+			lists.put(id, list);
+			for (TrelloCard card : listCards) {
+				cards.put(card.id, card);
+				staleCards.remove(card.id);
+			}
+		}
+		staleLists.remove(id);
+	}
+
+	/**
+	 * Apply an action of the board (as returned by
+	 * <code>/1/boards/{id}/actions</code>) to the snapshot.
+	 */
+	void apply(JsonObject action) {
+		String type = string(action, "type");
+		JsonObject data = object(action, "data");
+		JsonObject card = object(data, "card");
+		JsonObject list = object(data, "list");
+		JsonObject member = object(action, "member");
+		if (member != null && string(member, "id") != null && string(member, "fullName") != null) {
+			members.put(string(member, "id"), string(member, "fullName"));
+		}
+		switch (type) {
+		case "createCard":
+		case "copyCard":
+		case "moveCardToBoard":
+		case "convertToCardFromCheckItem":
+			TrelloCard created = new TrelloCard();
+			created.id = string(card, "id");
+			created.name = string(card, "name");
+			created.idList = string(list, "id");
+			created.url = "https://trello.com/c/" + string(card, "shortLink");
+			cards.put(created.id, created);
+			if (!"createCard".equals(type)) {
+				/*
+				 * the card might already have a due date, a description or
+				 * members.
+				 */
+				staleCards.add(created.id);
+			}
+			break;
+		case "updateCard":
+			TrelloCard updated = cards.get(string(card, "id"));
+			if (updated == null) {
+				if (Boolean.FALSE.equals(bool(card, "closed"))) {
+					/*
+					 * restored from the archive.
+					 */
+					staleCards.add(string(card, "id"));
+				}
+				break;
+			}
+			if (Boolean.TRUE.equals(bool(card, "closed"))) {
+				cards.remove(updated.id);
+				break;
+			}
+			if (card.has("name")) {
+				updated.name = string(card, "name");
+			}
+			if (card.has("desc")) {
+				updated.desc = string(card, "desc");
+			}
+			if (card.has("due")) {
+				updated.due = string(card, "due");
+			}
+			if (card.has("idList")) {
+				updated.idList = string(card, "idList");
+			}
+			break;
+		case "deleteCard":
+		case "moveCardFromBoard":
+			cards.remove(string(card, "id"));
+			staleCards.remove(string(card, "id"));
+			break;
+		case "addMemberToCard":
+			TrelloCard assigned = cards.get(string(card, "id"));
+			if (assigned != null && !assigned.idMembers.contains(string(data, "idMember"))) {
+				assigned.idMembers.add(string(data, "idMember"));
+			}
+			break;
+		case "removeMemberFromCard":
+			TrelloCard unassigned = cards.get(string(card, "id"));
+			if (unassigned != null) {
+				unassigned.idMembers.remove(string(data, "idMember"));
+			}
+			break;
+		case "createList":
+		case "moveListToBoard":
+			TrelloList createdList = new TrelloList();
+			createdList.id = string(list, "id");
+			createdList.name = string(list, "name");
+			lists.put(createdList.id, createdList);
+			if ("moveListToBoard".equals(type)) {
+				/*
+				 * its cards came along.
+				 */
+				staleLists.add(createdList.id);
+			}
+			break;
+		case "updateList":
+			if (Boolean.TRUE.equals(bool(list, "closed"))) {
+				lists.remove(string(list, "id"));
+				staleLists.remove(string(list, "id"));
+			} else if (Boolean.FALSE.equals(bool(list, "closed"))) {
+				/*
+				 * restored from the archive.
+				 */
+				staleLists.add(string(list, "id"));
+			} else if (lists.containsKey(string(list, "id")) && list.has("name")) {
+				lists.get(string(list, "id")).name = string(list, "name");
+			}
+			break;
+		case "moveListFromBoard":
+			lists.remove(string(list, "id"));
+			staleLists.remove(string(list, "id"));
+			break;
+		default:
+			break;
+		}
+	}
+
+	List<TrelloList> getLists() {
+		return Lists.newArrayList(lists.values());
+	}
+
+	/**
+	 * @return the open cards of the list, in the order they have been added
+	 *         to the snapshot.
+	 */
+	List<TrelloCard> getCards(String listId) {
+		List<TrelloCard> result = Lists.newArrayList();
+		for (TrelloCard card : cards.values()) {
+			if (listId.equals(card.idList)) {
+				result.add(card);
+			}
+		}
+		return result;
+	}
+
+	String getMemberName(String id) {
+		return members.get(id);
+	}
+
+	private static JsonObject object(JsonObject parent, String name) {
+		if (parent != null && parent.has(name) && parent.get(name).isJsonObject()) {
+			return parent.getAsJsonObject(name);
+		}
+		return null;
+	}
+
+	private static String string(JsonObject parent, String name) {
+		if (parent != null && parent.has(name) && parent.get(name).isJsonPrimitive()) {
+			return parent.get(name).getAsString();
+		}
+		return null;
+	}
+
+	private static Boolean bool(JsonObject parent, String name) {
+		JsonElement value = parent != null ? parent.get(name) : null;
+		if (value != null && value.isJsonPrimitive()) {
+			return value.getAsBoolean();
+		}
+		return null;
+	}
+
+	static class TrelloList {
+
+		String id;
+
+		String name;
+
+	}
+
+	static class TrelloCard {
+
+		String id;
+
+		String idList;
+
+		String name;
+
+		String desc;
+
+		String due;
+
+		String url;
+
+		List<String> idMembers = Lists.newArrayList();
+
+	}
+
+}
@@ -1,25 +1,43 @@
 package fr.obeo.tools.stuart.trello;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
-import java.util.Scanner;
 
-import com.google.gson.JsonArray;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
 
 import fr.obeo.tools.stuart.Post;
+import fr.obeo.tools.stuart.http.Http;
+import fr.obeo.tools.stuart.trello.BoardSnapshot.TrelloCard;
+import fr.obeo.tools.stuart.trello.BoardSnapshot.TrelloList;
 
 public class TrelloLogger {
 	private static final String TRELLO_ICON = "https://imgur.com/SGJvIQv.png";
+	private static final String CARD_FIELDS = "id,idList,name,desc,due,url,idMembers";
+	private static final int ACTIONS_LIMIT = 1000;
+	private static final List<String> ACTION_TYPES = Arrays.asList("createCard", "copyCard", "moveCardToBoard",
+			"convertToCardFromCheckItem", "updateCard", "deleteCard", "moveCardFromBoard", "addMemberToCard",
+			"removeMemberFromCard", "createList", "moveListToBoard", "updateList", "moveListFromBoard");
 	private String baseURL = "https://api.trello.com";
 	// Trello key @see https://trello.com/app-key
 	private String key;
@@ -29,216 +47,226 @@ public class TrelloLogger {
 	// a Trello board see : https://trello.com/b/xxxxxx/reports.json
 	private String boardId;
 
+	private File snapshotFile;
+
+	private BoardSnapshot snapshot;
+
+	private Gson gson = new Gson();
+
+	private JsonParser parser = new JsonParser();
+
 	public TrelloLogger(String boardId, String key, String token) {
 		this.key = key;
 		this.token = token;
 		this.boardId = boardId;
 	}
 
+	/**
+	 * Keep the board in the given file so that the next runs only ask for
+	 * what happened on it since.
+	 */
+	public TrelloLogger setSnapshot(File snapshotFile) {
+		this.snapshotFile = snapshotFile;
+		return this;
+	}
+
 	public Collection<Post> get(String filterListCriteria) throws MalformedURLException {
+		BoardSnapshot trelloBoard = syncBoard();
 
-		// Create the board
-		TrelloBoard trelloBoard = new TrelloBoard();
-		trelloBoard.setId(boardId);
-
-		// Get all the lists of the board
-		List<TrelloList> trelloLists = new ArrayList<>();
-		String openListsQuery = baseURL + "/1/boards/" + boardId + "?key=" + key + "&token=" + token
-				+ "&lists=open&list_fields=id,name";
-		URL openListsURL = new URL(openListsQuery);
-		Optional<String> listsJson = readFromTheURL(openListsURL);
-		if (listsJson.isPresent()) {
-			JsonObject boardJsonObject = new JsonParser().parse(listsJson.get()).getAsJsonObject();
-			JsonArray listsJsonArray = boardJsonObject.getAsJsonArray("lists");
-			for (JsonElement listJsonElement : listsJsonArray) {
-				JsonObject listJsonObject = listJsonElement.getAsJsonObject();
-				String trelloListName = listJsonObject.get("name").getAsString();
-				// Filter to keep only the expected lists
-				if (trelloListName.contains(filterListCriteria)) {
-					TrelloList trelloList = new TrelloList();
-					trelloList.setId(listJsonObject.get("id").getAsString());
-					trelloList.setName(trelloListName);
-					trelloLists.add(trelloList);
-
-					// Get cards from the list
-					List<TrelloCard> trelloCards = new ArrayList<>();
-					String openCardsQuery = baseURL + "/1/lists/" + trelloList.getId() + "/cards?key=" + key + "&token="
-							+ token + "&members=true&member_fields=fullName&fields=id,name,desc,due,url&filter=open";
-					URL openCardsURL = new URL(openCardsQuery);
-					Optional<String> cardsJson = readFromTheURL(openCardsURL);
-					if (cardsJson.isPresent()) {
-						JsonArray cardsJsonArray = new JsonParser().parse(cardsJson.get()).getAsJsonArray();
-						for (JsonElement cardJsonElement : cardsJsonArray) {
-							JsonObject cardJsonObject = cardJsonElement.getAsJsonObject();
-							TrelloCard trelloCard = new TrelloCard();
-							trelloCard.setId(cardJsonObject.get("id").getAsString());
-							trelloCard.setName(cardJsonObject.get("name").getAsString());
-							trelloCard.setDesc(cardJsonObject.get("desc").getAsString());
-							trelloCard.setDue(cardJsonObject.get("due").getAsString());
-							JsonArray membersJsonArray = cardJsonObject.get("members").getAsJsonArray();
-							if (membersJsonArray.size() > 0) {
-								trelloCard.setMember(
-										membersJsonArray.get(0).getAsJsonObject().get("fullName").getAsString());
-							}
-							trelloCard.setUrl(cardJsonObject.get("url").getAsString());
-							trelloCards.add(trelloCard);
-						}
-					}
-					trelloList.setCards(trelloCards);
+		List<Post> posts = new ArrayList<Post>();
+		for (TrelloList list : trelloBoard.getLists()) {
+			// Filter to keep only the expected lists
+			if (list.name == null || !list.name.contains(filterListCriteria)) {
+				continue;
+			}
+			for (TrelloCard card : trelloBoard.getCards(list.id)) {
+				if (card.due == null) {
+					continue;
+				}
+				String member = null;
+				if (card.idMembers.size() > 0) {
+					member = trelloBoard.getMemberName(card.idMembers.get(0));
+				}
+				try {
+					Post newPost = Post.createPostWithSubject(card.url, card.name, Strings.nullToEmpty(card.desc),
+							member, TRELLO_ICON,
+							new SimpleDateFormat("yyyy-MM-dd").parse(card.due.substring(0, card.due.indexOf("T"))));
+					newPost.mightBeTruncated(false);
+					newPost.addURLs(card.url);
+
+					posts.add(newPost);
+				} catch (ParseException e) {
+					e.printStackTrace();
 				}
 			}
-			trelloBoard.setLists(trelloLists);
 		}
-
-		List<Post> posts = new ArrayList<Post>();
-		trelloBoard.getLists().forEach(list -> list.getCards().forEach(card -> {
-			Post newPost;
-			try {
-				newPost = Post.createPostWithSubject(card.getUrl(), card.getName(), card.getDesc(), card.getMember(),
-						TRELLO_ICON, new SimpleDateFormat("yyyy-MM-dd")
-								.parse(card.getDue().substring(0, card.getDue().indexOf("T"))));
-				newPost.mightBeTruncated(false);
-				newPost.addURLs(card.getUrl());
-
-				posts.add(newPost);
-			} catch (ParseException e) {
-				e.printStackTrace();
-			}
-		}));
 		return posts;
 	}
 
-	private Optional<String> readFromTheURL(URL url) {
+	/**
+	 * @return the board, retrieved as a whole on the first call and then only
+	 *         updated with the actions done since the previous call.
+	 */
+	private BoardSnapshot syncBoard() {
+		if (snapshot == null && snapshotFile != null) {
+			snapshot = BoardSnapshot.load(snapshotFile, gson, boardId);
+		}
 		try {
-			Scanner scan = new Scanner(url.openStream());
-			String json = new String();
-			while (scan.hasNext())
-				json += scan.nextLine();
-			scan.close();
-
-			System.out.println(json);
-
-			return Optional.of(json);
-		} catch (IOException e) {
+			if (snapshot == null || !readActions(snapshot)) {
+				snapshot = readBoard();
+			}
+			if (snapshotFile != null) {
+				snapshot.save(snapshotFile, gson);
+			}
+		} catch (IOException | JsonParseException | IllegalStateException e) {
 			e.printStackTrace();
 		}
-		return Optional.empty();
-	}
-
-	// Trello board, list, card POJOs
-	private class TrelloBoard {
-
-		private String id;
-		private String name;
-		private List<TrelloList> lists;
-
-		public String getId() {
-			return id;
-		}
-
-		public void setId(String id) {
-			this.id = id;
-		}
-
-		public String getName() {
-			return name;
-		}
-
-		public void setName(String name) {
-			this.name = name;
-		}
-
-		public List<TrelloList> getLists() {
-			return lists;
-		}
-
-		public void setLists(List<TrelloList> lists) {
-			this.lists = lists;
+		if (snapshot == null) {
+			return new BoardSnapshot(boardId);
 		}
+		return snapshot;
 	}
 
-	private class TrelloList {
-
-		private String id;
-		private String name;
-		private List<TrelloCard> cards;
-
-		public String getId() {
-			return id;
-		}
-
-		public void setId(String id) {
-			this.id = id;
-		}
-
-		public String getName() {
-			return name;
-		}
-
-		public void setName(String name) {
-			this.name = name;
-		}
-
-		public List<TrelloCard> getCards() {
-			return cards;
-		}
-
-		public void setCards(List<TrelloCard> cards) {
-			this.cards = cards;
+	/**
+	 * Retrieve the open lists and cards of the board and its members in a
+	 * single request.
+	 */
+	private BoardSnapshot readBoard() throws IOException {
+		BoardSnapshot board = new BoardSnapshot(boardId);
+		String boardQuery = baseURL + "/1/boards/" + boardId + "?key=" + key + "&token=" + token
+				+ "&fields=id&lists=open&list_fields=id,name&cards=open&card_fields=" + CARD_FIELDS
+				+ "&members=all&member_fields=fullName&actions=all&actions_limit=1&action_fields=id";
+		try (Reader in = new InputStreamReader(Http.openStream(boardQuery), Charsets.UTF_8)) {
+			JsonReader reader = new JsonReader(in);
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+				case "lists":
+					reader.beginArray();
+					while (reader.hasNext()) {
+						board.putList(gson.<TrelloList> fromJson(reader, TrelloList.class));
+					}
+					reader.endArray();
+					break;
+				case "cards":
+					reader.beginArray();
+					while (reader.hasNext()) {
+						board.putCard(gson.<TrelloCard> fromJson(reader, TrelloCard.class));
+					}
+					reader.endArray();
+					break;
+				case "members":
+					reader.beginArray();
+					while (reader.hasNext()) {
+						JsonObject member = parser.parse(reader).getAsJsonObject();
+						board.putMember(member.get("id").getAsString(), member.get("fullName").getAsString());
+					}
+					reader.endArray();
+					break;
+				case "actions":
+					reader.beginArray();
+					while (reader.hasNext()) {
+						board.setLastAction(parser.parse(reader).getAsJsonObject().get("id").getAsString());
+					}
+					reader.endArray();
+					break;
+				default:
+					reader.skipValue();
+					break;
+				}
+			}
+			reader.endObject();
 		}
+		return board;
 	}
 
-	private class TrelloCard {
-
-		private String id;
-		private String name;
-		private String desc;
-		private String due;
-		private String member;
-		private String url;
-
-		public String getUrl() {
-			return url;
-		}
-
-		public void setUrl(String url) {
-			this.url = url;
-		}
-
-		public void setId(String id) {
-			this.id = id;
+	/**
+	 * Apply the actions done on the board since the last one applied to the
+	 * snapshot.
+	 *
+	 * @return false if there are too many of them, the whole board should be
+	 *         retrieved again.
+	 */
+	private boolean readActions(BoardSnapshot board) throws IOException {
+		String actionsQuery = baseURL + "/1/boards/" + boardId + "/actions?key=" + key + "&token=" + token
+				+ "&since=" + board.getLastAction() + "&limit=" + ACTIONS_LIMIT + "&filter="
+				+ Joiner.on(',').join(ACTION_TYPES) + "&fields=id,type,data&member=true&member_fields=fullName";
+		List<JsonObject> actions = Lists.newArrayList();
+		try (Reader in = new InputStreamReader(Http.openStream(actionsQuery), Charsets.UTF_8)) {
+			JsonReader reader = new JsonReader(in);
+			reader.beginArray();
+			while (reader.hasNext()) {
+				actions.add(parser.parse(reader).getAsJsonObject());
+			}
+			reader.endArray();
 		}
-
-		public String getName() {
-			return name;
+		if (actions.size() >= ACTIONS_LIMIT) {
+			return false;
 		}
-
-		public void setName(String name) {
-			this.name = name;
+		/*
+		 * the most recent actions come first.
+		 */
+		for (JsonObject action : Lists.reverse(actions)) {
+			board.apply(action);
 		}
-
-		public String getDesc() {
-			return desc;
-		}
-
-		public void setDesc(String desc) {
-			this.desc = desc;
+		if (actions.size() > 0) {
+			board.setLastAction(actions.get(0).get("id").getAsString());
 		}
+		readStaleElements(board);
+		return true;
+	}
 
-		public String getDue() {
-			return due;
+	/**
+	 * Read again the lists and cards the actions did not tell everything
+	 * about. Those which could not be read stay stale and are read at the
+	 * next run.
+	 */
+	private void readStaleElements(BoardSnapshot board) throws IOException {
+		for (String listId : board.getStaleLists()) {
+			JsonObject list = readObject(baseURL + "/1/lists/" + listId + "?key=" + key + "&token=" + token
+					+ "&fields=id,name,closed&cards=open&card_fields=" + CARD_FIELDS);
+			if (list == null || isClosed(list)) {
+				board.refreshList(listId, null, null);
+			} else {
+				List<TrelloCard> cards = Lists.newArrayList();
+				if (list.has("cards")) {
+					for (JsonElement card : list.getAsJsonArray("cards")) {
+						cards.add(gson.fromJson(card, TrelloCard.class));
+					}
+				}
+				board.refreshList(listId, gson.fromJson(list, TrelloList.class), cards);
+			}
 		}
-
-		public void setDue(String due) {
-			this.due = due;
+		for (String cardId : board.getStaleCards()) {
+			JsonObject card = readObject(baseURL + "/1/cards/" + cardId + "?key=" + key + "&token=" + token
+					+ "&fields=" + CARD_FIELDS + ",closed");
+			if (card == null || isClosed(card)) {
+				board.refreshCard(cardId, null);
+			} else {
+				board.refreshCard(cardId, gson.fromJson(card, TrelloCard.class));
+			}
 		}
+	}
 
-		public String getMember() {
-			return member;
+	/**
+	 * @return the object, null if it does not exist anymore.
+	 */
+	private JsonObject readObject(String url) throws IOException {
+		Response response = Http.client(url)
+				.newCall(new Request.Builder().url(url).cacheControl(Http.REVALIDATE).get().build()).execute();
+		try (ResponseBody body = response.body()) {
+			if (response.code() == 404) {
+				return null;
+			}
+			if (!response.isSuccessful()) {
+				throw new IOException("Unexpected code " + response);
+			}
+			return parser.parse(body.charStream()).getAsJsonObject();
 		}
+	}
 
-		public void setMember(String member) {
-			this.member = member;
-		}
+	private static boolean isClosed(JsonObject element) {
+		return element.has("closed") && element.get("closed").getAsBoolean();
 	}
+
 }
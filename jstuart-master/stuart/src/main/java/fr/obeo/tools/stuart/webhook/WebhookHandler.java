@@ -0,0 +1,25 @@
+package fr.obeo.tools.stuart.webhook;
+
+import java.util.Collection;
+
+import com.google.gson.JsonElement;
+
+import fr.obeo.tools.stuart.Post;
+
+/**
+ * Turns the payload of a notification pushed to the {@link WebhookServer} into
+ * posts.
+ */
+public interface WebhookHandler {
+
+	/**
+	 * @param event
+	 *            the kind of event when the sender tells it in a header (like
+	 *            GitHub does), null otherwise.
+	 * @param payload
+	 *            the JSON body of the notification.
+	 * @return the posts to send, possibly none.
+	 */
+	public Collection<Post> handle(String event, JsonElement payload) throws Exception;
+
+}
@@ -0,0 +1,188 @@
+package fr.obeo.tools.stuart.webhook;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import fr.obeo.tools.stuart.Dates;
+import fr.obeo.tools.stuart.Post;
+import fr.obeo.tools.stuart.gerrit.GerritLogger;
+import fr.obeo.tools.stuart.git.GitLogger;
+import fr.obeo.tools.stuart.git.GitMirrors;
+import fr.obeo.tools.stuart.jenkins.JenkinsLogger;
+
+/**
+ * The handlers of the notifications sent by the tools we already poll. A
+ * notification only tells which build, change or repository changed : the
+ * matching logger then retrieves it so that the posts look exactly like the
+ * polled ones (and have the same keys, polling and pushes never post twice).
+ */
+public class WebhookHandlers {
+
+	private static Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").create();
+
+	/**
+	 * Handles the notifications of the Jenkins notification plugin.
+	 */
+	public static WebhookHandler jenkins(final JenkinsLogger logger) {
+		return new WebhookHandler() {
+
+			@Override
+			public Collection<Post> handle(String event, JsonElement payload) throws Exception {
+				JsonObject build = member(payload, "build");
+				String phase = string(build, "phase");
+				String buildURL = string(build, "full_url");
+				if (buildURL != null && ("COMPLETED".equals(phase) || "FINALIZED".equals(phase))) {
+					Post post = logger.getBuildResult(buildURL);
+					if (post != null) {
+						return Collections.singletonList(post);
+					}
+				}
+				return Collections.emptyList();
+			}
+		};
+	}
+
+	/**
+	 * Handles the events of the gerrit webhooks plugin (the same events as
+	 * <code>gerrit stream-events</code>).
+	 */
+	public static WebhookHandler gerrit(final GerritLogger logger) {
+		return new WebhookHandler() {
+
+			@Override
+			public Collection<Post> handle(String event, JsonElement payload) throws Exception {
+				String type = string(payload, "type");
+				String number = string(member(payload, "change"), "number");
+				/*
+				 * the number ends up in a gerrit query.
+				 */
+				if (number != null && number.matches("\\d+") && ("patchset-created".equals(type)
+						|| "comment-added".equals(type) || "change-restored".equals(type))) {
+					return logger.getReadyPatchset(number);
+				}
+				return Collections.emptyList();
+			}
+		};
+	}
+
+	/**
+	 * Handles the push events of GitHub : the pushed commits are fetched in
+	 * the clone of the repository. Every commit of the period is returned, the
+	 * ones already announced are filtered out by the trace of the channel.
+	 *
+	 * @param remoteURLs
+	 *            the repositories which can be cloned, the pushes to the other
+	 *            ones are ignored.
+	 */
+	public static WebhookHandler github(final GitMirrors mirrors, final int nbDays,
+			final Collection<String> remoteURLs) {
+		return new WebhookHandler() {
+
+			@Override
+			public Collection<Post> handle(String event, JsonElement payload) throws Exception {
+				JsonObject repository = member(payload, "repository");
+				String cloneURL = string(repository, "clone_url");
+				String webURL = string(repository, "html_url");
+				/*
+				 * the URL comes from the payload, only the configured
+				 * repositories are cloned.
+				 */
+				if ("push".equals(event) && cloneURL != null && webURL != null && remoteURLs.contains(cloneURL)) {
+					/*
+					 * the clone is shared, pushes are handled one at a time.
+					 */
+					synchronized (mirrors) {
+						return new GitLogger(mirrors).getMergedCommits(Dates.getDateXDaysAgo(nbDays), cloneURL,
+								webURL + "/commit/");
+					}
+				}
+				return Collections.emptyList();
+			}
+		};
+	}
+
+	/**
+	 * Handles ready-made posts, either a single one or an array of posts.
+	 */
+	public static WebhookHandler posts() {
+		return new WebhookHandler() {
+
+			@Override
+			public Collection<Post> handle(String event, JsonElement payload) throws Exception {
+				List<Post> posts = Lists.newArrayList();
+				if (payload.isJsonArray()) {
+					for (JsonElement element : payload.getAsJsonArray()) {
+						posts.add(toPost(element));
+					}
+				} else if (payload.isJsonObject()) {
+					posts.add(toPost(payload));
+				}
+				return posts;
+			}
+		};
+	}
+
+	/**
+	 * A post is given as <code>{"key": ..., "subject": ..., "body": ...,
+	 * "author": ..., "iconURL": ..., "createdAt": ..., "urls": [...],
+	 * "mediaURLs": [...]}</code>, only the key is mandatory.
+	 */
+	private static Post toPost(JsonElement element) {
+		String key = string(element, "key");
+		if (key == null) {
+			throw new IllegalArgumentException("A post needs a key.");
+		}
+		Date createdAt = new Date();
+		if (string(element, "createdAt") != null) {
+			createdAt = gson.fromJson(element.getAsJsonObject().get("createdAt"), Date.class);
+		}
+		String author = string(element, "author");
+		Post post = Post.createPostWithSubject(key, string(element, "subject"),
+				Strings.nullToEmpty(string(element, "body")), author != null ? author : "Bot",
+				Strings.nullToEmpty(string(element, "iconURL")), createdAt);
+		post.addURLs(strings(element, "urls"));
+		post.addMediaURLs(strings(element, "mediaURLs"));
+		return post;
+	}
+
+	private static String[] strings(JsonElement element, String name) {
+		List<String> values = Lists.newArrayList();
+		JsonElement member = element.getAsJsonObject().get(name);
+		if (member != null && member.isJsonArray()) {
+			for (JsonElement value : member.getAsJsonArray()) {
+				values.add(value.getAsString());
+			}
+		}
+		return values.toArray(new String[values.size()]);
+	}
+
+	private static JsonObject member(JsonElement element, String name) {
+		if (element != null && element.isJsonObject()) {
+			JsonElement member = element.getAsJsonObject().get(name);
+			if (member != null && member.isJsonObject()) {
+				return member.getAsJsonObject();
+			}
+		}
+		return null;
+	}
+
+	private static String string(JsonElement element, String name) {
+		if (element != null && element.isJsonObject()) {
+			JsonElement member = element.getAsJsonObject().get(name);
+			if (member != null && member.isJsonPrimitive()) {
+				return member.getAsString();
+			}
+		}
+		return null;
+	}
+
+}
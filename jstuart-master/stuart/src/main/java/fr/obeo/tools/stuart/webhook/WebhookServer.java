@@ -0,0 +1,281 @@
+package fr.obeo.tools.stuart.webhook;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import fr.obeo.tools.stuart.EmitterTrace;
+import fr.obeo.tools.stuart.MattermostPost;
+import fr.obeo.tools.stuart.Post;
+import fr.obeo.tools.stuart.mattermost.AsyncMattermostEmitter;
+
+/**
+ * An embedded HTTP endpoint receiving the notifications of Jenkins, Gerrit,
+ * GitHub or of any tool able to POST a JSON payload, so that the posts reach
+ * mattermost right away instead of at the next polling.
+ *
+ * Notifications are posted to <code>/&lt;kind&gt;/&lt;channel&gt;</code> : the
+ * handler registered for the kind turns the payload into posts, which are sent
+ * to the channel unless its trace tells they already have been. The server
+ * has to run in the JVM of the polling jobs (see the <code>webhook</code>
+ * attribute of the daemon configuration) and to be given their trace, the one
+ * they hold in memory : polling is then kept as a fallback catching what got
+ * lost and never sends a pushed post twice. The trace file is not re-read, a
+ * server and pollers running in different processes would not see each other
+ * posts.
+ *
+ * The payload is acknowledged as soon as it is received, the handlers run in
+ * the background.
+ */
+public class WebhookServer {
+
+	private static final int MAX_PAYLOAD_BYTES = 5 * 1024 * 1024;
+
+	private static final int MAX_BACKLOG = 100;
+
+	private Server server;
+
+	private Map<String, WebhookHandler> handlers = Maps.newConcurrentMap();
+
+	private Map<String, Channel> channels = Maps.newConcurrentMap();
+
+	private String secret;
+
+	private ExecutorService executor = new ThreadPoolExecutor(2, 2, 1, TimeUnit.MINUTES,
+			new ArrayBlockingQueue<Runnable>(MAX_BACKLOG),
+			new ThreadFactoryBuilder().setNameFormat("stuart-webhook-%d").setDaemon(true).build());
+
+	public WebhookServer(int port) {
+		this.server = new Server(port);
+		this.server.setHandler(new AbstractHandler() {
+
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request,
+					HttpServletResponse response) throws IOException {
+				baseRequest.setHandled(true);
+				response.setStatus(receive(target, request));
+			}
+		});
+	}
+
+	/**
+	 * Handle the notifications posted to <code>/&lt;kind&gt;/...</code> with
+	 * the given handler.
+	 */
+	public WebhookServer on(String kind, WebhookHandler handler) {
+		handlers.put(kind, handler);
+		return this;
+	}
+
+	/**
+	 * Send the posts of the notifications posted to
+	 * <code>/.../&lt;name&gt;</code> with the given emitter.
+	 *
+	 * @param trace
+	 *            the trace loaded from the trace file by the pollers of the
+	 *            channel, shared with them. It has to be thread safe, as the
+	 *            one of {@link fr.obeo.tools.stuart.JournaledEmitterTrace}.
+	 * @param pending
+	 *            the keys of the posts the pollers queued but which are not
+	 *            delivered yet, a concurrent set shared with them.
+	 */
+	public WebhookServer addChannel(String name, AsyncMattermostEmitter emitter, EmitterTrace traceFile,
+			Map<String, Date> trace, Set<String> pending) {
+		channels.put(name, new Channel(emitter, traceFile, trace, pending));
+		return this;
+	}
+
+	public WebhookServer removeChannel(String name) {
+		channels.remove(name);
+		return this;
+	}
+
+	/**
+	 * Only accept the notifications signed with this secret (GitHub) or
+	 * giving it as the <code>token</code> parameter of the URL.
+	 */
+	public WebhookServer setSecret(String secret) {
+		this.secret = secret;
+		return this;
+	}
+
+	public WebhookServer start() throws Exception {
+		server.start();
+		System.out.println("[webhook] listening on port " + getPort());
+		return this;
+	}
+
+	public int getPort() {
+		return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+	}
+
+	public void join() throws InterruptedException {
+		server.join();
+	}
+
+	public void stop() throws Exception {
+		server.stop();
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	private int receive(String target, HttpServletRequest request) throws IOException {
+		if (!"POST".equals(request.getMethod())) {
+			return HttpServletResponse.SC_METHOD_NOT_ALLOWED;
+		}
+		List<String> segments = Splitter.on('/').omitEmptyStrings().splitToList(target);
+		if (segments.size() != 2 || !handlers.containsKey(segments.get(0)) || !channels.containsKey(segments.get(1))) {
+			return HttpServletResponse.SC_NOT_FOUND;
+		}
+		final String kind = segments.get(0);
+		final WebhookHandler handler = handlers.get(kind);
+		final Channel channel = channels.get(segments.get(1));
+
+		byte[] body = ByteStreams.toByteArray(ByteStreams.limit(request.getInputStream(), MAX_PAYLOAD_BYTES + 1));
+		if (body.length > MAX_PAYLOAD_BYTES) {
+			return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+		}
+		if (!isAuthorized(request, body)) {
+			return HttpServletResponse.SC_FORBIDDEN;
+		}
+		final JsonElement payload;
+		try {
+			payload = new JsonParser().parse(new String(body, Charsets.UTF_8));
+		} catch (JsonParseException e) {
+			return HttpServletResponse.SC_BAD_REQUEST;
+		}
+		final String event = request.getHeader("X-GitHub-Event");
+		try {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						Collection<Post> posts = handler.handle(event, payload);
+						for (Post post : posts) {
+							channel.send(post);
+						}
+					} catch (Exception e) {
+						System.err.println("[webhook] " + kind + " notification failed : " + e.getMessage());
+						e.printStackTrace();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+		}
+		return HttpServletResponse.SC_ACCEPTED;
+	}
+
+	private boolean isAuthorized(HttpServletRequest request, byte[] body) {
+		if (secret == null) {
+			return true;
+		}
+		String token = request.getParameter("token");
+		if (token != null
+				&& MessageDigest.isEqual(token.getBytes(Charsets.UTF_8), secret.getBytes(Charsets.UTF_8))) {
+			return true;
+		}
+		try {
+			String signature = request.getHeader("X-Hub-Signature-256");
+			if (signature != null) {
+				return MessageDigest.isEqual(signature.getBytes(Charsets.UTF_8),
+						("sha256=" + hmac("HmacSHA256", body)).getBytes(Charsets.UTF_8));
+			}
+			signature = request.getHeader("X-Hub-Signature");
+			if (signature != null) {
+				return MessageDigest.isEqual(signature.getBytes(Charsets.UTF_8),
+						("sha1=" + hmac("HmacSHA1", body)).getBytes(Charsets.UTF_8));
+			}
+		} catch (GeneralSecurityException e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	private String hmac(String algorithm, byte[] body) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance(algorithm);
+		mac.init(new SecretKeySpec(secret.getBytes(Charsets.UTF_8), algorithm));
+		return BaseEncoding.base16().lowerCase().encode(mac.doFinal(body));
+	}
+
+	private static class Channel {
+
+		private AsyncMattermostEmitter emitter;
+
+		private EmitterTrace traceFile;
+
+		private Map<String, Date> trace;
+
+		private Set<String> pending;
+
+		Channel(AsyncMattermostEmitter emitter, EmitterTrace traceFile, Map<String, Date> trace,
+				Set<String> pending) {
+			this.emitter = emitter;
+			this.traceFile = traceFile;
+			this.trace = trace;
+			this.pending = pending;
+		}
+
+		void send(Post post) throws InterruptedException {
+			final String key = post.getKey();
+			/*
+			 * a post is traced before being removed from the pending ones :
+			 * once marked as pending it is either not sent yet or traced.
+			 */
+			if (!pending.add(key)) {
+				return;
+			}
+			if (trace.containsKey(key)) {
+				pending.remove(key);
+				return;
+			}
+			System.out.println("[webhook] sending " + key);
+			emitter.submit(MattermostPost.fromGenericPost(post)).whenComplete((sent, e) -> {
+				if (e == null) {
+					trace.put(key, new Date());
+					try {
+						traceFile.save(trace);
+					} catch (IOException e1) {
+						e1.printStackTrace();
+					}
+				}
+				pending.remove(key);
+				if (e != null) {
+					System.err.println("[webhook] could not send " + key + " : " + e.getMessage());
+				}
+			});
+		}
+	}
+
+}
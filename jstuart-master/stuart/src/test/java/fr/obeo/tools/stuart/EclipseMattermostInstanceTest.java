@@ -15,14 +15,17 @@ import org.junit.Test;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.google.common.hash.Hashing;
 
 import fr.obeo.tools.stuart.bugzilla.BugzillaLogger;
+import fr.obeo.tools.stuart.bugzilla.BugzillaMirror;
 import fr.obeo.tools.stuart.eclipseforum.EclipseForumsLogger;
 import fr.obeo.tools.stuart.gerrit.GerritLogger;
 import fr.obeo.tools.stuart.git.GitLogger;
 import fr.obeo.tools.stuart.jenkins.JenkinsLogger;
+import fr.obeo.tools.stuart.mattermost.AsyncMattermostEmitter;
 import fr.obeo.tools.stuart.mattermost.MattermostEmitter;
 import fr.obeo.tools.stuart.rss.RssLogger;
 
@@ -31,6 +34,19 @@ public class EclipseMattermostInstanceTest {
 	private static final String SO_ICON = "https://veithen.github.io/images/icon-stackoverflow.svg";
 	private String host = "mattermost.eclipse.org";
 
+	/**
+	 * the bugzilla issues are mirrored in the workspace so that the next runs
+	 * only retrieve the issues changed since.
+	 */
+	private static BugzillaMirror eclipseBugzillaMirror() {
+		String storage = System.getenv("WORKSPACE");
+		if (storage == null) {
+			storage = ".";
+		}
+		return BugzillaMirror.shared("https://bugs.eclipse.org/bugs")
+				.setFile(new File(storage + "/bugs.eclipse.org_mirror.json"));
+	}
+
 	@Test
 	public void eclipseAnnounces() throws Exception {
 		String storage = System.getenv("WORKSPACE");
@@ -100,8 +116,8 @@ public class EclipseMattermostInstanceTest {
 		posts.addAll(new RssLogger(new URL("https://stackoverflow.com/feeds/tag/jsdt"), daysAgo).setIcon(SO_ICON).get());
 
 		posts.addAll(new BugzillaLogger("https://bugs.eclipse.org/bugs", Sets.newHashSet("genie", "genie@eclipse.org"))
-				.bugzillaLog(3, Sets.newHashSet("JSDT", "WTP Source Editing", "WTP Java EE Tools", "WTP Common Tools",
-						"Web Tools", "Java Server Faces")));
+				.setMirror(eclipseBugzillaMirror()).bugzillaLog(3, Sets.newHashSet("JSDT", "WTP Source Editing",
+						"WTP Java EE Tools", "WTP Common Tools", "Web Tools", "Java Server Faces")));
 
 		// log git commits
 		posts.addAll(new GerritLogger("https://git.eclipse.org/r").groupReviews(false)
@@ -148,10 +164,12 @@ public class EclipseMattermostInstanceTest {
 		posts.addAll(
 				new RssLogger(new URL("https://dev.eclipse.org/mhonarc/lists/virgo-dev/maillist.rss"), daysAgo).get());
 
-		posts.addAll(new JenkinsLogger("https://hudson.eclipse.org/virgo/", daysAgo).getBuildResults());
+		Watermarks watermarks = new Watermarks(new File(storage + "/" + host + "_virgo" + "_watermarks.json"));
+		posts.addAll(new JenkinsLogger("https://hudson.eclipse.org/virgo/", daysAgo).setWatermarks(watermarks)
+				.getBuildResults(trace.keySet()));
 
 		posts.addAll(new BugzillaLogger("https://bugs.eclipse.org/bugs", Sets.newHashSet("genie", "genie@eclipse.org"))
-				.bugzillaLog(3, Sets.newHashSet("Virgo")));
+				.setMirror(eclipseBugzillaMirror()).bugzillaLog(3, Sets.newHashSet("Virgo")));
 
 		Collections.sort(posts, new Comparator<Post>() {
 			public int compare(Post m1, Post m2) {
@@ -165,6 +183,7 @@ public class EclipseMattermostInstanceTest {
 
 		traceFile.evictOldEvents(trace, 60);
 		traceFile.save(trace);
+		watermarks.save();
 	}
 
 	@Test
@@ -201,6 +220,7 @@ public class EclipseMattermostInstanceTest {
 		// new RssLogger(new URL(""), daysAgo).get());
 
 		posts.addAll(new BugzillaLogger("https://bugs.eclipse.org/bugs", Sets.newHashSet("genie", "genie@eclipse.org"))
+				.setMirror(eclipseBugzillaMirror())
 				.bugzillaLog(3, Sets.newHashSet("EPP"), Sets.newHashSet("Error Reporting and Logging ")));
 
 		posts.addAll(new GerritLogger("https://git.eclipse.org/r").groupReviews(false)
@@ -231,65 +251,63 @@ public class EclipseMattermostInstanceTest {
 		String qa_Channel = System.getenv("PLATFORM_QA_CHANNEL");
 		String patch_Channel = System.getenv("PLATFORM_PATCHES_CHANNEL");
 		if (qa_Channel != null && bug_Channel != null && patch_Channel != null) {
-			MattermostEmitter qaEmitter = new MattermostEmitter("https", host, qa_Channel);
-
 			Date daysAgo = getDateXDaysAgo(3);
 
-			EmitterTrace traceFile = new EmitterTrace(new File(storage + "/" + host + "_platform" + "_trace.json"));
+			/*
+			 * the journaled trace can be updated from the emitter threads on
+			 * delivery.
+			 */
+			EmitterTrace traceFile = new JournaledEmitterTrace(
+					new File(storage + "/" + host + "_platform" + "_trace.json"));
 			Map<String, Date> trace = traceFile.load();
 
-			List<Post> posts = Lists.newArrayList();
-			posts.addAll(new EclipseForumsLogger().collectPosts(11, daysAgo));
-			posts.addAll(new EclipseForumsLogger().collectPosts(116, daysAgo));
-			posts.addAll(new EclipseForumsLogger().collectPosts(106, daysAgo));
-			posts.addAll(new EclipseForumsLogger().collectPosts(12, daysAgo));
-			posts.addAll(new EclipseForumsLogger().collectPosts(100, daysAgo));
-			posts.addAll(new EclipseForumsLogger().collectPosts(15, daysAgo));
-
-			Collections.sort(posts, new Comparator<Post>() {
-				public int compare(Post m1, Post m2) {
-					return m1.getCreatedAt().compareTo(m2.getCreatedAt());
-				}
-			});
-
-			posts.addAll(new RssLogger(new URL("https://stackoverflow.com/feeds/tag/eclipse-plugin"), daysAgo)
-					.setIcon(SO_ICON).get());
-			posts.addAll(new RssLogger(new URL("https://stackoverflow.com/feeds/tag/eclipse-rcp"), daysAgo)
-					.setIcon(SO_ICON).get());
-			posts.addAll(
-					new RssLogger(new URL("https://stackoverflow.com/feeds/tag/swt"), daysAgo).setIcon(SO_ICON).get());
-			posts.addAll(
-					new RssLogger(new URL("https://stackoverflow.com/feeds/tag/jface"), daysAgo).setIcon(SO_ICON).get());
-			posts.addAll(
-					new RssLogger(new URL("https://stackoverflow.com/feeds/tag/e4"), daysAgo).setIcon(SO_ICON).get());
-
-			for (Post post : posts) {
-				send(qaEmitter, trace, post);
+			PostCollector collector = new PostCollector();
+			for (final int forumID : new int[] { 11, 116, 106, 12, 100, 15 }) {
+				collector.add(qa_Channel, PostSources.create("forum " + forumID, "https://www.eclipse.org/forums/",
+						() -> new EclipseForumsLogger().collectPosts(forumID, daysAgo)));
 			}
-
-			MattermostEmitter bugEmitter = new MattermostEmitter("https", host, bug_Channel);
-			List<Post> bugzillas = Lists.newArrayList();
-			bugzillas.addAll(
-					new BugzillaLogger("https://bugs.eclipse.org/bugs", Sets.newHashSet("genie", "genie@eclipse.org"))
-							.bugzillaLog(3, Sets.newHashSet("Platform")));
-
-			for (Post post : bugzillas) {
-				send(bugEmitter, trace, post);
+			for (String tag : new String[] { "eclipse-plugin", "eclipse-rcp", "swt", "jface", "e4" }) {
+				final URL feed = new URL("https://stackoverflow.com/feeds/tag/" + tag);
+				collector.add(qa_Channel, PostSources.create("stackoverflow " + tag, feed.toString(),
+						() -> new RssLogger(feed, daysAgo).setIcon(SO_ICON).get()));
 			}
-
-			List<Post> patches = Lists.newArrayList();
-			patches.addAll(new GerritLogger("https://git.eclipse.org/r").groupReviews(false)
-					.getPatchsets(Sets.newHashSet("platform/eclipse.platform", "platform/eclipse.platform.common",
-							"platform/eclipse.platform.debug", "platform/eclipse.platform.images",
-							"platform/eclipse.platform.news", "platform/eclipse.platform.resources",
-							"platform/eclipse.platform.runtime", "platform/eclipse.platform.swt",
-							"platform/eclipse.platform.team", "platform/eclipse.platform.text",
-							"platform/eclipse.platform.ua", "platform/eclipse.platform.ui",
-							"platform/eclipse.platform.tools"), 1));
-
-			MattermostEmitter patchesEmitter = new MattermostEmitter("https", host, patch_Channel);
-			for (Post post : patches) {
-				send(patchesEmitter, trace, post);
+			collector.add(bug_Channel,
+					PostSources.create("bugzilla Platform", "https://bugs.eclipse.org/bugs",
+							() -> new BugzillaLogger("https://bugs.eclipse.org/bugs",
+									Sets.newHashSet("genie", "genie@eclipse.org"))
+											.setMirror(eclipseBugzillaMirror())
+											.bugzillaLog(3, Sets.newHashSet("Platform"))));
+			collector.add(patch_Channel, PostSources.create("gerrit platform", "https://git.eclipse.org/r",
+					() -> new GerritLogger("https://git.eclipse.org/r").groupReviews(false)
+							.getPatchsets(Sets.newHashSet("platform/eclipse.platform",
+									"platform/eclipse.platform.common", "platform/eclipse.platform.debug",
+									"platform/eclipse.platform.images", "platform/eclipse.platform.news",
+									"platform/eclipse.platform.resources", "platform/eclipse.platform.runtime",
+									"platform/eclipse.platform.swt", "platform/eclipse.platform.team",
+									"platform/eclipse.platform.text", "platform/eclipse.platform.ua",
+									"platform/eclipse.platform.ui", "platform/eclipse.platform.tools"), 1)));
+
+			Multimap<String, Post> postsByChannel = collector.collect();
+			collector.printReports(System.out);
+			collector.shutdown();
+
+			List<AsyncMattermostEmitter> emitters = Lists.newArrayList();
+			for (String channel : Lists.newArrayList(qa_Channel, bug_Channel, patch_Channel)) {
+				List<Post> posts = Lists.newArrayList(postsByChannel.get(channel));
+				Collections.sort(posts, new Comparator<Post>() {
+					public int compare(Post m1, Post m2) {
+						return m1.getCreatedAt().compareTo(m2.getCreatedAt());
+					}
+				});
+				AsyncMattermostEmitter emitter = new AsyncMattermostEmitter(
+						new MattermostEmitter("https", host, channel));
+				for (Post post : posts) {
+					sendAsync(emitter, trace, post);
+				}
+				emitters.add(emitter);
+			}
+			for (AsyncMattermostEmitter emitter : emitters) {
+				emitter.close();
 			}
 
 			traceFile.evictOldEvents(trace, 60);
@@ -357,7 +375,7 @@ public class EclipseMattermostInstanceTest {
 			List<Post> posts = Lists.newArrayList();
 			posts.addAll(
 					new BugzillaLogger("https://bugs.eclipse.org/bugs", Sets.newHashSet("genie", "genie@eclipse.org"))
-							.bugzillaLog(3, Sets.newHashSet("Package-Drone")));
+							.setMirror(eclipseBugzillaMirror()).bugzillaLog(3, Sets.newHashSet("Package-Drone")));
 			posts.addAll(new GitLogger(new File(storage + "/clones/")).getMergedCommits(daysAgo,
 					"https://github.com/eclipse/packagedrone.git", "https://github.com/eclipse/packagedrone/commit/"));
 			posts.addAll(new EclipseForumsLogger().collectPosts(318, daysAgo));
@@ -425,7 +443,7 @@ public class EclipseMattermostInstanceTest {
 					.getPatchsets(Sets.newHashSet("sirius/org.eclipse.sirius"), nbDays));
 			posts.addAll(
 					new BugzillaLogger("https://bugs.eclipse.org/bugs", Sets.newHashSet("genie", "genie@eclipse.org"))
-							.bugzillaLog(3, Sets.newHashSet("Sirius")));
+							.setMirror(eclipseBugzillaMirror()).bugzillaLog(3, Sets.newHashSet("Sirius")));
 
 			Collections.sort(posts, new Comparator<Post>() {
 				public int compare(Post m1, Post m2) {
@@ -481,6 +499,20 @@ public class EclipseMattermostInstanceTest {
 
 	}
 
+	private void sendAsync(AsyncMattermostEmitter emitter, final Map<String, Date> trace, final Post post)
+			throws InterruptedException {
+		if (!trace.containsKey(post.getKey())) {
+			System.err.println("Sending :" + post.getKey());
+			emitter.submit(MattermostPost.fromGenericPost(post)).whenComplete((sent, error) -> {
+				if (error == null) {
+					trace.put(post.getKey(), new Date());
+				} else {
+					error.printStackTrace();
+				}
+			});
+		}
+	}
+
 	private void send(MattermostEmitter emitter, Map<String, Date> trace, Post post) {
 		if (!trace.containsKey(post.getKey())) {
 			try {